@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ait.tooling.server.core.json.JSONArray;
+import com.ait.tooling.server.core.json.JSONObject;
+import com.ait.tooling.server.mongodb.MongoDB.MMapCodec;
+import com.ait.tooling.server.mongodb.MongoDB.MMapCodecProvider;
+import com.mongodb.MongoClient;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+UseG1GC" })
+public class MMapCodecBenchmark
+{
+    private static final EncoderContext CONTEXT = EncoderContext.builder().build();
+
+    @Param({ "8", "64" })
+    public int                          fields;
+
+    private JSONObject                  m_json;
+
+    private Codec<Document>             m_document;
+
+    private MMapCodec                   m_mapcodec;
+
+    private BasicOutputBuffer           m_buffer;
+
+    @Setup
+    public void setup()
+    {
+        final CodecRegistry registry = MongoClient.getDefaultCodecRegistry();
+
+        m_document = registry.get(Document.class);
+
+        m_mapcodec = MMapCodecProvider.getMapCodec(registry);
+
+        m_buffer = new BasicOutputBuffer(64 * 1024);
+
+        m_json = new JSONObject();
+
+        m_json.put("id", new ObjectId().toString());
+
+        for (int i = 0; i < fields; i++)
+        {
+            switch (i % 4)
+            {
+                case 0:
+                    m_json.put("name" + i, "value" + i);
+                    break;
+                case 1:
+                    m_json.put("count" + i, (long) i);
+                    break;
+                case 2:
+                    m_json.put("when" + i, new Date(i));
+                    break;
+                default:
+                {
+                    final JSONArray list = new JSONArray();
+
+                    list.add(i);
+
+                    list.add("item" + i);
+
+                    m_json.put("list" + i, list);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int copyDocument()
+    {
+        m_buffer.truncateToPosition(0);
+
+        m_document.encode(new BsonBinaryWriter(m_buffer), new Document(m_json), CONTEXT);
+
+        return m_buffer.getPosition();
+    }
+
+    @Benchmark
+    public int encodeMap()
+    {
+        m_buffer.truncateToPosition(0);
+
+        m_mapcodec.encode(new BsonBinaryWriter(m_buffer), m_json, CONTEXT);
+
+        return m_buffer.getPosition();
+    }
+}
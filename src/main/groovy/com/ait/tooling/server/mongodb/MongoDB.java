@@ -28,41 +28,123 @@ import static com.mongodb.client.model.Filters.ne;
 import static com.mongodb.client.model.Filters.nin;
 import static com.mongodb.client.model.Filters.not;
 import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Filters.type;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.apache.log4j.Logger;
-import org.bson.BSON;
+import org.bson.BsonArray;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
 import org.bson.BsonDocument;
+import org.bson.BsonDocumentWrapper;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonDouble;
 import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonInvalidOperationException;
+import org.bson.BsonNull;
+import org.bson.BsonNumber;
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonString;
+import org.bson.BsonType;
 import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.ByteBuf;
 import org.bson.Document;
-import org.bson.Transformer;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.RawBsonDocumentCodec;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
+import org.bson.io.ByteBufferBsonInput;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 
 import com.ait.tooling.common.api.java.util.StringOps;
-import com.ait.tooling.server.core.json.JSONUtils;
+import com.ait.tooling.server.mongodb.MongoDBAsync.MAsyncDatabase;
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MCollectionMetrics;
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MOperation;
 import com.ait.tooling.server.mongodb.support.spring.IMongoDBCollectionOptions;
 import com.ait.tooling.server.mongodb.support.spring.IMongoDBOptions;
+import com.mongodb.Block;
+import com.mongodb.CursorType;
+import com.mongodb.Function;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCredential;
+import com.mongodb.MongoNamespace;
 import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
 import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.ListIndexesIterable;
@@ -70,65 +152,117 @@ import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
 
 public final class MongoDB
 {
-    private static final Logger                logger = Logger.getLogger(MongoDB.class);
+    private static final Logger                              logger              = Logger.getLogger(MongoDB.class);
 
-    private final MongoClient                  m_mongo;
+    private static final BsonDocumentCodec                   BSON_CODEC          = new BsonDocumentCodec();
 
-    private final String                       m_usedb;
+    private static final int                                 PARALLEL_OVERSAMPLE = 16;
 
-    private final boolean                      m_useid;
+    public static final int                                  DEFAULT_HANDLE_SIZE = 1024;
 
-    private final Map<String, IMongoDBOptions> m_dbops;
+    private final MongoClient                                m_mongo;
+
+    private final String                                     m_usedb;
+
+    private final boolean                                    m_useid;
+
+    private final Map<String, IMongoDBOptions>               m_dbops;
+
+    private final List<ServerAddress>                        m_addr;
+
+    private final List<MongoCredential>                      m_auth;
+
+    private final MongoClientOptions                         m_opts;
+
+    private final boolean                                    m_repl;
+
+    private MongoDBAsync                                     m_async;
+
+    private final ConcurrentHashMap<String, MFindOneCache>   m_cache             = new ConcurrentHashMap<String, MFindOneCache>();
+
+    private final MAggregationCache                          m_aggcache          = new MAggregationCache();
+
+    private final MCountCache                                m_counter           = new MCountCache();
+
+    private final MongoDBMetrics                             m_metrics;
+
+    private final MongoDBIndexAdvisor                        m_advisor;
+
+    private final Set<MTailableCursor>                       m_tailers           = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, MDatabase>       m_dbase             = new ConcurrentHashMap<String, MDatabase>();
+
+    private final ConcurrentHashMap<String, MNamespaceCache> m_names             = new ConcurrentHashMap<String, MNamespaceCache>();
+
+    private volatile int                                     m_hsize             = DEFAULT_HANDLE_SIZE;
+
+    private volatile long                                    m_nsrefresh         = MNamespaceCache.DEFAULT_REFRESH;
+
+    static final <K, V> V register(final ConcurrentHashMap<K, V> map, final K key, final V value, final int size)
+    {
+        if (size < 1)
+        {
+            return value;
+        }
+        // evict on overflow, so handles past the bound are still shared rather than created per lookup
+        if (map.size() >= size)
+        {
+            map.clear();
+        }
+        final V have = map.putIfAbsent(key, value);
+
+        if (null != have)
+        {
+            return have;
+        }
+        return value;
+    }
 
     @SuppressWarnings("unchecked")
-    private static final Map<String, Object> CAST_MAP(Map<String, ?> map)
+    static final Map<String, Object> CAST_MAP(Map<String, ?> map)
     {
         return (Map<String, Object>) Objects.requireNonNull(map);
     }
 
     public MongoDB(final List<ServerAddress> addr, final List<MongoCredential> auth, final MongoClientOptions opts, final boolean repl, final String usedb, final boolean useid, final Map<String, IMongoDBOptions> dbops)
+    {
+        this(addr, auth, opts, repl, usedb, useid, dbops, new MongoDBMetrics(usedb, true));
+    }
+
+    public MongoDB(final List<ServerAddress> addr, final List<MongoCredential> auth, final MongoClientOptions opts, final boolean repl, final String usedb, final boolean useid, final Map<String, IMongoDBOptions> dbops, final MongoDBMetrics metrics)
     {
         m_useid = useid;
 
+        m_metrics = Objects.requireNonNull(metrics);
+
         m_dbops = Objects.requireNonNull(dbops);
 
         m_usedb = StringOps.requireTrimOrNull(usedb);
 
-        BSON.addEncodingHook(BigDecimal.class, new Transformer()
-        {
-            @Override
-            public Object transform(final Object object)
-            {
-                if (null == object)
-                {
-                    return null;
-                }
-                return JSONUtils.asDouble(object);
-            }
-        });
-        BSON.addEncodingHook(BigInteger.class, new Transformer()
-        {
-            @Override
-            public Object transform(Object object)
-            {
-                if (null == object)
-                {
-                    return null;
-                }
-                Long lval = JSONUtils.asLong(object);
+        m_addr = addr;
+
+        m_auth = auth;
+
+        m_opts = MNumericCodecProvider.withNumericCodecs(Objects.requireNonNull(opts), MDecimalEncoding.DECIMAL128);
+
+        m_repl = repl;
 
-                if (null != lval)
-                {
-                    return lval;
-                }
-                return JSONUtils.asInteger(object);
-            }
-        });
         if (addr.isEmpty())
         {
             throw new IllegalArgumentException("no ServerAddress");
@@ -143,24 +277,27 @@ public final class MongoDB
             }
             if ((null == auth) || (auth.isEmpty()))
             {
-                m_mongo = new MongoClient(main, Objects.requireNonNull(opts));
+                m_mongo = new MongoClient(main, m_opts);
             }
             else
             {
-                m_mongo = new MongoClient(main, auth, Objects.requireNonNull(opts));
+                m_mongo = new MongoClient(main, auth, m_opts);
             }
         }
         else
         {
             if ((null == auth) || (auth.isEmpty()))
             {
-                m_mongo = new MongoClient(addr, Objects.requireNonNull(opts));
+                m_mongo = new MongoClient(addr, m_opts);
             }
             else
             {
-                m_mongo = new MongoClient(addr, auth, Objects.requireNonNull(opts));
+                m_mongo = new MongoClient(addr, auth, m_opts);
             }
         }
+        m_advisor = new MongoDBIndexAdvisor(m_metrics.getName(), m_mongo);
+
+        m_metrics.setIndexAdvisor(m_advisor);
     }
 
     public boolean isAddingID()
@@ -168,12 +305,124 @@ public final class MongoDB
         return m_useid;
     }
 
+    public MongoDBMetrics getMongoDBMetrics()
+    {
+        return m_metrics;
+    }
+
+    public MongoDBIndexAdvisor getIndexAdvisor()
+    {
+        return m_advisor;
+    }
+
+    public MAggregationCache getAggregationCache()
+    {
+        return m_aggcache;
+    }
+
+    public MCountCache getCountCache()
+    {
+        return m_counter;
+    }
+
+    public int getHandleCacheSize()
+    {
+        return m_hsize;
+    }
+
+    public void setHandleCacheSize(final int size)
+    {
+        m_hsize = Math.max(0, size);
+    }
+
+    public long getNamespaceRefreshInterval()
+    {
+        return m_nsrefresh;
+    }
+
+    public void setNamespaceRefreshInterval(final long refresh)
+    {
+        m_nsrefresh = Math.max(0L, refresh);
+
+        for (MNamespaceCache names : m_names.values())
+        {
+            names.setRefreshInterval(m_nsrefresh);
+        }
+    }
+
+    // one namespace cache per database, so creates and drops through any handle are seen by all of them
+    final MNamespaceCache namespaces(final MongoDatabase db)
+    {
+        return m_names.computeIfAbsent(db.getName(), name -> new MNamespaceCache(db, getNamespaceRefreshInterval()));
+    }
+
+    public int getDatabaseHandleCount()
+    {
+        return m_dbase.size();
+    }
+
+    public int getCollectionHandleCount()
+    {
+        int count = 0;
+
+        for (MDatabase db : m_dbase.values())
+        {
+            count += db.getCollectionHandleCount();
+        }
+        return count;
+    }
+
+    public void clearHandleCache()
+    {
+        m_dbase.clear();
+    }
+
     public void close()
     {
+        for (MTailableCursor tailer : new ArrayList<MTailableCursor>(m_tailers))
+        {
+            tailer.close();
+        }
+        clearHandleCache();
+
+        m_names.clear();
+
+        m_aggcache.close();
+
+        m_advisor.close();
+
         if (null != m_mongo)
         {
             m_mongo.close();
         }
+        synchronized (this)
+        {
+            if (null != m_async)
+            {
+                m_async.close();
+
+                m_async = null;
+            }
+        }
+    }
+
+    public synchronized MongoDBAsync getMongoDBAsync()
+    {
+        if (null == m_async)
+        {
+            m_async = new MongoDBAsync(m_addr, m_auth, m_opts, m_repl, m_usedb, m_useid, m_dbops);
+        }
+        return m_async;
+    }
+
+    public final MAsyncDatabase async(final String name)
+    {
+        return getMongoDBAsync().db(StringOps.requireTrimOrNull(name));
+    }
+
+    public final MAsyncDatabase async()
+    {
+        return getMongoDBAsync().db();
     }
 
     public List<String> getDatabaseNames()
@@ -183,12 +432,20 @@ public final class MongoDB
 
     public final MDatabase db(final String name) throws Exception
     {
-        return db(StringOps.requireTrimOrNull(name), isAddingID());
+        final String trim = StringOps.requireTrimOrNull(name);
+
+        final MDatabase db = m_dbase.get(trim);
+
+        if (null != db)
+        {
+            return db;
+        }
+        return register(m_dbase, trim, db(trim, isAddingID()), m_hsize);
     }
 
     public final MDatabase db() throws Exception
     {
-        return db(m_usedb, isAddingID());
+        return db(m_usedb);
     }
 
     public final MDatabase db(String name, boolean id) throws Exception
@@ -201,24 +458,50 @@ public final class MongoDB
         {
             id = op.isCreateID();
         }
-        return new MDatabase(m_mongo.getDatabase(name), id, op);
+        return new MDatabase(m_mongo.getDatabase(name), id, op, this);
     }
 
     public static final class MDatabase
     {
-        private final MongoDatabase   m_db;
+        private final MongoDatabase                                                m_db;
 
-        private final IMongoDBOptions m_op;
+        private final IMongoDBOptions                                              m_op;
 
-        private final boolean         m_id;
+        private final boolean                                                      m_id;
 
-        protected MDatabase(final MongoDatabase db, final boolean id, final IMongoDBOptions op) throws Exception
+        private final MongoDB                                                      m_mongo;
+
+        private final ConcurrentHashMap<Object, MCollection>                       m_colls = new ConcurrentHashMap<Object, MCollection>();
+
+        private final ConcurrentHashMap<MCollectionHandleKey, MTypedCollection<?>> m_typed = new ConcurrentHashMap<MCollectionHandleKey, MTypedCollection<?>>();
+
+        private final MNamespaceCache                                              m_names;
+
+        protected MDatabase(final MongoDatabase db, final boolean id, final IMongoDBOptions op, final MongoDB mongo) throws Exception
         {
             m_id = id;
 
             m_op = op;
 
             m_db = Objects.requireNonNull(db);
+
+            m_mongo = Objects.requireNonNull(mongo);
+
+            m_names = m_mongo.namespaces(m_db);
+        }
+
+        private final MCollectionMetrics getMetrics(final String name)
+        {
+            return m_mongo.getMongoDBMetrics().collection(getName(), name);
+        }
+
+        private final MFindOneCache getFindOneCache(final String name, final IMongoDBCollectionOptions cops)
+        {
+            if ((null == cops) || (cops.getCacheSize() < 1))
+            {
+                return null;
+            }
+            return m_mongo.m_cache.computeIfAbsent(getName() + "." + name, key -> new MFindOneCache(cops.getCacheSize(), cops.getCacheTTL()));
         }
 
         public boolean isCreateID()
@@ -234,54 +517,149 @@ public final class MongoDB
         public final void drop()
         {
             m_db.drop();
+
+            m_names.cleared();
+        }
+
+        public final MNamespaceCache getNamespaceCache()
+        {
+            return m_names;
         }
 
         public final boolean isCollection(final String name)
         {
-            return getCollectionNames().contains(StringOps.requireTrimOrNull(name));
+            return m_names.contains(name);
         }
 
         public final List<String> getCollectionNames()
         {
-            return m_db.listCollectionNames().into(new ArrayList<String>());
+            return m_names.getNames();
         }
 
-        public final MCollection collection(String name) throws Exception
+        public final MCollection createCollection(final String name) throws Exception
         {
-            name = StringOps.requireTrimOrNull(name);
+            m_db.createCollection(StringOps.requireTrimOrNull(name));
 
-            if (null != m_op)
+            m_names.created(name.trim());
+
+            return collection(name);
+        }
+
+        public final MCollection collection(final String name) throws Exception
+        {
+            final String trim = StringOps.requireTrimOrNull(name);
+
+            final MCollection collection = m_colls.get(trim);
+
+            if (null != collection)
             {
-                final IMongoDBCollectionOptions cops = m_op.getCollectionOptions(name);
+                return collection;
+            }
+            return register(m_colls, trim, resolve(trim, null), m_mongo.m_hsize);
+        }
 
-                if (null != cops)
-                {
-                    return new MCollection(m_db.getCollection(name), cops.isCreateID());
-                }
+        public final MCollection collection(final String name, final MCollectionPreferences opts) throws Exception
+        {
+            if ((null == opts) || (false == opts.isValid()))
+            {
+                return collection(name);
+            }
+            final MCollectionHandleKey key = new MCollectionHandleKey(StringOps.requireTrimOrNull(name), opts, null);
+
+            final MCollection collection = m_colls.get(key);
+
+            if (null != collection)
+            {
+                return collection;
+            }
+            return register(m_colls, key, resolve(key.m_name, opts), m_mongo.m_hsize);
+        }
+
+        public final <T> MTypedCollection<T> collection(final String name, final Class<T> type) throws Exception
+        {
+            return collection(name, type, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        public final <T> MTypedCollection<T> collection(final String name, final Class<T> type, final MCollectionPreferences opts) throws Exception
+        {
+            final MCollectionHandleKey key = new MCollectionHandleKey(StringOps.requireTrimOrNull(name), (((null != opts) && (opts.isValid())) ? opts : null), Objects.requireNonNull(type));
+
+            // the key carries the type, so a registered handle always has the requested type parameter
+            final MTypedCollection<T> collection = (MTypedCollection<T>) m_typed.get(key);
+
+            if (null != collection)
+            {
+                return collection;
             }
-            return new MCollection(m_db.getCollection(name), isCreateID());
+            return (MTypedCollection<T>) register(m_typed, key, new MTypedCollection<T>(collection(key.m_name, key.m_opts), type), m_mongo.m_hsize);
         }
 
-        public final MCollection collection(String name, final MCollectionPreferences opts) throws Exception
+        public final int getCollectionHandleCount()
         {
-            name = StringOps.requireTrimOrNull(name);
+            return m_colls.size() + m_typed.size();
+        }
 
+        private final MCollection resolve(final String name, final MCollectionPreferences opts)
+        {
             boolean crid = isCreateID();
 
+            IMongoDBCollectionOptions cops = null;
+
             if (null != m_op)
             {
-                final IMongoDBCollectionOptions cops = m_op.getCollectionOptions(name);
+                cops = m_op.getCollectionOptions(name);
 
                 if (null != cops)
                 {
                     crid = cops.isCreateID();
                 }
-                if ((null != opts) && (opts.isValid()))
-                {
-                    return opts.withCollectionOptions(m_db.getCollection(name), crid);
-                }
             }
-            return new MCollection(m_db.getCollection(name), crid);
+            if (null != opts)
+            {
+                return opts.withCollectionOptions(m_db.getCollection(name), crid, getFindOneCache(name, cops), getMetrics(name), MCursorPreferences.from(cops), m_mongo.getAggregationCache(), m_mongo.getCountCache(), m_names, m_mongo.m_tailers, m_mongo.m_opts.getConnectionsPerHost());
+            }
+            return new MCollection(m_db.getCollection(name), crid, getFindOneCache(name, cops), getMetrics(name), MCursorPreferences.from(cops), m_mongo.getAggregationCache(), m_mongo.getCountCache(), m_names, m_mongo.m_tailers, m_mongo.m_opts.getConnectionsPerHost());
+        }
+    }
+
+    private static final class MCollectionHandleKey
+    {
+        private final String                 m_name;
+
+        private final MCollectionPreferences m_opts;
+
+        private final Class<?>               m_type;
+
+        private MCollectionHandleKey(final String name, final MCollectionPreferences opts, final Class<?> type)
+        {
+            m_name = name;
+
+            m_opts = opts;
+
+            m_type = type;
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (this == other)
+            {
+                return true;
+            }
+            if (false == (other instanceof MCollectionHandleKey))
+            {
+                return false;
+            }
+            final MCollectionHandleKey that = (MCollectionHandleKey) other;
+
+            return (m_name.equals(that.m_name) && Objects.equals(m_opts, that.m_opts) && Objects.equals(m_type, that.m_type));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(m_name, m_opts, m_type);
         }
     }
 
@@ -337,12 +715,39 @@ public final class MongoDB
             return (false == ((null == m_write) && (null == m_prefs) && (null == m_codec)));
         }
 
-        final MCollection withCollectionOptions(final MongoCollection<Document> collection, boolean id)
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (this == other)
+            {
+                return true;
+            }
+            if (false == (other instanceof MCollectionPreferences))
+            {
+                return false;
+            }
+            final MCollectionPreferences that = (MCollectionPreferences) other;
+
+            return (Objects.equals(m_write, that.m_write) && Objects.equals(m_prefs, that.m_prefs) && Objects.equals(m_codec, that.m_codec));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(m_write, m_prefs, m_codec);
+        }
+
+        final MCollection withCollectionOptions(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics, final MCursorPreferences cprefs, final MAggregationCache aggcache, final MCountCache counter, final MNamespaceCache names, final Set<MTailableCursor> tailers, final int connections)
+        {
+            return new MCollection(withCodecRegistry(withPreferences(collection), m_codec), id, cache, metrics, cprefs, aggcache, counter, names, tailers, connections);
+        }
+
+        final <T> MongoCollection<T> withPreferences(final MongoCollection<T> collection)
         {
-            return new MCollection(withCodecRegistry(withReadPreference(withWriteConcern(collection, m_write), m_prefs), m_codec), id);
+            return withReadPreference(withWriteConcern(collection, m_write), m_prefs);
         }
 
-        private final static MongoCollection<Document> withWriteConcern(final MongoCollection<Document> collection, final WriteConcern write)
+        private final static <T> MongoCollection<T> withWriteConcern(final MongoCollection<T> collection, final WriteConcern write)
         {
             if (null == write)
             {
@@ -351,7 +756,7 @@ public final class MongoDB
             return collection.withWriteConcern(write);
         }
 
-        private final static MongoCollection<Document> withReadPreference(final MongoCollection<Document> collection, final ReadPreference prefs)
+        private final static <T> MongoCollection<T> withReadPreference(final MongoCollection<T> collection, final ReadPreference prefs)
         {
             if (null == prefs)
             {
@@ -360,7 +765,7 @@ public final class MongoDB
             return collection.withReadPreference(prefs);
         }
 
-        private final static MongoCollection<Document> withCodecRegistry(final MongoCollection<Document> collection, final CodecRegistry codec)
+        private final static <T> MongoCollection<T> withCodecRegistry(final MongoCollection<T> collection, final CodecRegistry codec)
         {
             if (null == codec)
             {
@@ -370,791 +775,7568 @@ public final class MongoDB
         }
     }
 
-    public static final class MCollection
+    public static final class MCursorPreferences
     {
-        private final MongoCollection<Document> m_collection;
+        public static final MCursorPreferences NONE = new MCursorPreferences(0, 0L, false, false);
 
-        private final boolean                   m_id;
+        private final int                      m_batch;
 
-        protected MCollection(final MongoCollection<Document> collection, final boolean id)
-        {
-            m_collection = Objects.requireNonNull(collection);
+        private final long                     m_maxtime;
 
-            m_id = id;
-        }
+        private final boolean                  m_notimeout;
 
-        public boolean isCreateID()
-        {
-            return m_id;
-        }
+        private final boolean                  m_diskuse;
 
-        public final String getName()
+        public MCursorPreferences(final int batch, final long maxtime, final boolean notimeout, final boolean diskuse)
         {
-            return m_collection.getNamespace().getCollectionName();
-        }
+            m_batch = Math.max(0, batch);
 
-        public final String createIndex(final Map<String, ?> keys)
-        {
-            return m_collection.createIndex(new Document(CAST_MAP(keys)));
-        }
+            m_maxtime = Math.max(0L, maxtime);
 
-        public final String createIndex(final Map<String, ?> keys, final String name)
-        {
-            return m_collection.createIndex(new Document(CAST_MAP(keys)), new IndexOptions().name(Objects.requireNonNull(name)));
-        }
+            m_notimeout = notimeout;
 
-        public final String createIndex(final Map<String, ?> keys, final IndexOptions opts)
-        {
-            return m_collection.createIndex(new Document(CAST_MAP(keys)), Objects.requireNonNull(opts));
+            m_diskuse = diskuse;
         }
 
-        public final MCollection dropIndex(final String name)
+        static final MCursorPreferences from(final IMongoDBCollectionOptions cops)
         {
-            m_collection.dropIndex(Objects.requireNonNull(name));
-
-            return this;
+            if (null == cops)
+            {
+                return NONE;
+            }
+            return new MCursorPreferences(cops.getBatchSize(), cops.getMaxTimeMS(), cops.isNoCursorTimeout(), cops.isAllowDiskUse());
         }
 
-        public final MCollection dropIndexes()
+        public int getBatchSize()
         {
-            m_collection.dropIndexes();
-
-            return this;
+            return m_batch;
         }
 
-        public final MIndexCursor getIndexes()
+        public long getMaxTimeMS()
         {
-            return new MIndexCursor(m_collection.listIndexes());
+            return m_maxtime;
         }
 
-        @SafeVarargs
-        public final <T extends Document> MAggregateCursor aggregate(final T... list)
+        public boolean isNoCursorTimeout()
         {
-            return aggregate(new MAggregationPipeline(Objects.requireNonNull(list)));
+            return m_notimeout;
         }
 
-        public final <T extends Document> MAggregateCursor aggregate(final List<T> list)
+        public boolean isAllowDiskUse()
         {
-            return aggregate(new MAggregationPipeline(Objects.requireNonNull(list)));
+            return m_diskuse;
         }
 
-        public final MAggregateCursor aggregate(final MAggregationPipeline pipeline)
+        final <T> FindIterable<T> withPreferences(final FindIterable<T> iter)
         {
-            return new MAggregateCursor(m_collection.aggregate(Objects.requireNonNull(pipeline.list())));
-        }
+            if (m_batch > 0)
+            {
+                iter.batchSize(m_batch);
+            }
+            if (m_maxtime > 0L)
+            {
+                iter.maxTime(m_maxtime, TimeUnit.MILLISECONDS);
+            }
+            if (m_notimeout)
+            {
+                iter.noCursorTimeout(true);
+            }
+            return iter;
+        }
 
-        public final void drop()
+        final <T> AggregateIterable<T> withPreferences(final AggregateIterable<T> iter)
         {
-            m_collection.drop();
+            if (m_batch > 0)
+            {
+                iter.batchSize(m_batch);
+            }
+            if (m_maxtime > 0L)
+            {
+                iter.maxTime(m_maxtime, TimeUnit.MILLISECONDS);
+            }
+            if (m_diskuse)
+            {
+                iter.allowDiskUse(true);
+            }
+            return iter;
         }
+    }
 
-        public final MCollection deleteMany(final Map<String, ?> query)
+    public static final class MCollection
+    {
+        private final MongoCollection<Document>          m_collection;
+
+        private final boolean                            m_id;
+
+        private final MFindOneCache                      m_cache;
+
+        private final MCollectionMetrics                 m_metrics;
+
+        private volatile MMapCodec                       m_mapcodec;
+
+        private volatile MongoCollection<Map<String, ?>> m_mapped;
+
+        private final MCursorPreferences                 m_cprefs;
+
+        private final MAggregationCache                  m_aggcache;
+
+        private final MCountCache                        m_counter;
+
+        private final MNamespaceCache                    m_names;
+
+        private final Set<MTailableCursor>               m_tailers;
+
+        private final int                                m_connections;
+
+        protected MCollection(final MongoCollection<Document> collection, final boolean id)
         {
-            return deleteMany(new MQuery(Objects.requireNonNull(query)));
+            this(collection, id, null);
         }
 
-        public final MCollection deleteMany(final MQuery query)
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache)
         {
-            m_collection.deleteMany(Objects.requireNonNull(query));
-
-            return this;
+            this(collection, id, cache, MCollectionMetrics.NONE);
         }
 
-        public final MCollection deleteOne(final Map<String, ?> query)
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics)
         {
-            return deleteOne(new MQuery(Objects.requireNonNull(query)));
+            this(collection, id, cache, metrics, MCursorPreferences.NONE);
         }
 
-        public final MCollection deleteOne(final MQuery query)
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics, final MCursorPreferences cprefs)
         {
-            m_collection.deleteOne(Objects.requireNonNull(query));
-
-            return this;
+            this(collection, id, cache, metrics, cprefs, null);
         }
 
-        @SuppressWarnings("unchecked")
-        public final Map<String, ?> ensureHasID(final Map<String, ?> update)
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics, final MCursorPreferences cprefs, final MAggregationCache aggcache)
         {
-            Objects.requireNonNull(update);
+            this(collection, id, cache, metrics, cprefs, aggcache, new MCountCache());
+        }
 
-            final Object id = update.get("id");
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics, final MCursorPreferences cprefs, final MAggregationCache aggcache, final MCountCache counter)
+        {
+            this(collection, id, cache, metrics, cprefs, aggcache, counter, null);
+        }
 
-            if ((false == (id instanceof String)) || (null == StringOps.toTrimOrNull(id.toString())))
-            {
-                ((Map<String, Object>) update).put("id", (new ObjectId()).toString());
-            }
-            return update;
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics, final MCursorPreferences cprefs, final MAggregationCache aggcache, final MCountCache counter, final MNamespaceCache names)
+        {
+            this(collection, id, cache, metrics, cprefs, aggcache, counter, names, null);
         }
 
-        public final Map<String, ?> insertOne(final Map<String, ?> record)
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics, final MCursorPreferences cprefs, final MAggregationCache aggcache, final MCountCache counter, final MNamespaceCache names, final Set<MTailableCursor> tailers)
         {
-            if (isCreateID())
-            {
-                final Map<String, ?> withid = ensureHasID(Objects.requireNonNull(record));
+            this(collection, id, cache, metrics, cprefs, aggcache, counter, names, tailers, 0);
+        }
 
-                m_collection.insertOne(new Document(CAST_MAP(withid)));
+        protected MCollection(final MongoCollection<Document> collection, final boolean id, final MFindOneCache cache, final MCollectionMetrics metrics, final MCursorPreferences cprefs, final MAggregationCache aggcache, final MCountCache counter, final MNamespaceCache names, final Set<MTailableCursor> tailers, final int connections)
+        {
+            m_collection = Objects.requireNonNull(collection);
 
-                return withid;
-            }
-            else
-            {
-                m_collection.insertOne(new Document(CAST_MAP(record)));
+            m_id = id;
 
-                return record;
-            }
-        }
+            m_cache = cache;
 
-        public final MCollection insertMany(final List<Map<String, ?>> list)
-        {
-            Objects.requireNonNull(list);
+            m_metrics = Objects.requireNonNull(metrics);
 
-            if (list.isEmpty())
-            {
-                logger.warn("MCollection.insertMany(empty)");
+            m_cprefs = Objects.requireNonNull(cprefs);
 
-                return this;
-            }
-            if (1 == list.size())
-            {
-                insertOne(Objects.requireNonNull(list.get(0)));// let this do checkID
+            m_aggcache = aggcache;
 
-                return this;
-            }
-            final ArrayList<Document> save = new ArrayList<Document>(list.size());
+            m_counter = Objects.requireNonNull(counter);
 
-            if (isCreateID())
-            {
-                for (Map<String, ?> lmap : list)
-                {
-                    save.add(new Document(CAST_MAP(ensureHasID(lmap))));
-                }
-            }
-            else
-            {
-                for (Map<String, ?> lmap : list)
-                {
-                    save.add(new Document(CAST_MAP(ensureHasID(lmap))));
-                }
-            }
-            m_collection.insertMany(save);
+            m_names = names;
 
-            return this;
-        }
+            m_tailers = tailers;
 
-        public final long count()
-        {
-            return m_collection.count();
+            m_connections = Math.max(0, connections);
         }
 
-        public final long count(final Map<String, ?> query)
+        public final MCursorPreferences getCursorPreferences()
         {
-            return count(new MQuery(Objects.requireNonNull(query)));
+            return m_cprefs;
         }
 
-        public final long count(final MQuery query)
+        public final MFindOneCache getFindOneCache()
         {
-            return m_collection.count(Objects.requireNonNull(query));
+            return m_cache;
         }
 
-        public final MCursor find() throws Exception
+        public final MAggregationCache getAggregationCache()
         {
-            return find(false);
+            return m_aggcache;
         }
 
-        final String getNameSpace()
+        public final MCollectionMetrics getMetrics()
         {
-            return m_collection.getNamespace().toString();
+            return m_metrics;
         }
 
-        public final MCursor find(final boolean with_id) throws Exception
+        final void invalidate()
         {
-            if (with_id)
-            {
-                return new MCursor(m_collection.find());
-            }
-            else
+            if (null != m_cache)
             {
-                return new MCursor(m_collection.find().projection(MProjection.NO_ID()));
+                m_cache.clear();
             }
         }
 
-        public final MCursor find(final Map<String, ?> query) throws Exception
+        private final void shape(final MOperation op, final Bson filter, final Bson sort, final Bson projection, final long time)
         {
-            return find(new MQuery(Objects.requireNonNull(query)), false);
+            m_metrics.shape(m_collection.getNamespace(), m_collection.getCodecRegistry(), op, filter, sort, projection, time);
         }
 
-        public final MCursor find(final MQuery query) throws Exception
+        private final void shape(final MOperation op, final Bson filter, final Map<String, ?> update, final long time)
         {
-            return find(Objects.requireNonNull(query), false);
+            m_metrics.shape(m_collection.getNamespace(), m_collection.getCodecRegistry(), op, filter, null, null, (null == update) ? null : mapcodec().toBson(update), time);
         }
 
-        public final MCursor find(final Map<String, ?> query, final boolean with_id) throws Exception
+        private final void slow(final MOperation op, final Bson filter, final long time)
         {
-            return find(new MQuery(Objects.requireNonNull(query)), with_id);
+            m_metrics.slow(m_collection.getNamespace(), m_collection.getCodecRegistry(), op, filter, time);
         }
 
-        public final MCursor find(final MQuery query, final boolean with_id) throws Exception
+        private final <T> T timedRead(final MOperation op, final Bson filter, final Bson projection, final Supplier<T> call)
         {
-            if (with_id)
-            {
-                return new MCursor(m_collection.find(Objects.requireNonNull(query)));
-            }
-            else
+            return m_metrics.timed(op, call, new LongConsumer()
             {
-                return new MCursor(m_collection.find(Objects.requireNonNull(query)).projection(MProjection.NO_ID()));
-            }
+                @Override
+                public void accept(final long time)
+                {
+                    shape(op, filter, null, projection, time);
+                }
+            });
         }
 
-        public final MCursor find(final Map<String, ?> query, final Map<String, ?> fields) throws Exception
+        private final <T> T timedWrite(final MOperation op, final Bson filter, final Map<String, ?> update, final Supplier<T> call)
         {
-            return find(new MQuery(Objects.requireNonNull(query)), new MProjection(Objects.requireNonNull(fields)));
+            return m_metrics.timed(op, call, new LongConsumer()
+            {
+                @Override
+                public void accept(final long time)
+                {
+                    if (null != update)
+                    {
+                        shape(op, filter, update, time);
+                    }
+                    else
+                    {
+                        slow(op, filter, time);
+                    }
+                    invalidate();
+                }
+            });
         }
 
-        public final MCursor find(final MQuery query, final Map<String, ?> fields) throws Exception
+        private final void created()
         {
-            return find(Objects.requireNonNull(query), new MProjection(Objects.requireNonNull(fields)));
+            if (null != m_names)
+            {
+                m_names.created(getName());
+            }
         }
 
-        public final MCursor find(final Map<String, ?> query, final MProjection fields) throws Exception
+        public boolean isCreateID()
         {
-            return find(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(fields), false);
+            return m_id;
         }
 
-        public final MCursor find(final MQuery query, final MProjection fields) throws Exception
+        public final String getName()
         {
-            return find(Objects.requireNonNull(query), Objects.requireNonNull(fields), false);
+            return m_collection.getNamespace().getCollectionName();
         }
 
-        public final MCursor find(final Map<String, ?> query, final Map<String, ?> fields, final boolean with_id) throws Exception
+        public final MCollection raw()
         {
-            return find(new MQuery(Objects.requireNonNull(query)), new MProjection(Objects.requireNonNull(fields)), with_id);
+            return new MCollection(MRawDocument.withRawReads(m_collection), isCreateID(), m_cache, m_metrics, m_cprefs, m_aggcache, m_counter, m_names, m_tailers, m_connections);
         }
 
-        public final MCursor find(final Map<String, ?> query, final MProjection fields, final boolean with_id) throws Exception
+        public final String createIndex(final Map<String, ?> keys)
         {
-            return find(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(fields), with_id);
+            return createIndex(keys, new IndexOptions());
         }
 
-        public final MCursor find(final MQuery query, final MProjection fields, final boolean with_id) throws Exception
+        public final String createIndex(final Map<String, ?> keys, final String name)
         {
-            if (with_id)
-            {
-                return new MCursor(m_collection.find(Objects.requireNonNull(query)).projection(Objects.requireNonNull(fields)));
-            }
-            else
-            {
-                return new MCursor(m_collection.find(Objects.requireNonNull(query)).projection(MProjection.FIELDS(Objects.requireNonNull(fields), MProjection.NO_ID())));
-            }
+            return createIndex(keys, new IndexOptions().name(Objects.requireNonNull(name)));
         }
 
-        public final Map<String, ?> findAndModify(final Map<String, ?> query, final Map<String, ?> update)
+        public final String createIndex(final Map<String, ?> keys, final IndexOptions opts)
         {
-            return update(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update), false, true);
+            final String index = m_collection.createIndex(mapcodec().toBson(Objects.requireNonNull(keys)), Objects.requireNonNull(opts));
+
+            created();
+
+            return index;
         }
 
-        public final Map<String, ?> findAndModify(final MQuery query, final Map<String, ?> update)
+        public final MCollection dropIndex(final String name)
         {
-            return update(Objects.requireNonNull(query), Objects.requireNonNull(update), false, true);
+            m_collection.dropIndex(Objects.requireNonNull(name));
+
+            return this;
         }
 
-        public final Map<String, ?> upsert(final Map<String, ?> query, final Map<String, ?> update)
+        public final MCollection dropIndexes()
         {
-            return upsert(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+            m_collection.dropIndexes();
+
+            return this;
         }
 
-        public final Map<String, ?> upsert(final MQuery query, final Map<String, ?> update)
+        public final MIndexCursor getIndexes()
         {
-            return update(Objects.requireNonNull(query), Objects.requireNonNull(update), true, true);
+            return new MIndexCursor(m_collection.listIndexes());
         }
 
-        public final Map<String, ?> create(final Map<String, ?> record)
+        @SafeVarargs
+        public final <T extends Document> MAggregateCursor aggregate(final T... list)
         {
-            return insertOne(Objects.requireNonNull(record));
+            return aggregate(new MAggregationPipeline(Objects.requireNonNull(list)));
         }
 
-        public final Map<String, ?> update(final Map<String, ?> query, final Map<String, ?> update, final boolean upsert, final boolean multi)
+        public final <T extends Document> MAggregateCursor aggregate(final List<T> list)
         {
-            return update(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update), upsert, multi);
+            return aggregate(new MAggregationPipeline(Objects.requireNonNull(list)));
         }
 
-        public final Map<String, ?> update(final MQuery query, final Map<String, ?> update, final boolean upsert, final boolean multi)
+        public final MAggregateCursor aggregate(final MAggregationPipeline pipeline)
         {
-            if (multi)
+            final List<Document> list = Objects.requireNonNull(pipeline.list());
+
+            if ((pipeline.isCached()) && (null != m_aggcache) && (m_aggcache.isEnabled()) && (MAggregationCache.isCacheable(list)))
             {
-                m_collection.updateMany(Objects.requireNonNull(query), new Document(CAST_MAP(update)), new UpdateOptions().upsert(upsert));
+                return new MAggregateCursor(m_aggcache.aggregate(m_collection, list, m_cprefs, m_metrics));
             }
-            else
+            return new MAggregateCursor(m_cprefs.withPreferences(m_collection.aggregate(list)), m_metrics).shaped(m_collection, list);
+        }
+
+        public final void drop()
+        {
+            m_collection.drop();
+
+            invalidate();
+
+            if (null != m_names)
             {
-                m_collection.updateOne(Objects.requireNonNull(query), new Document(CAST_MAP(update)), new UpdateOptions().upsert(upsert));
+                m_names.dropped(getName());
             }
-            return update;
         }
 
-        public final Map<String, ?> findOne(final Map<String, ?> query)
+        public final MCollection deleteMany(final Map<String, ?> query)
         {
-            return findOne(new MQuery(Objects.requireNonNull(query)));
+            return deleteMany(new MQuery(Objects.requireNonNull(query)));
         }
 
-        public final Map<String, ?> findOne(final MQuery query)
+        public final MCollection deleteMany(final MQuery query)
         {
-            FindIterable<Document> iter = m_collection.find(Objects.requireNonNull(query)).limit(1).projection(MProjection.NO_ID());
+            Objects.requireNonNull(query);
 
-            if (null != iter)
+            return timedWrite(MOperation.DELETE_MANY, query, null, new Supplier<MCollection>()
             {
-                return iter.first();
-            }
-            return null;
+                @Override
+                public MCollection get()
+                {
+                    m_collection.deleteMany(query);
+
+                    return MCollection.this;
+                }
+            });
         }
 
-        public final boolean updateOne(final Map<String, ?> query, final Map<String, ?> update)
+        public final MCollection deleteOne(final Map<String, ?> query)
         {
-            return updateOne(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+            return deleteOne(new MQuery(Objects.requireNonNull(query)));
         }
 
-        public final boolean updateOne(final MQuery query, final Map<String, ?> update)
+        public final MCollection deleteOne(final MQuery query)
         {
-            return (m_collection.updateOne(Objects.requireNonNull(query), new Document(CAST_MAP(update))).getModifiedCount() == 1L);
+            Objects.requireNonNull(query);
+
+            return timedWrite(MOperation.DELETE_ONE, query, null, new Supplier<MCollection>()
+            {
+                @Override
+                public MCollection get()
+                {
+                    m_collection.deleteOne(query);
+
+                    return MCollection.this;
+                }
+            });
         }
 
-        public final long updateMany(final Map<String, ?> query, final Map<String, ?> update)
+        final MMapCodec mapcodec()
         {
-            return updateMany(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+            MMapCodec codec = m_mapcodec;
+
+            if (null == codec)
+            {
+                m_mapcodec = codec = MMapCodecProvider.getMapCodec(m_collection.getCodecRegistry());
+            }
+            return codec;
         }
 
-        public final long updateMany(final MQuery query, final Map<String, ?> update)
+        final MongoCollection<Map<String, ?>> mapped()
         {
-            return m_collection.updateMany(Objects.requireNonNull(query), new Document(CAST_MAP(update)), new UpdateOptions().upsert(false)).getModifiedCount();
+            MongoCollection<Map<String, ?>> mapped = m_mapped;
+
+            if (null == mapped)
+            {
+                m_mapped = mapped = m_collection.withDocumentClass(MMapCodec.MAP_CLASS).withCodecRegistry(MMapCodecProvider.withMapCodec(m_collection.getCodecRegistry()));
+            }
+            return mapped;
         }
 
-        public final List<?> distinct(final String field)
+        static final boolean isValidID(final Object id)
         {
-            return m_collection.distinct(StringOps.requireTrimOrNull(field), Document.class).into(new ArrayList<Document>());
+            return ((id instanceof String) && (null != StringOps.toTrimOrNull(id.toString())));
         }
 
-        public final List<?> distinct(final String field, final Map<String, ?> query)
+        @SuppressWarnings("unchecked")
+        public final Map<String, ?> ensureHasID(final Map<String, ?> update)
         {
-            return m_collection.distinct(StringOps.requireTrimOrNull(field), Document.class).filter(new Document(CAST_MAP(query))).into(new ArrayList<Document>());
+            Objects.requireNonNull(update);
+
+            if (false == isValidID(update.get("id")))
+            {
+                ((Map<String, Object>) update).put("id", (new ObjectId()).toString());
+            }
+            return update;
         }
-    }
 
-    @SuppressWarnings("serial")
-    private static class MAggregationOp extends Document
-    {
-        private MAggregationOp(final Document doc)
+        public final MBulkWriter bulk(final boolean ordered)
         {
-            super(Objects.requireNonNull(doc));
+            return new MBulkWriter(this, ordered, MBulkWriter.DEFAULT_MAX_COUNT, MBulkWriter.DEFAULT_MAX_BYTES, 0L);
         }
 
-        protected static final MAggregationOp makeAggregationOp(final String op, final Map<String, ?> map)
+        public final MBulkWriter bulk(final boolean ordered, final int count, final long bytes, final long millis)
         {
-            final LinkedHashMap<String, Object> make = new LinkedHashMap<String, Object>(1);
-
-            make.put(Objects.requireNonNull(op), Objects.requireNonNull(map));
-
-            return new MAggregationOp(new Document(make));
+            return new MBulkWriter(this, ordered, count, bytes, millis);
         }
 
-        protected static final MAggregationOp makeAggregationOp(final String op, final Document doc)
+        public final Map<String, ?> insertOne(final Map<String, ?> record)
         {
-            final LinkedHashMap<String, Object> make = new LinkedHashMap<String, Object>(1);
+            Objects.requireNonNull(record);
+
+            return timedWrite(MOperation.INSERT_ONE, null, null, new Supplier<Map<String, ?>>()
+            {
+                @Override
+                public Map<String, ?> get()
+                {
+                    return insertRecord(record);
+                }
+            });
+        }
+
+        private final Map<String, ?> insertRecord(final Map<String, ?> record)
+        {
+            if (record instanceof MRawDocument)
+            {
+                if ((false == isCreateID()) || (isValidID(record.get("id"))))
+                {
+                    m_collection.withDocumentClass(RawBsonDocument.class).insertOne(((MRawDocument) record).getRawBsonDocument());
+
+                    created();
+
+                    return record;
+                }
+                return insertRecord(new Document(CAST_MAP(record)));
+            }
+            if (isCreateID())
+            {
+                final Map<String, ?> withid = ensureHasID(Objects.requireNonNull(record));
+
+                mapped().insertOne(withid);
+
+                created();
+
+                return withid;
+            }
+            else
+            {
+                mapped().insertOne(record);
+
+                created();
+
+                return record;
+            }
+        }
+
+        public final MCollection insertMany(final List<Map<String, ?>> list)
+        {
+            Objects.requireNonNull(list);
+
+            if (list.isEmpty())
+            {
+                logger.warn("MCollection.insertMany(empty)");
+
+                return this;
+            }
+            if (1 == list.size())
+            {
+                return timedWrite(MOperation.INSERT_MANY, null, null, new Supplier<MCollection>()
+                {
+                    @Override
+                    public MCollection get()
+                    {
+                        insertRecord(Objects.requireNonNull(list.get(0)));// let this do checkID
+
+                        return MCollection.this;
+                    }
+                });
+            }
+            return timedWrite(MOperation.INSERT_MANY, null, null, new Supplier<MCollection>()
+            {
+                @Override
+                public MCollection get()
+                {
+                    if (isCreateID())
+                    {
+                        for (Map<String, ?> lmap : list)
+                        {
+                            ensureHasID(lmap);
+                        }
+                    }
+                    mapped().insertMany(list);
+
+                    created();
+
+                    return MCollection.this;
+                }
+            });
+        }
+
+        public final long insertMany(final Stream<? extends Map<String, ?>> stream) throws Exception
+        {
+            return insertMany(stream, MBulkWriter.DEFAULT_MAX_COUNT, MBulkWriter.DEFAULT_MAX_BYTES, 1);
+        }
+
+        public final long insertMany(final Stream<? extends Map<String, ?>> stream, final int count, final long bytes, final int inflight) throws Exception
+        {
+            try
+            {
+                return insertMany(Objects.requireNonNull(stream).iterator(), count, bytes, inflight);
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+
+        public final long insertMany(final Iterator<? extends Map<String, ?>> iter) throws Exception
+        {
+            return insertMany(iter, MBulkWriter.DEFAULT_MAX_COUNT, MBulkWriter.DEFAULT_MAX_BYTES, 1);
+        }
+
+        public final long insertMany(final Iterator<? extends Map<String, ?>> iter, final int count, final long bytes, final int inflight) throws Exception
+        {
+            Objects.requireNonNull(iter);
+
+            final int most = Math.max(1, count);
+
+            final long size = Math.max(1L, bytes);
+
+            final MongoCollection<RawBsonDocument> collection = m_collection.withDocumentClass(RawBsonDocument.class);
+
+            final ArrayDeque<Future<Integer>> futures = new ArrayDeque<Future<Integer>>();
+
+            final ExecutorService executor = (inflight < 2) ? null : Executors.newFixedThreadPool(inflight, new ThreadFactory()
+            {
+                private int m_count = 0;
+
+                @Override
+                public synchronized Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "MCollection-insertMany-" + getName() + "-" + (m_count++));
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+            long total = 0L;
+
+            try
+            {
+                ArrayList<RawBsonDocument> batch = new ArrayList<RawBsonDocument>(Math.min(most, 1024));
+
+                long used = 0L;
+
+                while (iter.hasNext())
+                {
+                    final RawBsonDocument doc = encode(Objects.requireNonNull(iter.next()));
+
+                    final int sizeof = doc.getByteBuffer().remaining();
+
+                    if ((false == batch.isEmpty()) && ((batch.size() >= most) || ((used + sizeof) > size)))
+                    {
+                        total += submit(collection, batch, executor, futures, inflight);
+
+                        batch = new ArrayList<RawBsonDocument>(Math.min(most, 1024));
+
+                        used = 0L;
+                    }
+                    batch.add(doc);
+
+                    used += sizeof;
+                }
+                if (false == batch.isEmpty())
+                {
+                    total += submit(collection, batch, executor, futures, inflight);
+                }
+                while (false == futures.isEmpty())
+                {
+                    total += futures.poll().get();
+                }
+            }
+            finally
+            {
+                if (null != executor)
+                {
+                    executor.shutdownNow();
+                }
+            }
+            return total;
+        }
+
+        private final RawBsonDocument encode(final Map<String, ?> record)
+        {
+            if (isCreateID())
+            {
+                ensureHasID(record);
+            }
+            if (record instanceof MRawDocument)
+            {
+                return ((MRawDocument) record).getRawBsonDocument();
+            }
+            return new RawBsonDocument(record, mapcodec());
+        }
+
+        private final int submit(final MongoCollection<RawBsonDocument> collection, final List<RawBsonDocument> batch, final ExecutorService executor, final ArrayDeque<Future<Integer>> futures, final int inflight) throws Exception
+        {
+            if (null == executor)
+            {
+                return insertBatch(collection, batch);
+            }
+            int done = 0;
+
+            if (futures.size() >= inflight)
+            {
+                done = futures.poll().get();
+            }
+            futures.add(executor.submit(new Callable<Integer>()
+            {
+                @Override
+                public Integer call()
+                {
+                    return insertBatch(collection, batch);
+                }
+            }));
+            return done;
+        }
+
+        private final int insertBatch(final MongoCollection<RawBsonDocument> collection, final List<RawBsonDocument> batch)
+        {
+            return timedWrite(MOperation.INSERT_MANY, null, null, new Supplier<Integer>()
+            {
+                @Override
+                public Integer get()
+                {
+                    collection.insertMany(batch);
+
+                    created();
+
+                    return batch.size();
+                }
+            });
+        }
+
+        public final long count()
+        {
+            return timedRead(MOperation.COUNT, null, null, new Supplier<Long>()
+            {
+                @Override
+                public Long get()
+                {
+                    return m_collection.count();
+                }
+            });
+        }
+
+        public final long count(final Map<String, ?> query)
+        {
+            return count(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final long count(final MQuery query)
+        {
+            Objects.requireNonNull(query);
+
+            return timedRead(MOperation.COUNT, query, null, new Supplier<Long>()
+            {
+                @Override
+                public Long get()
+                {
+                    return m_collection.count(query);
+                }
+            });
+        }
+
+        public final long count(final MCountMode mode)
+        {
+            return count(new MQuery(Collections.emptyMap()), new MCountOptions(mode));
+        }
+
+        public final long count(final Map<String, ?> query, final MCountMode mode)
+        {
+            return count(new MQuery(Objects.requireNonNull(query)), new MCountOptions(mode));
+        }
+
+        public final long count(final MQuery query, final MCountMode mode)
+        {
+            return count(query, new MCountOptions(mode));
+        }
+
+        public final long count(final Map<String, ?> query, final MCountOptions options)
+        {
+            return count(new MQuery(Objects.requireNonNull(query)), options);
+        }
+
+        public final long count(final MQuery query, final MCountOptions options)
+        {
+            Objects.requireNonNull(query);
+
+            final MCountMode mode = options.getMode();
+
+            if (MCountMode.ESTIMATED == mode)
+            {
+                if ((false == query.toBsonDocument(Document.class, m_collection.getCodecRegistry()).isEmpty()) || (options.isFiltered()))
+                {
+                    throw new IllegalArgumentException("estimated count does not take a query, hint, limit or skip");
+                }
+                return count(MOperation.COUNT_ESTIMATED, query, options);
+            }
+            if (MCountMode.EXACT == mode)
+            {
+                return count(MOperation.COUNT_EXACT, query, options);
+            }
+            return m_metrics.timed(MOperation.COUNT_CACHED, new Supplier<Long>()
+            {
+                @Override
+                public Long get()
+                {
+                    return m_counter.count(MCountCache.key(m_collection.getNamespace(), query, options, m_collection.getCodecRegistry()), new LongSupplier()
+                    {
+                        @Override
+                        public long getAsLong()
+                        {
+                            return count(MOperation.COUNT_EXACT, query, options);
+                        }
+                    });
+                }
+            });
+        }
+
+        private final long count(final MOperation op, final MQuery query, final MCountOptions options)
+        {
+            return timedRead(op, query, null, new Supplier<Long>()
+            {
+                @Override
+                public Long get()
+                {
+                    return m_collection.count(query, options.toCountOptions(m_cprefs));
+                }
+            });
+        }
+
+        public final MCountCache getCountCache()
+        {
+            return m_counter;
+        }
+
+        public final MTailableCursor tail(final Consumer<List<Map<String, ?>>> handler)
+        {
+            return tail((MQuery) null, handler, MTailableCursor.DEFAULT_THREADS, MTailableCursor.DEFAULT_QUEUE, MTailableCursor.DEFAULT_BATCH);
+        }
+
+        public final MTailableCursor tail(final Map<String, ?> query, final Consumer<List<Map<String, ?>>> handler)
+        {
+            return tail(new MQuery(Objects.requireNonNull(query)), handler, MTailableCursor.DEFAULT_THREADS, MTailableCursor.DEFAULT_QUEUE, MTailableCursor.DEFAULT_BATCH);
+        }
+
+        public final MTailableCursor tail(final Map<String, ?> query, final Consumer<List<Map<String, ?>>> handler, final int threads, final int queue, final int batch)
+        {
+            return tail(new MQuery(Objects.requireNonNull(query)), handler, threads, queue, batch);
+        }
+
+        public final MTailableCursor tail(final MQuery query, final Consumer<List<Map<String, ?>>> handler, final int threads, final int queue, final int batch)
+        {
+            return tail(query, handler, threads, queue, batch, MTailableCursor.DEFAULT_AWAIT, MTailableCursor.DEFAULT_RETRY);
+        }
+
+        public final MTailableCursor tail(final MQuery query, final Consumer<List<Map<String, ?>>> handler, final int threads, final int queue, final int batch, final long await, final long retry)
+        {
+            return tail(query, MTailableCursor.DEFAULT_FIELD, handler, threads, queue, batch, await, retry);
+        }
+
+        // after an error the tail resumes with field > last seen value, so field must be strictly increasing in insertion
+        // order, e.g. a writer assigned timestamp or sequence. _id only qualifies when a single writer generates the ids.
+        public final MTailableCursor tail(final MQuery query, final String field, final Consumer<List<Map<String, ?>>> handler, final int threads, final int queue, final int batch, final long await, final long retry)
+        {
+            return new MTailableCursor(this, query, StringOps.requireTrimOrNull(field), Objects.requireNonNull(handler), threads, queue, batch, await, retry);
+        }
+
+        public final MCursor find() throws Exception
+        {
+            return find(false);
+        }
+
+        final String getNameSpace()
+        {
+            return m_collection.getNamespace().toString();
+        }
+
+        public final MCursor find(final boolean with_id) throws Exception
+        {
+            if (with_id)
+            {
+                return new MCursor(m_cprefs.withPreferences(m_collection.find()), m_metrics).shaped(m_collection, null, null);
+            }
+            else
+            {
+                return new MCursor(m_cprefs.withPreferences(m_collection.find().projection(MProjection.NO_ID())), m_metrics).shaped(m_collection, null, MProjection.NO_ID());
+            }
+        }
+
+        public final MCursor find(final Map<String, ?> query) throws Exception
+        {
+            return find(new MQuery(Objects.requireNonNull(query)), false);
+        }
+
+        public final MCursor find(final MQuery query) throws Exception
+        {
+            return find(Objects.requireNonNull(query), false);
+        }
+
+        public final MCursor find(final Map<String, ?> query, final boolean with_id) throws Exception
+        {
+            return find(new MQuery(Objects.requireNonNull(query)), with_id);
+        }
+
+        public final MCursor find(final MQuery query, final boolean with_id) throws Exception
+        {
+            if (with_id)
+            {
+                return new MCursor(m_cprefs.withPreferences(m_collection.find(Objects.requireNonNull(query))), m_metrics).shaped(m_collection, query, null);
+            }
+            else
+            {
+                return new MCursor(m_cprefs.withPreferences(m_collection.find(Objects.requireNonNull(query)).projection(MProjection.NO_ID())), m_metrics).shaped(m_collection, query, MProjection.NO_ID());
+            }
+        }
+
+        public final MCursor find(final Map<String, ?> query, final Map<String, ?> fields) throws Exception
+        {
+            return find(new MQuery(Objects.requireNonNull(query)), new MProjection(Objects.requireNonNull(fields)));
+        }
+
+        public final MCursor find(final MQuery query, final Map<String, ?> fields) throws Exception
+        {
+            return find(Objects.requireNonNull(query), new MProjection(Objects.requireNonNull(fields)));
+        }
+
+        public final MCursor find(final Map<String, ?> query, final MProjection fields) throws Exception
+        {
+            return find(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(fields), false);
+        }
+
+        public final MCursor find(final MQuery query, final MProjection fields) throws Exception
+        {
+            return find(Objects.requireNonNull(query), Objects.requireNonNull(fields), false);
+        }
+
+        public final MCursor find(final Map<String, ?> query, final Map<String, ?> fields, final boolean with_id) throws Exception
+        {
+            return find(new MQuery(Objects.requireNonNull(query)), new MProjection(Objects.requireNonNull(fields)), with_id);
+        }
+
+        public final MCursor find(final Map<String, ?> query, final MProjection fields, final boolean with_id) throws Exception
+        {
+            return find(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(fields), with_id);
+        }
+
+        public final MCursor find(final MQuery query, final MProjection fields, final boolean with_id) throws Exception
+        {
+            if (with_id)
+            {
+                return new MCursor(m_cprefs.withPreferences(m_collection.find(Objects.requireNonNull(query)).projection(Objects.requireNonNull(fields))), m_metrics).shaped(m_collection, query, fields);
+            }
+            else
+            {
+                return new MCursor(m_cprefs.withPreferences(m_collection.find(Objects.requireNonNull(query)).projection(MProjection.FIELDS(Objects.requireNonNull(fields), MProjection.NO_ID()))), m_metrics).shaped(m_collection, query, fields);
+            }
+        }
+
+        public final MPage page(final Map<String, ?> query, final MSort sort, final int size, final String token)
+        {
+            return page(new MQuery(Objects.requireNonNull(query)), null, sort, size, token);
+        }
+
+        public final MPage page(final MQuery query, final MSort sort, final int size, final String token)
+        {
+            return page(query, null, sort, size, token);
+        }
+
+        public final MPage page(final Map<String, ?> query, final Map<String, ?> fields, final MSort sort, final int size, final String token)
+        {
+            return page(new MQuery(Objects.requireNonNull(query)), new MProjection(Objects.requireNonNull(fields)), sort, size, token);
+        }
+
+        public final MPage page(final MQuery query, final MProjection fields, final MSort sort, final int size, final String token)
+        {
+            final MKeyset keyset = new MKeyset(Objects.requireNonNull(sort));
+
+            final int most = Math.max(1, size);
+
+            final CodecRegistry registry = m_collection.getCodecRegistry();
+
+            FindIterable<Document> iter = m_collection.find(keyset.filter(Objects.requireNonNull(query).toBsonDocument(Document.class, registry), token)).sort(keyset.getSort()).limit(most + 1);
+
+            if (null != fields)
+            {
+                iter = iter.projection(keyset.projection(fields));
+            }
+            final ArrayList<Map<String, ?>> list = new MCursor(m_cprefs.withPreferences(iter), m_metrics).shaped(m_collection, query, keyset.getSort(), fields).into(new ArrayList<Map<String, ?>>(most + 1));
+
+            String next = null;
+
+            if (list.size() > most)
+            {
+                list.remove(most);
+
+                next = keyset.token(((Document) list.get(most - 1)).toBsonDocument(Document.class, registry));
+            }
+            final List<String> added = (null == fields) ? Collections.<String> emptyList() : keyset.added(fields);
+
+            for (Map<String, ?> item : list)
+            {
+                item.remove("_id");
+
+                for (String key : added)
+                {
+                    MKeyset.strip(item, key);
+                }
+            }
+            return new MPage(list, next);
+        }
+
+        public final MParallelFindResult findParallel(final Map<String, ?> query, final int partitions, final Consumer<Map<String, ?>> consumer) throws Exception
+        {
+            return findParallel(new MQuery(Objects.requireNonNull(query)), partitions, consumer);
+        }
+
+        public final MParallelFindResult findParallel(final MQuery query, final int partitions, final Consumer<Map<String, ?>> consumer) throws Exception
+        {
+            return findParallel(query, partitions, Math.min(Math.max(1, partitions), (m_connections > 0) ? m_connections : Runtime.getRuntime().availableProcessors()), consumer);
+        }
+
+        public final MParallelFindResult findParallel(final Map<String, ?> query, final int partitions, final int threads, final Consumer<Map<String, ?>> consumer) throws Exception
+        {
+            return findParallel(new MQuery(Objects.requireNonNull(query)), partitions, threads, consumer);
+        }
+
+        public final MParallelFindResult findParallel(final MQuery query, final int partitions, final int threads, final Consumer<Map<String, ?>> consumer) throws Exception
+        {
+            Objects.requireNonNull(query);
+
+            Objects.requireNonNull(consumer);
+
+            final long time = System.nanoTime();
+
+            final List<BsonValue> split = getPartitionBounds(query, Math.max(1, partitions));
+
+            final int size = split.isEmpty() ? 1 : split.size() + 2;
+
+            final ArrayList<Future<MParallelFindPartition>> futures = new ArrayList<Future<MParallelFindPartition>>(size);
+
+            // each partition thread holds a pooled connection while it reads, so never run more threads than connections per host
+            final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(Math.min(threads, size), (m_connections > 0) ? m_connections : Integer.MAX_VALUE)), new ThreadFactory()
+            {
+                private int m_count = 0;
+
+                @Override
+                public synchronized Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "MCollection-findParallel-" + getName() + "-" + (m_count++));
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+            try
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    final int part = i;
+
+                    final Bson filter = (i > split.size()) ? getPartitionOthers(query, split.get(0)) : getPartitionFilter(query, ((i == 0) ? null : split.get(i - 1)), ((i == split.size()) ? null : split.get(i)));
+
+                    futures.add(executor.submit(new Callable<MParallelFindPartition>()
+                    {
+                        @Override
+                        public MParallelFindPartition call()
+                        {
+                            return findPartition(part, size, filter, consumer);
+                        }
+                    }));
+                }
+                final ArrayList<MParallelFindPartition> results = new ArrayList<MParallelFindPartition>(size);
+
+                for (Future<MParallelFindPartition> future : futures)
+                {
+                    results.add(future.get());
+                }
+                return new MParallelFindResult(results, System.nanoTime() - time);
+            }
+            finally
+            {
+                executor.shutdownNow();
+            }
+        }
+
+        private final List<BsonValue> getPartitionBounds(final MQuery query, final int partitions)
+        {
+            final ArrayList<BsonValue> list = new ArrayList<BsonValue>();
+
+            if (partitions < 2)
+            {
+                return list;
+            }
+            final int sample = partitions * PARALLEL_OVERSAMPLE;
+
+            final List<BsonDocument> pipeline = Arrays.asList(new BsonDocument("$match", query.toBsonDocument(Document.class, m_collection.getCodecRegistry())), new BsonDocument("$sample", new BsonDocument("size", new BsonInt32(sample))), new BsonDocument("$project", new BsonDocument("_id", new BsonInt32(1))), new BsonDocument("$sort", new BsonDocument("_id", new BsonInt32(1))));
+
+            final ArrayList<BsonValue> keys = new ArrayList<BsonValue>(sample);
+
+            for (BsonDocument doc : m_collection.aggregate(pipeline, BsonDocument.class))
+            {
+                final BsonValue id = doc.get("_id");
+
+                if ((null != id) && ((keys.isEmpty()) || (false == id.equals(keys.get(keys.size() - 1)))))
+                {
+                    if ((false == keys.isEmpty()) && (false == getPartitionType(id).equals(getPartitionType(keys.get(0)))))
+                    {
+                        logger.warn("MCollection.findParallel(" + getName() + ") mixed _id types " + getPartitionType(keys.get(0)) + " and " + getPartitionType(id) + ", reading a single partition");
+
+                        return list;
+                    }
+                    keys.add(id);
+                }
+            }
+            if (keys.size() < partitions)
+            {
+                return list;
+            }
+            final int step = keys.size() / partitions;
+
+            for (int i = 1; i < partitions; i++)
+            {
+                list.add(keys.get(i * step));
+            }
+            return list;
+        }
+
+        private final Bson getPartitionFilter(final MQuery query, final BsonValue lo, final BsonValue hi)
+        {
+            if ((null == lo) && (null == hi))
+            {
+                return query;
+            }
+            if (null == lo)
+            {
+                return and(query, lt("_id", hi));
+            }
+            if (null == hi)
+            {
+                return and(query, gte("_id", lo));
+            }
+            return and(query, gte("_id", lo), lt("_id", hi));
+        }
+
+        // range bounds only match _id values that compare in the same BSON type order, so the last partition reads every other type
+        private final Bson getPartitionOthers(final MQuery query, final BsonValue bound)
+        {
+            final String type = getPartitionType(bound);
+
+            if ("number".equals(type))
+            {
+                return and(query, not(type("_id", type)));
+            }
+            return and(query, not(type("_id", bound.getBsonType())));
+        }
+
+        private static final String getPartitionType(final BsonValue value)
+        {
+            if ((value.isNumber()) || (value.isDecimal128()))
+            {
+                return "number";
+            }
+            return value.getBsonType().name();
+        }
+
+        private final MParallelFindPartition findPartition(final int part, final int size, final Bson filter, final Consumer<Map<String, ?>> consumer)
+        {
+            long count = 0L;
+
+            final long time = System.nanoTime();
+
+            try (MCursor cursor = new MCursor(m_cprefs.withPreferences(m_collection.find(filter).projection(MProjection.NO_ID())), m_metrics).shaped(m_collection, filter, MProjection.NO_ID()))
+            {
+                while (cursor.hasNext())
+                {
+                    consumer.accept(cursor.next());
+
+                    count++;
+                }
+            }
+            catch (Exception e)
+            {
+                logger.error("MCollection.findParallel(" + getName() + ") partition " + (part + 1) + "/" + size + " error", e);
+
+                return new MParallelFindPartition(part, count, System.nanoTime() - time, e);
+            }
+            final MParallelFindPartition result = new MParallelFindPartition(part, count, System.nanoTime() - time, null);
+
+            if (logger.isInfoEnabled())
+            {
+                logger.info("MCollection.findParallel(" + getName() + ") partition " + (part + 1) + "/" + size + " read " + count + " in " + TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos()) + "ms");
+            }
+            return result;
+        }
+
+        public final Map<String, ?> findAndModify(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return update(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update), false, true);
+        }
+
+        public final Map<String, ?> findAndModify(final MQuery query, final Map<String, ?> update)
+        {
+            return update(Objects.requireNonNull(query), Objects.requireNonNull(update), false, true);
+        }
+
+        public final Map<String, ?> upsert(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return upsert(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final Map<String, ?> upsert(final MQuery query, final Map<String, ?> update)
+        {
+            return update(Objects.requireNonNull(query), Objects.requireNonNull(update), true, true);
+        }
+
+        public final Map<String, ?> create(final Map<String, ?> record)
+        {
+            return insertOne(Objects.requireNonNull(record));
+        }
+
+        public final Map<String, ?> update(final Map<String, ?> query, final Map<String, ?> update, final boolean upsert, final boolean multi)
+        {
+            return update(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update), upsert, multi);
+        }
+
+        public final Map<String, ?> update(final MQuery query, final Map<String, ?> update, final boolean upsert, final boolean multi)
+        {
+            Objects.requireNonNull(query);
+
+            Objects.requireNonNull(update);
+
+            return timedWrite(MOperation.UPDATE, query, update, new Supplier<Map<String, ?>>()
+            {
+                @Override
+                public Map<String, ?> get()
+                {
+                    if (multi)
+                    {
+                        m_collection.updateMany(query, mapcodec().toBson(update), new UpdateOptions().upsert(upsert));
+                    }
+                    else
+                    {
+                        m_collection.updateOne(query, mapcodec().toBson(update), new UpdateOptions().upsert(upsert));
+                    }
+                    if (upsert)
+                    {
+                        created();
+                    }
+                    return update;
+                }
+            });
+        }
+
+        public final Map<String, ?> findOne(final Map<String, ?> query)
+        {
+            return findOne(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final Map<String, ?> findOne(final MQuery query)
+        {
+            Objects.requireNonNull(query);
+
+            return timedRead(MOperation.FIND_ONE, query, MProjection.NO_ID(), new Supplier<Map<String, ?>>()
+            {
+                @Override
+                public Map<String, ?> get()
+                {
+                    if (null != m_cache)
+                    {
+                        return m_cache.findOne(m_collection, query);
+                    }
+                    FindIterable<Document> iter = m_collection.find(query).limit(1).projection(MProjection.NO_ID());
+
+                    if (null != iter)
+                    {
+                        return iter.first();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        public final boolean updateOne(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return updateOne(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final boolean updateOne(final MQuery query, final Map<String, ?> update)
+        {
+            Objects.requireNonNull(query);
+
+            Objects.requireNonNull(update);
+
+            return timedWrite(MOperation.UPDATE_ONE, query, update, new Supplier<Boolean>()
+            {
+                @Override
+                public Boolean get()
+                {
+                    return (m_collection.updateOne(query, mapcodec().toBson(update)).getModifiedCount() == 1L);
+                }
+            });
+        }
+
+        public final long updateMany(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return updateMany(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final long updateMany(final MQuery query, final Map<String, ?> update)
+        {
+            Objects.requireNonNull(query);
+
+            Objects.requireNonNull(update);
+
+            return timedWrite(MOperation.UPDATE_MANY, query, update, new Supplier<Long>()
+            {
+                @Override
+                public Long get()
+                {
+                    return m_collection.updateMany(query, mapcodec().toBson(update), new UpdateOptions().upsert(false)).getModifiedCount();
+                }
+            });
+        }
+
+        public final List<?> distinct(final String field)
+        {
+            final String name = StringOps.requireTrimOrNull(field);
+
+            return m_metrics.timed(MOperation.DISTINCT, new Supplier<List<?>>()
+            {
+                @Override
+                public List<?> get()
+                {
+                    return m_collection.distinct(name, Document.class).into(new ArrayList<Document>());
+                }
+            });
+        }
+
+        public final List<?> distinct(final String field, final Map<String, ?> query)
+        {
+            final String name = StringOps.requireTrimOrNull(field);
+
+            final Bson filter = mapcodec().toBson(Objects.requireNonNull(query));
+
+            return m_metrics.timed(MOperation.DISTINCT, new Supplier<List<?>>()
+            {
+                @Override
+                public List<?> get()
+                {
+                    return m_collection.distinct(name, Document.class).filter(filter).into(new ArrayList<Document>());
+                }
+            }, new LongConsumer()
+            {
+                @Override
+                public void accept(final long time)
+                {
+                    slow(MOperation.DISTINCT, filter, time);
+                }
+            });
+        }
+    }
+
+    public static final class MTypedCollection<T>
+    {
+        private final MCollection        m_parent;
+
+        private final MongoCollection<T> m_collection;
+
+        private final Class<T>           m_type;
+
+        protected MTypedCollection(final MCollection parent, final Class<T> type)
+        {
+            m_parent = Objects.requireNonNull(parent);
+
+            m_type = Objects.requireNonNull(type);
+
+            m_collection = parent.m_collection.withDocumentClass(type).withCodecRegistry(MReflectiveCodecProvider.withReflection(parent.m_collection.getCodecRegistry()));
+        }
+
+        public final MCollection getCollection()
+        {
+            return m_parent;
+        }
+
+        public boolean isCreateID()
+        {
+            return m_parent.isCreateID();
+        }
+
+        public final String getName()
+        {
+            return m_parent.getName();
+        }
+
+        public final Class<T> getType()
+        {
+            return m_type;
+        }
+
+        public final MCollectionMetrics getMetrics()
+        {
+            return m_parent.getMetrics();
+        }
+
+        public final CodecRegistry getCodecRegistry()
+        {
+            return m_collection.getCodecRegistry();
+        }
+
+        public final T ensureHasID(final T record)
+        {
+            final Codec<T> codec = getCodecRegistry().get(m_type);
+
+            if (codec instanceof MReflectiveCodec)
+            {
+                ((MReflectiveCodec<T>) codec).ensureHasID(Objects.requireNonNull(record));
+            }
+            return record;
+        }
+
+        public final long count()
+        {
+            return m_parent.count();
+        }
+
+        public final long count(final Map<String, ?> query)
+        {
+            return m_parent.count(query);
+        }
+
+        public final long count(final MQuery query)
+        {
+            return m_parent.count(query);
+        }
+
+        public final MTypedCursor<T> find()
+        {
+            return new MTypedCursor<T>(m_parent.m_cprefs.withPreferences(m_collection.find()), m_parent.m_metrics);
+        }
+
+        public final MTypedCursor<T> find(final Map<String, ?> query)
+        {
+            return find(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final MTypedCursor<T> find(final MQuery query)
+        {
+            return new MTypedCursor<T>(m_parent.m_cprefs.withPreferences(m_collection.find(Objects.requireNonNull(query))), m_parent.m_metrics);
+        }
+
+        public final T findOne(final Map<String, ?> query)
+        {
+            return findOne(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final T findOne(final MQuery query)
+        {
+            Objects.requireNonNull(query);
+
+            return m_parent.timedRead(MOperation.FIND_ONE, query, null, new Supplier<T>()
+            {
+                @Override
+                public T get()
+                {
+                    return m_collection.find(query).limit(1).first();
+                }
+            });
+        }
+
+        public final MTypedCursor<T> aggregate(final Document... list)
+        {
+            return aggregate(new MAggregationPipeline(Objects.requireNonNull(list)));
+        }
+
+        public final <D extends Document> MTypedCursor<T> aggregate(final List<D> list)
+        {
+            return aggregate(new MAggregationPipeline(Objects.requireNonNull(list)));
+        }
+
+        public final MTypedCursor<T> aggregate(final MAggregationPipeline pipeline)
+        {
+            return new MTypedCursor<T>(this, Objects.requireNonNull(pipeline), m_parent.m_metrics);
+        }
+
+        final AggregateIterable<T> aggregated(final MAggregationPipeline pipeline)
+        {
+            final List<Document> list = Objects.requireNonNull(pipeline.list());
+
+            final MAggregationCache aggcache = m_parent.m_aggcache;
+
+            if ((pipeline.isCached()) && (null != aggcache) && (aggcache.isEnabled()) && (MAggregationCache.isCacheable(list)))
+            {
+                return aggcache.aggregate(m_collection, list, m_type, m_parent.m_cprefs, m_parent.m_metrics);
+            }
+            return m_parent.m_cprefs.withPreferences(m_collection.aggregate(list, m_type));
+        }
+
+        public final T insertOne(final T record)
+        {
+            Objects.requireNonNull(record);
+
+            return m_parent.timedWrite(MOperation.INSERT_ONE, null, null, new Supplier<T>()
+            {
+                @Override
+                public T get()
+                {
+                    if (isCreateID())
+                    {
+                        ensureHasID(record);
+                    }
+                    m_collection.insertOne(record);
+
+                    m_parent.created();
+
+                    return record;
+                }
+            });
+        }
+
+        public final MTypedCollection<T> insertMany(final List<T> list)
+        {
+            Objects.requireNonNull(list);
+
+            if (list.isEmpty())
+            {
+                logger.warn("MTypedCollection.insertMany(empty)");
+
+                return this;
+            }
+            return m_parent.timedWrite(MOperation.INSERT_MANY, null, null, new Supplier<MTypedCollection<T>>()
+            {
+                @Override
+                public MTypedCollection<T> get()
+                {
+                    if (isCreateID())
+                    {
+                        for (T record : list)
+                        {
+                            ensureHasID(record);
+                        }
+                    }
+                    m_collection.insertMany(list);
+
+                    m_parent.created();
+
+                    return MTypedCollection.this;
+                }
+            });
+        }
+
+        public final boolean replaceOne(final Map<String, ?> query, final T record)
+        {
+            return replaceOne(new MQuery(Objects.requireNonNull(query)), record, false);
+        }
+
+        public final boolean replaceOne(final MQuery query, final T record, final boolean upsert)
+        {
+            Objects.requireNonNull(query);
+
+            Objects.requireNonNull(record);
+
+            return m_parent.timedWrite(MOperation.UPDATE_ONE, query, null, new Supplier<Boolean>()
+            {
+                @Override
+                public Boolean get()
+                {
+                    final UpdateResult result = m_collection.replaceOne(query, record, new UpdateOptions().upsert(upsert));
+
+                    if (null != result.getUpsertedId())
+                    {
+                        m_parent.created();
+
+                        return true;
+                    }
+                    return (result.getModifiedCount() == 1L);
+                }
+            });
+        }
+
+        public final boolean updateOne(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return m_parent.updateOne(query, update);
+        }
+
+        public final boolean updateOne(final MQuery query, final Map<String, ?> update)
+        {
+            return m_parent.updateOne(query, update);
+        }
+
+        public final long updateMany(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return m_parent.updateMany(query, update);
+        }
+
+        public final long updateMany(final MQuery query, final Map<String, ?> update)
+        {
+            return m_parent.updateMany(query, update);
+        }
+
+        public final Map<String, ?> upsert(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return m_parent.upsert(query, update);
+        }
+
+        public final Map<String, ?> upsert(final MQuery query, final Map<String, ?> update)
+        {
+            return m_parent.upsert(query, update);
+        }
+
+        public final MTypedCollection<T> deleteOne(final Map<String, ?> query)
+        {
+            m_parent.deleteOne(query);
+
+            return this;
+        }
+
+        public final MTypedCollection<T> deleteOne(final MQuery query)
+        {
+            m_parent.deleteOne(query);
+
+            return this;
+        }
+
+        public final MTypedCollection<T> deleteMany(final Map<String, ?> query)
+        {
+            m_parent.deleteMany(query);
+
+            return this;
+        }
+
+        public final MTypedCollection<T> deleteMany(final MQuery query)
+        {
+            m_parent.deleteMany(query);
+
+            return this;
+        }
+    }
+
+    public static final class MTypedCursor<T> implements Iterable<T>, Iterator<T>, Closeable
+    {
+        private final FindIterable<T>      m_find;
+
+        private final MTypedCollection<T>  m_source;
+
+        private final MAggregationPipeline m_pipeline;
+
+        private final ArrayList<Document>  m_stages = new ArrayList<Document>();
+
+        private final MCollectionMetrics   m_metrics;
+
+        private MongoCursor<T>             m_cursor;
+
+        private boolean                    m_closed = false;
+
+        protected MTypedCursor(final FindIterable<T> find, final MCollectionMetrics metrics)
+        {
+            m_find = Objects.requireNonNull(find);
+
+            m_source = null;
+
+            m_pipeline = null;
+
+            m_metrics = Objects.requireNonNull(metrics);
+        }
+
+        protected MTypedCursor(final MTypedCollection<T> source, final MAggregationPipeline pipeline, final MCollectionMetrics metrics)
+        {
+            m_find = null;
+
+            m_source = Objects.requireNonNull(source);
+
+            m_pipeline = Objects.requireNonNull(pipeline);
+
+            m_metrics = Objects.requireNonNull(metrics);
+        }
+
+        public boolean isAggregate()
+        {
+            return (null != m_pipeline);
+        }
+
+        private final MTypedCursor<T> self(final String stage, final Object value)
+        {
+            if (null != m_cursor)
+            {
+                throw new IllegalStateException("cursor already opened");
+            }
+            if (null != m_find)
+            {
+                if ("$project".equals(stage))
+                {
+                    m_find.projection((Bson) value);
+                }
+                else if ("$skip".equals(stage))
+                {
+                    m_find.skip((Integer) value);
+                }
+                else if ("$limit".equals(stage))
+                {
+                    m_find.limit((Integer) value);
+                }
+                else
+                {
+                    m_find.sort((Bson) value);
+                }
+            }
+            else
+            {
+                // an aggregate cursor applies these as trailing pipeline stages, in call order
+                m_stages.add(new Document(stage, value));
+            }
+            return this;
+        }
+
+        private final MongoCursor<T> cursor()
+        {
+            if (null == m_cursor)
+            {
+                m_cursor = m_metrics.timed(isAggregate() ? MOperation.AGGREGATE : MOperation.FIND, new Supplier<MongoCursor<T>>()
+                {
+                    @Override
+                    public MongoCursor<T> get()
+                    {
+                        if (null != m_find)
+                        {
+                            return Objects.requireNonNull(m_find.iterator());
+                        }
+                        return Objects.requireNonNull(m_source.aggregated(pipeline()).iterator());
+                    }
+                });
+            }
+            return m_cursor;
+        }
+
+        private final MAggregationPipeline pipeline()
+        {
+            if (m_stages.isEmpty())
+            {
+                return m_pipeline;
+            }
+            final ArrayList<Document> list = new ArrayList<Document>(m_pipeline.getStages());
+
+            list.addAll(m_stages);
+
+            return new MAggregationPipeline(list).setOptimize(m_pipeline.isOptimize()).setCached(m_pipeline.isCached());
+        }
+
+        public MTypedCursor<T> projection(final MProjection projection)
+        {
+            return self("$project", Objects.requireNonNull(projection));
+        }
+
+        public MTypedCursor<T> skip(final int skip)
+        {
+            return self("$skip", skip);
+        }
+
+        public MTypedCursor<T> limit(final int limit)
+        {
+            return self("$limit", limit);
+        }
+
+        public MTypedCursor<T> sort(final Map<String, ?> sort)
+        {
+            return sort(new MSort(Objects.requireNonNull(sort)));
+        }
+
+        public MTypedCursor<T> sort(final MSort sort)
+        {
+            return self("$sort", Objects.requireNonNull(sort));
+        }
+
+        public <A extends Collection<? super T>> A into(final A target)
+        {
+            Objects.requireNonNull(target);
+
+            if (false == m_closed)
+            {
+                while (hasNext())
+                {
+                    target.add(next());
+                }
+            }
+            close();
+
+            return target;
+        }
+
+        @Override
+        public Iterator<T> iterator()
+        {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            final boolean next = ((false == m_closed) && (cursor().hasNext()));
+
+            if ((false == next) && (false == m_closed))
+            {
+                close();
+            }
+            return next;
+        }
+
+        @Override
+        public T next()
+        {
+            return cursor().next();
+        }
+
+        @Override
+        public void close()
+        {
+            if (false == m_closed)
+            {
+                if (null != m_cursor)
+                {
+                    m_cursor.close();
+                }
+                m_closed = true;
+            }
+        }
+    }
+
+    public static final class MReflectiveCodecProvider implements CodecProvider
+    {
+        private static final MReflectiveCodecProvider                     INSTANCE = new MReflectiveCodecProvider();
+
+        private static final ConcurrentHashMap<Class<?>, MReflectiveType> m_types  = new ConcurrentHashMap<Class<?>, MReflectiveType>();
+
+        public static final CodecRegistry withReflection(final CodecRegistry registry)
+        {
+            return CodecRegistries.fromRegistries(Objects.requireNonNull(registry), CodecRegistries.fromProviders(INSTANCE));
+        }
+
+        static final boolean isReflectable(final Class<?> type)
+        {
+            if ((type.isPrimitive()) || (type.isArray()) || (type.isEnum()) || (type.isInterface()) || (Modifier.isAbstract(type.getModifiers())))
+            {
+                return false;
+            }
+            if ((Map.class.isAssignableFrom(type)) || (Iterable.class.isAssignableFrom(type)) || (type.getName().startsWith("java.")) || (type.getName().startsWith("javax.")))
+            {
+                return false;
+            }
+            return true;
+        }
+
+        static final MReflectiveType getReflectiveType(final Class<?> type)
+        {
+            final MReflectiveType info = m_types.get(type);
+
+            if (null != info)
+            {
+                return info;
+            }
+            return m_types.computeIfAbsent(type, key -> MReflectiveType.reflect(key));
+        }
+
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        public <T> Codec<T> get(final Class<T> type, final CodecRegistry registry)
+        {
+            if (false == isReflectable(type))
+            {
+                return null;
+            }
+            final MReflectiveType info = getReflectiveType(type);
+
+            if (null == info.m_create)
+            {
+                return null;
+            }
+            return new MReflectiveCodec(type, info, registry);
+        }
+    }
+
+    static final class MReflectiveType
+    {
+        private final Constructor<?>               m_create;
+
+        private final LinkedHashMap<String, Field> m_fields;
+
+        private MReflectiveType(final Constructor<?> create, final LinkedHashMap<String, Field> fields)
+        {
+            m_create = create;
+
+            m_fields = fields;
+        }
+
+        static final MReflectiveType reflect(final Class<?> type)
+        {
+            Constructor<?> create = null;
+
+            try
+            {
+                create = type.getDeclaredConstructor();
+
+                create.setAccessible(true);
+            }
+            catch (NoSuchMethodException e)
+            {
+                logger.warn("MReflectiveType(" + type.getName() + ") has no default constructor");
+            }
+            final LinkedHashMap<String, Field> fields = new LinkedHashMap<String, Field>();
+
+            for (Class<?> claz = type; ((null != claz) && (Object.class != claz)); claz = claz.getSuperclass())
+            {
+                for (Field field : claz.getDeclaredFields())
+                {
+                    final int mods = field.getModifiers();
+
+                    if ((Modifier.isStatic(mods)) || (Modifier.isTransient(mods)) || (field.isSynthetic()) || (fields.containsKey(field.getName())))
+                    {
+                        continue;
+                    }
+                    field.setAccessible(true);
+
+                    fields.put(field.getName(), field);
+                }
+            }
+            return new MReflectiveType(create, fields);
+        }
+    }
+
+    public static final class MReflectiveCodec<T> implements Codec<T>
+    {
+        private static final BsonValueCodec               BSON_VALUES = new BsonValueCodec();
+
+        private final Class<T>                            m_type;
+
+        private final MReflectiveType                     m_info;
+
+        private final CodecRegistry                       m_registry;
+
+        private final ConcurrentHashMap<String, Codec<?>> m_decoders  = new ConcurrentHashMap<String, Codec<?>>();
+
+        private volatile MMapCodec                        m_mapcodec;
+
+        MReflectiveCodec(final Class<T> type, final MReflectiveType info, final CodecRegistry registry)
+        {
+            m_type = type;
+
+            m_info = info;
+
+            m_registry = registry;
+        }
+
+        @Override
+        public Class<T> getEncoderClass()
+        {
+            return m_type;
+        }
+
+        final void ensureHasID(final T record)
+        {
+            final Field field = m_info.m_fields.get("id");
+
+            if ((null != field) && (String.class == field.getType()))
+            {
+                try
+                {
+                    if (false == MCollection.isValidID(field.get(record)))
+                    {
+                        field.set(record, (new ObjectId()).toString());
+                    }
+                }
+                catch (IllegalAccessException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        final MMapCodec mapcodec()
+        {
+            MMapCodec codec = m_mapcodec;
+
+            if (null == codec)
+            {
+                m_mapcodec = codec = MMapCodecProvider.getMapCodec(m_registry);
+            }
+            return codec;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void encode(final BsonWriter writer, final T value, final EncoderContext context)
+        {
+            writer.writeStartDocument();
+
+            try
+            {
+                for (Map.Entry<String, Field> entry : m_info.m_fields.entrySet())
+                {
+                    final Object object = entry.getValue().get(value);
+
+                    if (null == object)
+                    {
+                        continue;
+                    }
+                    writer.writeName(entry.getKey());
+
+                    if (object instanceof Enum)
+                    {
+                        writer.writeString(((Enum<?>) object).name());
+                    }
+                    else if (object instanceof Map)
+                    {
+                        context.encodeWithChildContext(mapcodec(), writer, (Map<String, ?>) object);
+                    }
+                    else
+                    {
+                        context.encodeWithChildContext((Codec<Object>) m_registry.get(object.getClass()), writer, object);
+                    }
+                }
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public T decode(final BsonReader reader, final DecoderContext context)
+        {
+            try
+            {
+                final T value = m_type.cast(m_info.m_create.newInstance());
+
+                reader.readStartDocument();
+
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+                {
+                    final Field field = m_info.m_fields.get(reader.readName());
+
+                    if (null == field)
+                    {
+                        reader.skipValue();
+                    }
+                    else if (reader.getCurrentBsonType() == BsonType.NULL)
+                    {
+                        reader.readNull();
+
+                        if (false == field.getType().isPrimitive())
+                        {
+                            field.set(value, null);
+                        }
+                    }
+                    else
+                    {
+                        field.set(value, decode(field, reader, context));
+                    }
+                }
+                reader.readEndDocument();
+
+                return value;
+            }
+            catch (ReflectiveOperationException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private final Object decode(final Field field, final BsonReader reader, final DecoderContext context)
+        {
+            final Class<?> type = field.getType();
+
+            final Class<?> item = getElementClass(field);
+
+            if (null != item)
+            {
+                if ((Map.class.isAssignableFrom(type)) && (reader.getCurrentBsonType() == BsonType.DOCUMENT))
+                {
+                    final Document map = new Document();
+
+                    reader.readStartDocument();
+
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+                    {
+                        final String name = reader.readName();
+
+                        map.put(name, decode(item, reader, context));
+                    }
+                    reader.readEndDocument();
+
+                    return map;
+                }
+                if ((Iterable.class.isAssignableFrom(type)) && (reader.getCurrentBsonType() == BsonType.ARRAY))
+                {
+                    final Collection<Object> list = (Set.class.isAssignableFrom(type)) ? new LinkedHashSet<Object>() : new ArrayList<Object>();
+
+                    reader.readStartArray();
+
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+                    {
+                        list.add(decode(item, reader, context));
+                    }
+                    reader.readEndArray();
+
+                    return list;
+                }
+            }
+            if ((type.isEnum()) || (isNumeric(type)))
+            {
+                return decode(type, reader, context);
+            }
+            Codec<Object> codec = (Codec<Object>) m_decoders.get(field.getName());
+
+            if (null == codec)
+            {
+                codec = (Codec<Object>) m_registry.get(getDecoderClass(type));
+
+                m_decoders.put(field.getName(), codec);
+            }
+            final Object object = codec.decode(reader, context);
+
+            if ((Set.class.isAssignableFrom(type)) && (false == (object instanceof Set)))
+            {
+                return new LinkedHashSet<Object>((Collection<Object>) object);
+            }
+            return object;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private final Object decode(final Class<?> type, final BsonReader reader, final DecoderContext context)
+        {
+            final BsonType bson = reader.getCurrentBsonType();
+
+            if (bson == BsonType.NULL)
+            {
+                reader.readNull();
+
+                return null;
+            }
+            if (type.isEnum())
+            {
+                return Enum.valueOf((Class<? extends Enum>) type, reader.readString());
+            }
+            if ((isNumeric(type)) && ((bson == BsonType.INT32) || (bson == BsonType.INT64) || (bson == BsonType.DOUBLE) || (bson == BsonType.DECIMAL128)))
+            {
+                return getNumber(type, BSON_VALUES.decode(reader, context).asNumber());
+            }
+            return m_registry.get(getDecoderClass(type)).decode(reader, context);
+        }
+
+        // the concrete element class of a List, Set or Map field, or null when the declaration does not name one
+        private static final Class<?> getElementClass(final Field field)
+        {
+            final Type generic = field.getGenericType();
+
+            if (false == (generic instanceof ParameterizedType))
+            {
+                return null;
+            }
+            final Type[] args = ((ParameterizedType) generic).getActualTypeArguments();
+
+            final Type item = (Map.class.isAssignableFrom(field.getType())) ? ((args.length == 2) ? args[1] : null) : ((args.length == 1) ? args[0] : null);
+
+            if ((item instanceof Class) && (Object.class != item))
+            {
+                return (Class<?>) item;
+            }
+            return null;
+        }
+
+        private static final boolean isNumeric(final Class<?> type)
+        {
+            return ((int.class == type) || (long.class == type) || (double.class == type) || (float.class == type) || (short.class == type) || (byte.class == type) || (Integer.class == type) || (Long.class == type) || (Double.class == type) || (Float.class == type) || (Short.class == type) || (Byte.class == type));
+        }
+
+        // coerce any stored BSON number to the declared field type, so an int32 written by another client reads into a long field
+        private static final Object getNumber(final Class<?> type, final BsonNumber value)
+        {
+            if ((int.class == type) || (Integer.class == type))
+            {
+                return value.intValue();
+            }
+            if ((long.class == type) || (Long.class == type))
+            {
+                return value.longValue();
+            }
+            if ((double.class == type) || (Double.class == type))
+            {
+                return value.doubleValue();
+            }
+            if ((float.class == type) || (Float.class == type))
+            {
+                return (float) value.doubleValue();
+            }
+            if ((short.class == type) || (Short.class == type))
+            {
+                return (short) value.intValue();
+            }
+            return (byte) value.intValue();
+        }
+
+        private static final Class<?> getDecoderClass(final Class<?> type)
+        {
+            if (type.isPrimitive())
+            {
+                if (int.class == type)
+                {
+                    return Integer.class;
+                }
+                if (long.class == type)
+                {
+                    return Long.class;
+                }
+                if (double.class == type)
+                {
+                    return Double.class;
+                }
+                if (boolean.class == type)
+                {
+                    return Boolean.class;
+                }
+                if (float.class == type)
+                {
+                    return Float.class;
+                }
+                if (short.class == type)
+                {
+                    return Short.class;
+                }
+                if (byte.class == type)
+                {
+                    return Byte.class;
+                }
+                return Character.class;
+            }
+            if (Map.class.isAssignableFrom(type))
+            {
+                return Document.class;
+            }
+            if (Iterable.class.isAssignableFrom(type))
+            {
+                return List.class;
+            }
+            return type;
+        }
+    }
+
+    public static final class MAggregationCache implements Closeable
+    {
+        public static final long                                                          DEFAULT_MAX_BYTES = 64L * 1024L * 1024L;
+
+        public static final long                                                          DEFAULT_TTL       = 5000L;
+
+        public static final long                                                          DEFAULT_STALE     = 60000L;
+
+        private static final int                                                          REFRESH_THREADS   = 2;
+
+        private static final LongSupplier                                                 NANO_CLOCK        = new LongSupplier()
+        {
+            @Override
+            public long getAsLong()
+            {
+                return System.nanoTime();
+            }
+        };
+
+        private final LongSupplier                                                        m_clock;
+
+        private final Executor                                                            m_executor;
+
+        private volatile long                                                             m_maxbytes;
+
+        private volatile long                                                             m_ttl;
+
+        private volatile long                                                             m_stale;
+
+        private long                                                                      m_bytes;
+
+        private long                                                                      m_generation;
+
+        private ExecutorService                                                           m_refresher;
+
+        private final AtomicLong                                                          m_hits            = new AtomicLong();
+
+        private final AtomicLong                                                          m_stales          = new AtomicLong();
+
+        private final AtomicLong                                                          m_miss            = new AtomicLong();
+
+        private final AtomicLong                                                          m_waits           = new AtomicLong();
+
+        private final AtomicLong                                                          m_refresh         = new AtomicLong();
+
+        private final AtomicLong                                                          m_evicts          = new AtomicLong();
+
+        private final LinkedHashMap<String, MAggregationCacheEntry>                       m_cache           = new LinkedHashMap<String, MAggregationCacheEntry>(16, 0.75f, true);
+
+        private final ConcurrentHashMap<String, CompletableFuture<List<RawBsonDocument>>> m_loads           = new ConcurrentHashMap<String, CompletableFuture<List<RawBsonDocument>>>();
+
+        public MAggregationCache()
+        {
+            this(DEFAULT_MAX_BYTES, DEFAULT_TTL, DEFAULT_STALE);
+        }
+
+        public MAggregationCache(final long maxbytes, final long ttl, final long stale)
+        {
+            this(maxbytes, ttl, stale, NANO_CLOCK, null);
+        }
+
+        MAggregationCache(final long maxbytes, final long ttl, final long stale, final LongSupplier clock, final Executor executor)
+        {
+            m_clock = Objects.requireNonNull(clock);
+
+            m_executor = executor;
+
+            setMaxBytes(maxbytes);
+
+            setTTL(ttl);
+
+            setStale(stale);
+        }
+
+        public long getMaxBytes()
+        {
+            return m_maxbytes;
+        }
+
+        public void setMaxBytes(final long maxbytes)
+        {
+            m_maxbytes = Math.max(0L, maxbytes);
+
+            synchronized (this)
+            {
+                evict();
+            }
+        }
+
+        public long getTTL()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(m_ttl);
+        }
+
+        public void setTTL(final long ttl)
+        {
+            m_ttl = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, ttl));
+        }
+
+        public long getStale()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(m_stale);
+        }
+
+        public void setStale(final long stale)
+        {
+            m_stale = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, stale));
+        }
+
+        public boolean isEnabled()
+        {
+            return (m_maxbytes > 0L);
+        }
+
+        static final boolean isCacheable(final List<Document> pipeline)
+        {
+            for (Document stage : pipeline)
+            {
+                if ("$out".equals(MAggregationOptimizer.op(stage)))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static final String key(final MongoNamespace namespace, final List<Document> pipeline, final Document options, final CodecRegistry registry)
+        {
+            return digest(namespace, new RawBsonDocument(new Document("pipeline", pipeline).append("options", options), registry.get(Document.class)));
+        }
+
+        static final String digest(final MongoNamespace namespace, final RawBsonDocument document)
+        {
+            try
+            {
+                final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+                digest.update(document.getByteBuffer().asNIO());
+
+                return namespace.getFullName() + "/" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        final AggregateIterable<Document> aggregate(final MongoCollection<Document> collection, final List<Document> pipeline, final MCursorPreferences cprefs, final MCollectionMetrics metrics)
+        {
+            return aggregate(collection, pipeline, Document.class, cprefs, metrics);
+        }
+
+        final <T> AggregateIterable<T> aggregate(final MongoCollection<?> collection, final List<Document> pipeline, final Class<T> type, final MCursorPreferences cprefs, final MCollectionMetrics metrics)
+        {
+            return new MCachedAggregateIterable<T>(this, collection, pipeline, cprefs, metrics, new MRawDecoder<T>(collection.getCodecRegistry().get(type)));
+        }
+
+        final List<RawBsonDocument> get(final String key, final Supplier<List<RawBsonDocument>> loader)
+        {
+            final MAggregationCacheEntry entry;
+
+            synchronized (this)
+            {
+                entry = m_cache.get(key);
+            }
+            if (null != entry)
+            {
+                final long age = m_clock.getAsLong() - entry.m_time;
+
+                if (age <= m_ttl)
+                {
+                    m_hits.incrementAndGet();
+
+                    entry.m_hits.incrementAndGet();
+
+                    return entry.m_value;
+                }
+                if (age <= (m_ttl + m_stale))
+                {
+                    m_stales.incrementAndGet();
+
+                    entry.m_stale.incrementAndGet();
+
+                    refresh(key, entry, loader);
+
+                    return entry.m_value;
+                }
+            }
+            return load(key, loader);
+        }
+
+        private final List<RawBsonDocument> load(final String key, final Supplier<List<RawBsonDocument>> loader)
+        {
+            final CompletableFuture<List<RawBsonDocument>> mine = new CompletableFuture<List<RawBsonDocument>>();
+
+            final CompletableFuture<List<RawBsonDocument>> have = m_loads.putIfAbsent(key, mine);
+
+            if (null != have)
+            {
+                m_waits.incrementAndGet();
+
+                try
+                {
+                    return have.join();
+                }
+                catch (CompletionException e)
+                {
+                    if (e.getCause() instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+            m_miss.incrementAndGet();
+
+            try
+            {
+                final long generation;
+
+                synchronized (this)
+                {
+                    generation = m_generation;
+                }
+                final List<RawBsonDocument> value = Collections.unmodifiableList(loader.get());
+
+                final MAggregationCacheEntry entry = store(key, value, generation);
+
+                if (null != entry)
+                {
+                    entry.m_miss.incrementAndGet();
+                }
+                mine.complete(value);
+
+                return value;
+            }
+            catch (RuntimeException e)
+            {
+                mine.completeExceptionally(e);
+
+                throw e;
+            }
+            finally
+            {
+                m_loads.remove(key, mine);
+            }
+        }
+
+        private final void refresh(final String key, final MAggregationCacheEntry entry, final Supplier<List<RawBsonDocument>> loader)
+        {
+            if (false == entry.m_refreshing.compareAndSet(false, true))
+            {
+                return;
+            }
+            final long generation;
+
+            synchronized (this)
+            {
+                generation = m_generation;
+            }
+            try
+            {
+                refresher().execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        final long time = m_clock.getAsLong();
+
+                        try
+                        {
+                            store(key, Collections.unmodifiableList(loader.get()), generation);
+
+                            m_refresh.incrementAndGet();
+
+                            entry.m_refresh.incrementAndGet();
+
+                            entry.m_refreshed = m_clock.getAsLong() - time;
+                        }
+                        catch (Exception e)
+                        {
+                            entry.m_errors.incrementAndGet();
+
+                            logger.warn("MAggregationCache refresh failed for " + key, e);
+                        }
+                        finally
+                        {
+                            entry.m_refreshing.set(false);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                entry.m_refreshing.set(false);
+            }
+        }
+
+        private final synchronized MAggregationCacheEntry store(final String key, final List<RawBsonDocument> value, final long generation)
+        {
+            if (generation != m_generation)
+            {
+                return null;
+            }
+            long bytes = 0L;
+
+            for (RawBsonDocument doc : value)
+            {
+                bytes += doc.getByteBuffer().remaining();
+            }
+            MAggregationCacheEntry entry = m_cache.get(key);
+
+            if (bytes > m_maxbytes)
+            {
+                if (null != entry)
+                {
+                    m_cache.remove(key);
+
+                    m_bytes -= entry.m_bytes;
+                }
+                return null;
+            }
+            if (null == entry)
+            {
+                entry = new MAggregationCacheEntry();
+
+                m_cache.put(key, entry);
+            }
+            m_bytes += (bytes - entry.m_bytes);
+
+            entry.m_bytes = bytes;
+
+            entry.m_value = value;
+
+            entry.m_time = m_clock.getAsLong();
+
+            evict();
+
+            return entry;
+        }
+
+        private final void evict()
+        {
+            final Iterator<MAggregationCacheEntry> iter = m_cache.values().iterator();
+
+            while ((m_bytes > m_maxbytes) && (iter.hasNext()))
+            {
+                m_bytes -= iter.next().m_bytes;
+
+                iter.remove();
+
+                m_evicts.incrementAndGet();
+            }
+        }
+
+        private final synchronized Executor refresher()
+        {
+            if (null != m_executor)
+            {
+                return m_executor;
+            }
+            if (null == m_refresher)
+            {
+                m_refresher = Executors.newFixedThreadPool(REFRESH_THREADS, new ThreadFactory()
+                {
+                    private int m_count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(final Runnable runnable)
+                    {
+                        final Thread thread = new Thread(runnable, "MAggregationCache-refresh-" + (m_count++));
+
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+            }
+            return m_refresher;
+        }
+
+        public long getHits()
+        {
+            return m_hits.get();
+        }
+
+        public long getStaleHits()
+        {
+            return m_stales.get();
+        }
+
+        public long getMisses()
+        {
+            return m_miss.get();
+        }
+
+        public long getWaits()
+        {
+            return m_waits.get();
+        }
+
+        public long getRefreshes()
+        {
+            return m_refresh.get();
+        }
+
+        public long getEvictions()
+        {
+            return m_evicts.get();
+        }
+
+        public synchronized long getBytes()
+        {
+            return m_bytes;
+        }
+
+        public synchronized int size()
+        {
+            return m_cache.size();
+        }
+
+        public synchronized List<String> getStatistics()
+        {
+            final ArrayList<String> list = new ArrayList<String>();
+
+            final long now = m_clock.getAsLong();
+
+            for (Map.Entry<String, MAggregationCacheEntry> entry : new TreeMap<String, MAggregationCacheEntry>(m_cache).entrySet())
+            {
+                list.add(entry.getKey() + " " + entry.getValue().toString(now));
+            }
+            return list;
+        }
+
+        public synchronized void clear()
+        {
+            m_generation++;
+
+            m_cache.clear();
+
+            m_bytes = 0L;
+        }
+
+        @Override
+        public void close()
+        {
+            clear();
+
+            synchronized (this)
+            {
+                if (null != m_refresher)
+                {
+                    m_refresher.shutdownNow();
+
+                    m_refresher = null;
+                }
+            }
+        }
+    }
+
+    private static final class MAggregationCacheEntry
+    {
+        private volatile List<RawBsonDocument> m_value;
+
+        private volatile long                  m_time;
+
+        private volatile long                  m_refreshed;
+
+        private long                           m_bytes;
+
+        private final AtomicBoolean            m_refreshing = new AtomicBoolean(false);
+
+        private final AtomicLong               m_hits       = new AtomicLong();
+
+        private final AtomicLong               m_stale      = new AtomicLong();
+
+        private final AtomicLong               m_miss       = new AtomicLong();
+
+        private final AtomicLong               m_refresh    = new AtomicLong();
+
+        private final AtomicLong               m_errors     = new AtomicLong();
+
+        private String toString(final long now)
+        {
+            final TreeMap<String, Object> map = new TreeMap<String, Object>();
+
+            map.put("hits", m_hits.get());
+
+            map.put("staleHits", m_stale.get());
+
+            map.put("misses", m_miss.get());
+
+            map.put("refreshes", m_refresh.get());
+
+            map.put("refreshErrors", m_errors.get());
+
+            map.put("lastRefreshMicros", TimeUnit.NANOSECONDS.toMicros(m_refreshed));
+
+            map.put("ageMillis", TimeUnit.NANOSECONDS.toMillis(now - m_time));
+
+            map.put("documents", m_value.size());
+
+            map.put("bytes", m_bytes);
+
+            return map.toString();
+        }
+    }
+
+    private static final class MRawDecoder<T> implements Function<RawBsonDocument, T>
+    {
+        private final Decoder<T> m_decoder;
+
+        private MRawDecoder(final Decoder<T> decoder)
+        {
+            m_decoder = Objects.requireNonNull(decoder);
+        }
+
+        @Override
+        public T apply(final RawBsonDocument raw)
+        {
+            return m_decoder.decode(new BsonBinaryReader(raw.getByteBuffer().asNIO()), DecoderContext.builder().build());
+        }
+    }
+
+    private static final class MCachedAggregateIterable<T> implements AggregateIterable<T>
+    {
+        private final MAggregationCache            m_cache;
+
+        private final MongoCollection<?>           m_collection;
+
+        private final List<Document>               m_pipeline;
+
+        private final MCollectionMetrics           m_metrics;
+
+        private final Function<RawBsonDocument, T> m_decode;
+
+        private int                                m_batch;
+
+        private long                               m_maxtime;
+
+        private Boolean                            m_diskuse;
+
+        private Boolean                            m_usecursor;
+
+        private Boolean                            m_bypass;
+
+        private Collation                          m_collation;
+
+        private MCachedAggregateIterable(final MAggregationCache cache, final MongoCollection<?> collection, final List<Document> pipeline, final MCursorPreferences cprefs, final MCollectionMetrics metrics, final Function<RawBsonDocument, T> decode)
+        {
+            m_cache = Objects.requireNonNull(cache);
+
+            m_collection = Objects.requireNonNull(collection);
+
+            m_pipeline = Objects.requireNonNull(pipeline);
+
+            m_metrics = Objects.requireNonNull(metrics);
+
+            m_decode = Objects.requireNonNull(decode);
+
+            m_batch = cprefs.getBatchSize();
+
+            m_maxtime = cprefs.getMaxTimeMS();
+
+            m_diskuse = cprefs.isAllowDiskUse() ? Boolean.TRUE : null;
+        }
+
+        private MCachedAggregateIterable(final MCachedAggregateIterable<?> source, final Function<RawBsonDocument, T> decode)
+        {
+            m_cache = source.m_cache;
+
+            m_collection = source.m_collection;
+
+            m_pipeline = source.m_pipeline;
+
+            m_metrics = source.m_metrics;
+
+            m_decode = Objects.requireNonNull(decode);
+
+            m_batch = source.m_batch;
+
+            m_maxtime = source.m_maxtime;
+
+            m_diskuse = source.m_diskuse;
+
+            m_usecursor = source.m_usecursor;
+
+            m_bypass = source.m_bypass;
+
+            m_collation = source.m_collation;
+        }
+
+        // everything that can change the result or how the load runs is part of the key, so a refresh
+        // started by any caller with the same key runs the same aggregation against the same read settings
+        private final Document options()
+        {
+            final Document options = new Document();
+
+            if (null != m_collection.getReadPreference())
+            {
+                options.append("readPreference", m_collection.getReadPreference().toDocument());
+            }
+            if (null != m_collection.getReadConcern())
+            {
+                options.append("readConcern", m_collection.getReadConcern().asDocument());
+            }
+            if (null != m_collation)
+            {
+                options.append("collation", m_collation.asDocument());
+            }
+            return options.append("batchSize", m_batch).append("maxTimeMS", m_maxtime).append("allowDiskUse", m_diskuse).append("useCursor", m_usecursor);
+        }
+
+        private final AggregateIterable<RawBsonDocument> live()
+        {
+            final AggregateIterable<RawBsonDocument> iter = m_collection.aggregate(m_pipeline, RawBsonDocument.class);
+
+            if (m_batch > 0)
+            {
+                iter.batchSize(m_batch);
+            }
+            if (m_maxtime > 0L)
+            {
+                iter.maxTime(m_maxtime, TimeUnit.MILLISECONDS);
+            }
+            if (null != m_diskuse)
+            {
+                iter.allowDiskUse(m_diskuse);
+            }
+            if (null != m_usecursor)
+            {
+                iter.useCursor(m_usecursor);
+            }
+            if (null != m_bypass)
+            {
+                iter.bypassDocumentValidation(m_bypass);
+            }
+            if (null != m_collation)
+            {
+                iter.collation(m_collation);
+            }
+            return iter;
+        }
+
+        private final List<RawBsonDocument> list()
+        {
+            return m_cache.get(MAggregationCache.key(m_collection.getNamespace(), m_pipeline, options(), m_collection.getCodecRegistry()), new Supplier<List<RawBsonDocument>>()
+            {
+                @Override
+                public List<RawBsonDocument> get()
+                {
+                    return m_metrics.timed(MOperation.AGGREGATE, new Supplier<List<RawBsonDocument>>()
+                    {
+                        @Override
+                        public List<RawBsonDocument> get()
+                        {
+                            return live().into(new ArrayList<RawBsonDocument>());
+                        }
+                    });
+                }
+            });
+        }
+
+        @Override
+        public MongoCursor<T> iterator()
+        {
+            final Iterator<RawBsonDocument> iter = list().iterator();
+
+            return new MongoCursor<T>()
+            {
+                @Override
+                public void close()
+                {
+                }
+
+                @Override
+                public boolean hasNext()
+                {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public T next()
+                {
+                    return m_decode.apply(iter.next());
+                }
+
+                @Override
+                public T tryNext()
+                {
+                    if (iter.hasNext())
+                    {
+                        return next();
+                    }
+                    return null;
+                }
+
+                @Override
+                public ServerCursor getServerCursor()
+                {
+                    return null;
+                }
+
+                @Override
+                public ServerAddress getServerAddress()
+                {
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public T first()
+        {
+            final List<RawBsonDocument> list = list();
+
+            if (list.isEmpty())
+            {
+                return null;
+            }
+            return m_decode.apply(list.get(0));
+        }
+
+        @Override
+        public <U> MongoIterable<U> map(final Function<T, U> mapper)
+        {
+            return new MCachedAggregateIterable<U>(this, new Function<RawBsonDocument, U>()
+            {
+                @Override
+                public U apply(final RawBsonDocument raw)
+                {
+                    return mapper.apply(m_decode.apply(raw));
+                }
+            });
+        }
+
+        @Override
+        public void forEach(final Block<? super T> block)
+        {
+            for (RawBsonDocument raw : list())
+            {
+                block.apply(m_decode.apply(raw));
+            }
+        }
+
+        @Override
+        public <A extends Collection<? super T>> A into(final A target)
+        {
+            for (RawBsonDocument raw : list())
+            {
+                target.add(m_decode.apply(raw));
+            }
+            return target;
+        }
+
+        @Override
+        public void toCollection()
+        {
+            // $out pipelines are never cached, so this always runs against the server like the driver iterable
+            live().toCollection();
+        }
+
+        @Override
+        public AggregateIterable<T> allowDiskUse(final Boolean allow)
+        {
+            m_diskuse = allow;
+
+            return this;
+        }
+
+        @Override
+        public AggregateIterable<T> batchSize(final int size)
+        {
+            m_batch = Math.max(0, size);
+
+            return this;
+        }
+
+        @Override
+        public AggregateIterable<T> maxTime(final long time, final TimeUnit unit)
+        {
+            m_maxtime = Objects.requireNonNull(unit).toMillis(Math.max(0L, time));
+
+            return this;
+        }
+
+        @Override
+        public AggregateIterable<T> useCursor(final Boolean cursor)
+        {
+            m_usecursor = cursor;
+
+            return this;
+        }
+
+        @Override
+        public AggregateIterable<T> bypassDocumentValidation(final Boolean bypass)
+        {
+            m_bypass = bypass;
+
+            return this;
+        }
+
+        @Override
+        public AggregateIterable<T> collation(final Collation collation)
+        {
+            m_collation = collation;
+
+            return this;
+        }
+    }
+
+    public static enum MCountMode
+    {
+        ESTIMATED, EXACT, CACHED;
+    }
+
+    public static final class MCountOptions
+    {
+        private final MCountMode m_mode;
+
+        private Object           m_hint;
+
+        private int              m_limit;
+
+        private int              m_skip;
+
+        private long             m_maxtime;
+
+        public MCountOptions(final MCountMode mode)
+        {
+            m_mode = Objects.requireNonNull(mode);
+        }
+
+        public MCountMode getMode()
+        {
+            return m_mode;
+        }
+
+        public MCountOptions hint(final String index)
+        {
+            m_hint = StringOps.requireTrimOrNull(index);
+
+            return this;
+        }
+
+        public MCountOptions hint(final Map<String, ?> index)
+        {
+            m_hint = new Document(CAST_MAP(index));
+
+            return this;
+        }
+
+        public MCountOptions hint(final MSort index)
+        {
+            m_hint = Objects.requireNonNull(index);
+
+            return this;
+        }
+
+        public MCountOptions limit(final int limit)
+        {
+            m_limit = Math.max(0, limit);
+
+            return this;
+        }
+
+        public MCountOptions skip(final int skip)
+        {
+            m_skip = Math.max(0, skip);
+
+            return this;
+        }
+
+        public MCountOptions maxTime(final long time, final TimeUnit unit)
+        {
+            m_maxtime = Objects.requireNonNull(unit).toMillis(Math.max(0L, time));
+
+            return this;
+        }
+
+        public Object getHint()
+        {
+            return m_hint;
+        }
+
+        public int getLimit()
+        {
+            return m_limit;
+        }
+
+        public int getSkip()
+        {
+            return m_skip;
+        }
+
+        public long getMaxTimeMS()
+        {
+            return m_maxtime;
+        }
+
+        final boolean isFiltered()
+        {
+            return ((null != m_hint) || (m_limit > 0) || (m_skip > 0));
+        }
+
+        final CountOptions toCountOptions(final MCursorPreferences cprefs)
+        {
+            final CountOptions options = new CountOptions();
+
+            if (m_hint instanceof String)
+            {
+                options.hintString((String) m_hint);
+            }
+            else if (m_hint instanceof Bson)
+            {
+                options.hint((Bson) m_hint);
+            }
+            if (m_limit > 0)
+            {
+                options.limit(m_limit);
+            }
+            if (m_skip > 0)
+            {
+                options.skip(m_skip);
+            }
+            final long maxtime = (m_maxtime > 0L) ? m_maxtime : cprefs.getMaxTimeMS();
+
+            if (maxtime > 0L)
+            {
+                options.maxTime(maxtime, TimeUnit.MILLISECONDS);
+            }
+            return options;
+        }
+    }
+
+    public static final class MCountCache
+    {
+        public static final int                               DEFAULT_SIZE = 1024;
+
+        public static final long                              DEFAULT_TTL  = 2000L;
+
+        private final int                                     m_size;
+
+        private volatile long                                 m_ttl;
+
+        private final AtomicLong                              m_hits       = new AtomicLong();
+
+        private final AtomicLong                              m_miss       = new AtomicLong();
+
+        private final LinkedHashMap<String, MCountCacheEntry> m_cache;
+
+        public MCountCache()
+        {
+            this(DEFAULT_SIZE, DEFAULT_TTL);
+        }
+
+        public MCountCache(final int size, final long ttl)
+        {
+            m_size = Math.max(1, size);
+
+            setTTL(ttl);
+
+            m_cache = new LinkedHashMap<String, MCountCacheEntry>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = -6094476306937219218L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, MCountCacheEntry> eldest)
+                {
+                    return (size() > m_size);
+                }
+            };
+        }
+
+        static final String key(final MongoNamespace namespace, final MQuery query, final MCountOptions options, final CodecRegistry registry)
+        {
+            final Document shape = new Document("q", query.toBsonDocument(Document.class, registry));
+
+            if (null != options.getHint())
+            {
+                shape.append("h", options.getHint());
+            }
+            if (options.getLimit() > 0)
+            {
+                shape.append("l", options.getLimit());
+            }
+            if (options.getSkip() > 0)
+            {
+                shape.append("s", options.getSkip());
+            }
+            return MAggregationCache.digest(namespace, new RawBsonDocument(shape, registry.get(Document.class)));
+        }
+
+        final long count(final String key, final LongSupplier loader)
+        {
+            synchronized (this)
+            {
+                final MCountCacheEntry entry = m_cache.get(key);
+
+                if ((null != entry) && ((System.nanoTime() - entry.m_time) <= m_ttl))
+                {
+                    m_hits.incrementAndGet();
+
+                    return entry.m_value;
+                }
+            }
+            m_miss.incrementAndGet();
+
+            final long value = loader.getAsLong();
+
+            synchronized (this)
+            {
+                m_cache.put(key, new MCountCacheEntry(value));
+            }
+            return value;
+        }
+
+        public long getTTL()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(m_ttl);
+        }
+
+        public void setTTL(final long ttl)
+        {
+            m_ttl = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, ttl));
+        }
+
+        public int getMaxSize()
+        {
+            return m_size;
+        }
+
+        public long getHits()
+        {
+            return m_hits.get();
+        }
+
+        public long getMisses()
+        {
+            return m_miss.get();
+        }
+
+        public synchronized int size()
+        {
+            return m_cache.size();
+        }
+
+        public synchronized void clear()
+        {
+            m_cache.clear();
+        }
+    }
+
+    private static final class MCountCacheEntry
+    {
+        private final long m_value;
+
+        private final long m_time = System.nanoTime();
+
+        private MCountCacheEntry(final long value)
+        {
+            m_value = value;
+        }
+    }
+
+    public static final class MNamespaceCache
+    {
+        public static final long     DEFAULT_REFRESH = 30000L;
+
+        private final MongoDatabase  m_db;
+
+        private volatile long        m_refresh;
+
+        private volatile Set<String> m_names;
+
+        private volatile long        m_loaded;
+
+        private final AtomicLong     m_loads         = new AtomicLong();
+
+        MNamespaceCache(final MongoDatabase db, final long refresh)
+        {
+            m_db = Objects.requireNonNull(db);
+
+            setRefreshInterval(refresh);
+        }
+
+        public long getRefreshInterval()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(m_refresh);
+        }
+
+        public void setRefreshInterval(final long refresh)
+        {
+            m_refresh = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, refresh));
+        }
+
+        public boolean contains(final String name)
+        {
+            return names().contains(StringOps.requireTrimOrNull(name));
+        }
+
+        public List<String> getNames()
+        {
+            return new ArrayList<String>(names());
+        }
+
+        public long getLoads()
+        {
+            return m_loads.get();
+        }
+
+        private final Set<String> names()
+        {
+            final Set<String> names = m_names;
+
+            if ((null != names) && ((System.nanoTime() - m_loaded) <= m_refresh))
+            {
+                return names;
+            }
+            synchronized (this)
+            {
+                if ((null == m_names) || ((System.nanoTime() - m_loaded) > m_refresh))
+                {
+                    refresh();
+                }
+                return m_names;
+            }
+        }
+
+        public synchronized void refresh()
+        {
+            final Set<String> names = ConcurrentHashMap.newKeySet();
+
+            for (RawBsonDocument info : m_db.listCollections(RawBsonDocument.class))
+            {
+                names.add(info.getString("name").getValue());
+            }
+            m_names = names;
+
+            m_loaded = System.nanoTime();
+
+            m_loads.incrementAndGet();
+        }
+
+        public void invalidate()
+        {
+            m_names = null;
+        }
+
+        final void created(final String name)
+        {
+            final Set<String> names = m_names;
+
+            if (null != names)
+            {
+                names.add(name);
+            }
+        }
+
+        final void dropped(final String name)
+        {
+            final Set<String> names = m_names;
+
+            if (null != names)
+            {
+                names.remove(name);
+            }
+        }
+
+        final void cleared()
+        {
+            final Set<String> names = m_names;
+
+            if (null != names)
+            {
+                names.clear();
+            }
+        }
+    }
+
+    public static final class MFindOneCache
+    {
+        private final int                                           m_size;
+
+        private final long                                          m_ttl;
+
+        private final AtomicLong                                    m_hits = new AtomicLong();
+
+        private final AtomicLong                                    m_miss = new AtomicLong();
+
+        private long                                                m_generation;
+
+        private final LinkedHashMap<ByteBuffer, MFindOneCacheEntry> m_cache;
+
+        MFindOneCache(final int size, final long ttl)
+        {
+            m_size = Math.max(1, size);
+
+            m_ttl = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, ttl));
+
+            m_cache = new LinkedHashMap<ByteBuffer, MFindOneCacheEntry>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 4178564728547214016L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, MFindOneCacheEntry> eldest)
+                {
+                    return (size() > m_size);
+                }
+            };
+        }
+
+        final Map<String, ?> findOne(final MongoCollection<Document> collection, final MQuery query)
+        {
+            final CodecRegistry registry = collection.getCodecRegistry();
+
+            final BsonDocument filter = query.toBsonDocument(Document.class, registry);
+
+            final ByteBuffer key = new RawBsonDocument(filter, BSON_CODEC).getByteBuffer().asNIO();
+
+            final long generation;
+
+            MFindOneCacheEntry entry;
+
+            synchronized (this)
+            {
+                entry = m_cache.get(key);
+
+                if ((null != entry) && ((System.nanoTime() - entry.m_time) > m_ttl))
+                {
+                    m_cache.remove(key);
+
+                    entry = null;
+                }
+                generation = m_generation;
+            }
+            if (null != entry)
+            {
+                m_hits.incrementAndGet();
+
+                if (null == entry.m_value)
+                {
+                    return null;
+                }
+                return entry.m_value.decode(registry.get(Document.class));
+            }
+            m_miss.incrementAndGet();
+
+            final RawBsonDocument value = collection.withDocumentClass(RawBsonDocument.class).find(filter).limit(1).projection(MProjection.NO_ID()).first();
+
+            synchronized (this)
+            {
+                if (generation == m_generation)
+                {
+                    m_cache.put(key, new MFindOneCacheEntry(value));
+                }
+            }
+            if (null == value)
+            {
+                return null;
+            }
+            return value.decode(registry.get(Document.class));
+        }
+
+        public long getHits()
+        {
+            return m_hits.get();
+        }
+
+        public long getMisses()
+        {
+            return m_miss.get();
+        }
+
+        public int getMaxSize()
+        {
+            return m_size;
+        }
+
+        public long getTTL()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(m_ttl);
+        }
+
+        public synchronized int size()
+        {
+            return m_cache.size();
+        }
+
+        public synchronized void clear()
+        {
+            m_generation++;
+
+            m_cache.clear();
+        }
+    }
+
+    private static final class MFindOneCacheEntry
+    {
+        private final RawBsonDocument m_value;
+
+        private final long            m_time = System.nanoTime();
+
+        private MFindOneCacheEntry(final RawBsonDocument value)
+        {
+            m_value = value;
+        }
+    }
+
+    public static final class MParallelFindPartition
+    {
+        private final int       m_index;
+
+        private final long      m_count;
+
+        private final long      m_elapsed;
+
+        private final Exception m_exception;
+
+        private MParallelFindPartition(final int index, final long count, final long elapsed, final Exception exception)
+        {
+            m_index = index;
+
+            m_count = count;
+
+            m_elapsed = elapsed;
+
+            m_exception = exception;
+        }
+
+        public int getIndex()
+        {
+            return m_index;
+        }
+
+        public long getCount()
+        {
+            return m_count;
+        }
+
+        public long getElapsedNanos()
+        {
+            return m_elapsed;
+        }
+
+        public Exception getException()
+        {
+            return m_exception;
+        }
+
+        public boolean isSuccess()
+        {
+            return (null == m_exception);
+        }
+    }
+
+    public static final class MParallelFindResult
+    {
+        private final List<MParallelFindPartition> m_parts;
+
+        private final long                         m_elapsed;
+
+        private MParallelFindResult(final List<MParallelFindPartition> parts, final long elapsed)
+        {
+            m_parts = Collections.unmodifiableList(Objects.requireNonNull(parts));
+
+            m_elapsed = elapsed;
+        }
+
+        public List<MParallelFindPartition> getPartitions()
+        {
+            return m_parts;
+        }
+
+        public long getCount()
+        {
+            long count = 0L;
+
+            for (MParallelFindPartition part : m_parts)
+            {
+                count += part.getCount();
+            }
+            return count;
+        }
+
+        public long getElapsedNanos()
+        {
+            return m_elapsed;
+        }
+
+        public boolean isSuccess()
+        {
+            for (MParallelFindPartition part : m_parts)
+            {
+                if (false == part.isSuccess())
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static final class MBulkWriteResult
+    {
+        private final int                  m_size;
+
+        private final int                  m_inserted;
+
+        private final int                  m_matched;
+
+        private final int                  m_modified;
+
+        private final int                  m_deleted;
+
+        private final int                  m_upserted;
+
+        private final long                 m_elapsed;
+
+        private final List<BulkWriteError> m_errors;
+
+        private final Exception            m_exception;
+
+        private MBulkWriteResult(final int size, final BulkWriteResult result, final List<BulkWriteError> errors, final Exception exception, final long elapsed)
+        {
+            m_size = size;
+
+            m_elapsed = elapsed;
+
+            m_exception = exception;
+
+            m_errors = Collections.unmodifiableList(Objects.requireNonNull(errors));
+
+            if ((null != result) && (result.wasAcknowledged()))
+            {
+                m_inserted = result.getInsertedCount();
+
+                m_matched = result.getMatchedCount();
+
+                m_modified = (result.isModifiedCountAvailable() ? result.getModifiedCount() : 0);
+
+                m_deleted = result.getDeletedCount();
+
+                m_upserted = result.getUpserts().size();
+            }
+            else
+            {
+                m_inserted = 0;
+
+                m_matched = 0;
+
+                m_modified = 0;
+
+                m_deleted = 0;
+
+                m_upserted = 0;
+            }
+        }
+
+        public int getSize()
+        {
+            return m_size;
+        }
+
+        public int getInsertedCount()
+        {
+            return m_inserted;
+        }
+
+        public int getMatchedCount()
+        {
+            return m_matched;
+        }
+
+        public int getModifiedCount()
+        {
+            return m_modified;
+        }
+
+        public int getDeletedCount()
+        {
+            return m_deleted;
+        }
+
+        public int getUpsertedCount()
+        {
+            return m_upserted;
+        }
+
+        public long getElapsedNanos()
+        {
+            return m_elapsed;
+        }
+
+        public List<BulkWriteError> getErrors()
+        {
+            return m_errors;
+        }
+
+        public Exception getException()
+        {
+            return m_exception;
+        }
+
+        public boolean isSuccess()
+        {
+            return ((null == m_exception) && (m_errors.isEmpty()));
+        }
+    }
+
+    public static final class MBulkWriter implements Closeable
+    {
+        public static final int                        DEFAULT_MAX_COUNT = 1000;
+
+        public static final long                       DEFAULT_MAX_BYTES = 8L * 1024L * 1024L;
+
+        private static final MBulkWriteResult          EMPTY_RESULTS     = new MBulkWriteResult(0, null, Collections.<BulkWriteError> emptyList(), null, 0L);
+
+        private final MongoCollection<RawBsonDocument> m_collection;
+
+        private final MCollection                      m_parent;
+
+        private final MMapCodec                        m_codec;
+
+        private final CodecRegistry                    m_registry;
+
+        private final boolean                          m_id;
+
+        private final BulkWriteOptions                 m_options;
+
+        private final int                              m_count;
+
+        private final long                             m_bytes;
+
+        private final long                             m_nanos;
+
+        private final Object                           m_flush           = new Object();
+
+        private final ScheduledExecutorService         m_timer;
+
+        private ArrayList<WriteModel<RawBsonDocument>> m_queue           = new ArrayList<WriteModel<RawBsonDocument>>();
+
+        private long                                   m_size            = 0L;
+
+        private long                                   m_first           = 0L;
+
+        private boolean                                m_closed          = false;
+
+        private volatile Exception                     m_stopped;
+
+        private Consumer<MBulkWriteResult>             m_handler;
+
+        protected MBulkWriter(final MCollection collection, final boolean ordered, final int count, final long bytes, final long millis)
+        {
+            m_id = collection.isCreateID();
+
+            m_parent = collection;
+
+            m_registry = collection.m_collection.getCodecRegistry();
+
+            m_codec = collection.mapcodec();
+
+            m_collection = collection.m_collection.withDocumentClass(RawBsonDocument.class);
+
+            m_options = new BulkWriteOptions().ordered(ordered);
+
+            m_count = Math.max(1, count);
+
+            m_bytes = Math.max(1L, bytes);
+
+            m_nanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, millis));
+
+            if (millis > 0L)
+            {
+                final String name = collection.getName();
+
+                m_timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(final Runnable runnable)
+                    {
+                        final Thread thread = new Thread(runnable, "MBulkWriter-timer-" + name);
+
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+                m_timer.scheduleWithFixedDelay(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        flushIfExpired();
+                    }
+                }, millis, millis, TimeUnit.MILLISECONDS);
+            }
+            else
+            {
+                m_timer = null;
+            }
+        }
+
+        public boolean isOrdered()
+        {
+            return m_options.isOrdered();
+        }
+
+        public boolean isStopped()
+        {
+            return (null != m_stopped);
+        }
+
+        public MBulkWriter setResultHandler(final Consumer<MBulkWriteResult> handler)
+        {
+            m_handler = handler;
+
+            return this;
+        }
+
+        public int getQueueSize()
+        {
+            synchronized (this)
+            {
+                return m_queue.size();
+            }
+        }
+
+        private final RawBsonDocument encode(final Map<String, ?> map)
+        {
+            if (map instanceof MRawDocument)
+            {
+                return ((MRawDocument) map).getRawBsonDocument();
+            }
+            return new RawBsonDocument(map, m_codec);
+        }
+
+        private final RawBsonDocument filter(final Bson bson)
+        {
+            return new RawBsonDocument(bson.toBsonDocument(Document.class, m_registry), BSON_CODEC);
+        }
+
+        private static final long sizeOf(final RawBsonDocument doc)
+        {
+            return doc.getByteBuffer().remaining();
+        }
+
+        private final MBulkWriter queue(final WriteModel<RawBsonDocument> model, final long size)
+        {
+            boolean flush = false;
+
+            synchronized (this)
+            {
+                if (m_closed)
+                {
+                    throw new IllegalStateException("MBulkWriter is closed");
+                }
+                if (null != m_stopped)
+                {
+                    throw new IllegalStateException("MBulkWriter stopped after an ordered write failure", m_stopped);
+                }
+                if (m_queue.isEmpty())
+                {
+                    m_first = System.nanoTime();
+                }
+                m_queue.add(model);
+
+                m_size += size;
+
+                flush = ((m_queue.size() >= m_count) || (m_size >= m_bytes));
+            }
+            if (flush)
+            {
+                handle(flush());
+            }
+            return this;
+        }
+
+        private final void handle(final MBulkWriteResult result)
+        {
+            final Consumer<MBulkWriteResult> handler = m_handler;
+
+            if (null != handler)
+            {
+                handler.accept(result);
+            }
+            else if (false == result.isSuccess())
+            {
+                if (null != result.getException())
+                {
+                    logger.error("MBulkWriter.flush() error", result.getException());
+                }
+                else
+                {
+                    logger.error("MBulkWriter.flush() write errors " + result.getErrors());
+                }
+            }
+        }
+
+        private final void flushIfExpired()
+        {
+            boolean flush = false;
+
+            synchronized (this)
+            {
+                flush = ((false == m_queue.isEmpty()) && ((System.nanoTime() - m_first) >= m_nanos));
+            }
+            if (flush)
+            {
+                handle(flush());
+            }
+        }
+
+        public final MBulkWriteResult flush()
+        {
+            synchronized (m_flush)
+            {
+                final ArrayList<WriteModel<RawBsonDocument>> list;
+
+                synchronized (this)
+                {
+                    if (m_queue.isEmpty())
+                    {
+                        return EMPTY_RESULTS;
+                    }
+                    list = m_queue;
+
+                    m_queue = new ArrayList<WriteModel<RawBsonDocument>>(Math.min(m_count, list.size()));
+
+                    m_size = 0L;
+
+                    m_first = 0L;
+                }
+                if (null != m_stopped)
+                {
+                    // batches queued behind a failed ordered batch are dropped, not sent out of order
+                    return new MBulkWriteResult(list.size(), null, Collections.<BulkWriteError> emptyList(), new IllegalStateException("MBulkWriter stopped after an ordered write failure", m_stopped), 0L);
+                }
+                final long time = System.nanoTime();
+
+                MBulkWriteResult done;
+
+                try
+                {
+                    done = new MBulkWriteResult(list.size(), m_collection.bulkWrite(list, m_options), Collections.<BulkWriteError> emptyList(), null, System.nanoTime() - time);
+                }
+                catch (MongoBulkWriteException e)
+                {
+                    done = new MBulkWriteResult(list.size(), e.getWriteResult(), e.getWriteErrors(), e, System.nanoTime() - time);
+                }
+                catch (Exception e)
+                {
+                    done = new MBulkWriteResult(list.size(), null, Collections.<BulkWriteError> emptyList(), e, System.nanoTime() - time);
+                }
+                finally
+                {
+                    m_parent.invalidate();
+                }
+                if ((isOrdered()) && (false == done.isSuccess()))
+                {
+                    m_stopped = (null != done.getException()) ? done.getException() : new IllegalStateException("write errors " + done.getErrors());
+                }
+                return done;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            synchronized (this)
+            {
+                if (m_closed)
+                {
+                    return;
+                }
+                m_closed = true;
+            }
+            if (null != m_timer)
+            {
+                m_timer.shutdownNow();
+            }
+            handle(flush());
+        }
+
+        @SuppressWarnings("unchecked")
+        public final MBulkWriter insert(final Map<String, ?> record)
+        {
+            Objects.requireNonNull(record);
+
+            if ((m_id) && (false == MCollection.isValidID(record.get("id"))))
+            {
+                if (record instanceof MRawDocument)
+                {
+                    return insert(new Document(CAST_MAP(record)));
+                }
+                ((Map<String, Object>) record).put("id", (new ObjectId()).toString());
+            }
+            final RawBsonDocument doc = encode(record);
+
+            return queue(new InsertOneModel<RawBsonDocument>(doc), sizeOf(doc));
+        }
+
+        public final MBulkWriter updateOne(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return updateOne(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final MBulkWriter updateOne(final MQuery query, final Map<String, ?> update)
+        {
+            final RawBsonDocument filt = filter(Objects.requireNonNull(query));
+
+            final RawBsonDocument updt = encode(Objects.requireNonNull(update));
+
+            return queue(new UpdateOneModel<RawBsonDocument>(filt, updt), sizeOf(filt) + sizeOf(updt));
+        }
+
+        public final MBulkWriter updateMany(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return updateMany(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final MBulkWriter updateMany(final MQuery query, final Map<String, ?> update)
+        {
+            final RawBsonDocument filt = filter(Objects.requireNonNull(query));
+
+            final RawBsonDocument updt = encode(Objects.requireNonNull(update));
+
+            return queue(new UpdateManyModel<RawBsonDocument>(filt, updt), sizeOf(filt) + sizeOf(updt));
+        }
+
+        public final MBulkWriter upsert(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return upsert(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final MBulkWriter upsert(final MQuery query, final Map<String, ?> update)
+        {
+            final RawBsonDocument filt = filter(Objects.requireNonNull(query));
+
+            final RawBsonDocument updt = encode(Objects.requireNonNull(update));
+
+            return queue(new UpdateOneModel<RawBsonDocument>(filt, updt, new UpdateOptions().upsert(true)), sizeOf(filt) + sizeOf(updt));
+        }
+
+        public final MBulkWriter replace(final Map<String, ?> query, final Map<String, ?> record)
+        {
+            return replace(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(record), false);
+        }
+
+        public final MBulkWriter replace(final MQuery query, final Map<String, ?> record)
+        {
+            return replace(Objects.requireNonNull(query), Objects.requireNonNull(record), false);
+        }
+
+        public final MBulkWriter replace(final Map<String, ?> query, final Map<String, ?> record, final boolean upsert)
+        {
+            return replace(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(record), upsert);
+        }
+
+        public final MBulkWriter replace(final MQuery query, final Map<String, ?> record, final boolean upsert)
+        {
+            final RawBsonDocument filt = filter(Objects.requireNonNull(query));
+
+            final RawBsonDocument repl = encode(Objects.requireNonNull(record));
+
+            return queue(new ReplaceOneModel<RawBsonDocument>(filt, repl, new UpdateOptions().upsert(upsert)), sizeOf(filt) + sizeOf(repl));
+        }
+
+        public final MBulkWriter deleteOne(final Map<String, ?> query)
+        {
+            return deleteOne(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final MBulkWriter deleteOne(final MQuery query)
+        {
+            final RawBsonDocument filt = filter(Objects.requireNonNull(query));
+
+            return queue(new DeleteOneModel<RawBsonDocument>(filt), sizeOf(filt));
+        }
+
+        public final MBulkWriter deleteMany(final Map<String, ?> query)
+        {
+            return deleteMany(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final MBulkWriter deleteMany(final MQuery query)
+        {
+            final RawBsonDocument filt = filter(Objects.requireNonNull(query));
+
+            return queue(new DeleteManyModel<RawBsonDocument>(filt), sizeOf(filt));
+        }
+    }
+
+    public static final class MTailableCursor implements Closeable
+    {
+        public static final int                      DEFAULT_THREADS = 1;
+
+        public static final int                      DEFAULT_QUEUE   = 16;
+
+        public static final int                      DEFAULT_BATCH   = 100;
+
+        public static final long                     DEFAULT_AWAIT   = 100L;
+
+        public static final long                     DEFAULT_RETRY   = 1000L;
+
+        public static final String                   DEFAULT_FIELD   = "_id";
+
+        private static final int                     MAX_BACKOFF     = 5;
+
+        private final MongoCollection<Document>      m_collection;
+
+        private final Bson                           m_filter;
+
+        private final String                         m_field;
+
+        private final Consumer<List<Map<String, ?>>> m_handler;
+
+        private final Set<MTailableCursor>           m_tailers;
+
+        private final int                            m_batch;
+
+        private final long                           m_await;
+
+        private final long                           m_retry;
+
+        private final Semaphore                      m_permits;
+
+        private final ExecutorService                m_workers;
+
+        private final Thread                         m_reader;
+
+        private final AtomicLong                     m_delivered     = new AtomicLong();
+
+        private final AtomicLong                     m_batches       = new AtomicLong();
+
+        private final AtomicLong                     m_errors        = new AtomicLong();
+
+        private final AtomicLong                     m_resumes       = new AtomicLong();
+
+        private volatile boolean                     m_closed        = false;
+
+        private volatile Object                      m_last;
+
+        protected MTailableCursor(final MCollection collection, final Bson filter, final String field, final Consumer<List<Map<String, ?>>> handler, final int threads, final int queue, final int batch, final long await, final long retry)
+        {
+            final String name = collection.getNameSpace();
+
+            m_collection = collection.m_collection;
+
+            m_filter = filter;
+
+            m_field = StringOps.requireTrimOrNull(field);
+
+            m_handler = Objects.requireNonNull(handler);
+
+            m_tailers = collection.m_tailers;
+
+            m_batch = Math.max(1, batch);
+
+            m_await = Math.max(1L, await);
+
+            m_retry = Math.max(1L, retry);
+
+            m_permits = new Semaphore(Math.max(1, threads) + Math.max(0, queue));
+
+            m_workers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+            {
+                private int m_count = 0;
+
+                @Override
+                public synchronized Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "MTailableCursor-" + name + "-" + (m_count++));
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+            m_reader = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    tail();
+                }
+            }, "MTailableCursor-" + name);
+
+            m_reader.setDaemon(true);
+
+            if (null != m_tailers)
+            {
+                m_tailers.add(this);
+            }
+            m_reader.start();
+        }
+
+        private final void tail()
+        {
+            int idle = 0;
+
+            while (false == m_closed)
+            {
+                final Object last = m_last;
+
+                final Bson query = (null == last) ? m_filter : ((null == m_filter) ? gt(m_field, last) : and(m_filter, gt(m_field, last)));
+
+                boolean found = false;
+
+                ArrayList<Map<String, ?>> batch = new ArrayList<Map<String, ?>>(Math.min(m_batch, 1024));
+
+                try (MongoCursor<Document> cursor = ((null == query) ? m_collection.find() : m_collection.find(query)).cursorType(CursorType.TailableAwait).maxAwaitTime(m_await, TimeUnit.MILLISECONDS).noCursorTimeout(true).batchSize(m_batch).iterator())
+                {
+                    while (false == m_closed)
+                    {
+                        final Document doc = cursor.tryNext();
+
+                        if (null == doc)
+                        {
+                            // the await timed out, so hand off whatever arrived before blocking again
+                            if (false == batch.isEmpty())
+                            {
+                                dispatch(batch);
+
+                                batch = new ArrayList<Map<String, ?>>(Math.min(m_batch, 1024));
+                            }
+                            if (null == cursor.getServerCursor())
+                            {
+                                break;// dead cursor, an empty capped collection or the tail fell off the end
+                            }
+                            continue;
+                        }
+                        batch.add(doc);
+
+                        found = true;
+
+                        final Object value = doc.get(m_field);
+
+                        if (null != value)
+                        {
+                            m_last = value;
+                        }
+
+                        if (batch.size() >= m_batch)
+                        {
+                            dispatch(batch);
+
+                            batch = new ArrayList<Map<String, ?>>(Math.min(m_batch, 1024));
+                        }
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+
+                    break;
+                }
+                catch (Exception e)
+                {
+                    if (m_closed)
+                    {
+                        break;
+                    }
+                    m_errors.incrementAndGet();
+
+                    logger.warn("MTailableCursor(" + m_collection.getNamespace() + ") error, resuming after " + m_field + " " + m_last, e);
+                }
+                if ((false == m_closed) && (false == batch.isEmpty()))
+                {
+                    try
+                    {
+                        dispatch(batch);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+
+                        break;
+                    }
+                }
+                if (false == m_closed)
+                {
+                    m_resumes.incrementAndGet();
+
+                    // an empty capped collection gives a dead cursor at once, so back off up to 16 x retry until data arrives
+                    idle = found ? 0 : Math.min(idle + 1, MAX_BACKOFF);
+
+                    try
+                    {
+                        Thread.sleep(m_retry << Math.max(0, idle - 1));
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+
+                        break;
+                    }
+                }
+            }
+        }
+
+        private final void dispatch(final List<Map<String, ?>> batch) throws InterruptedException
+        {
+            // blocks the reader when every worker is busy and the queue is full
+            m_permits.acquire();
+
+            try
+            {
+                m_workers.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            m_handler.accept(Collections.unmodifiableList(batch));
+
+                            m_delivered.addAndGet(batch.size());
+
+                            m_batches.incrementAndGet();
+                        }
+                        catch (Exception e)
+                        {
+                            m_errors.incrementAndGet();
+
+                            logger.error("MTailableCursor(" + m_collection.getNamespace() + ") handler error", e);
+                        }
+                        finally
+                        {
+                            m_permits.release();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                m_permits.release();
+            }
+        }
+
+        public final boolean isRunning()
+        {
+            return ((false == m_closed) && (m_reader.isAlive()));
+        }
+
+        public final String getResumeField()
+        {
+            return m_field;
+        }
+
+        public final Object getLastValue()
+        {
+            return m_last;
+        }
+
+        public final long getDelivered()
+        {
+            return m_delivered.get();
+        }
+
+        public final long getBatches()
+        {
+            return m_batches.get();
+        }
+
+        public final long getErrors()
+        {
+            return m_errors.get();
+        }
+
+        public final long getResumes()
+        {
+            return m_resumes.get();
+        }
+
+        @Override
+        public void close()
+        {
+            if (m_closed)
+            {
+                return;
+            }
+            m_closed = true;
+
+            if (null != m_tailers)
+            {
+                m_tailers.remove(this);
+            }
+            // the reader notices within one await and closes its own cursor, the driver cursor is not thread safe
+            m_reader.interrupt();
+
+            m_workers.shutdown();
+
+            try
+            {
+                m_reader.join(m_await + m_retry);
+
+                if (false == m_workers.awaitTermination(m_retry, TimeUnit.MILLISECONDS))
+                {
+                    m_workers.shutdownNow();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                m_workers.shutdownNow();
+
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class MAggregationOp extends Document
+    {
+        private MAggregationOp(final Document doc)
+        {
+            super(Objects.requireNonNull(doc));
+        }
+
+        protected static final MAggregationOp makeAggregationOp(final String op, final Map<String, ?> map)
+        {
+            final LinkedHashMap<String, Object> make = new LinkedHashMap<String, Object>(1);
+
+            make.put(Objects.requireNonNull(op), Objects.requireNonNull(map));
+
+            return new MAggregationOp(new Document(make));
+        }
+
+        protected static final MAggregationOp makeAggregationOp(final String op, final Document doc)
+        {
+            final LinkedHashMap<String, Object> make = new LinkedHashMap<String, Object>(1);
 
             make.put(Objects.requireNonNull(op), Objects.requireNonNull(doc));
 
-            return new MAggregationOp(new Document(make));
+            return new MAggregationOp(new Document(make));
+        }
+
+        protected static final String toFieldPath(final String path)
+        {
+            final String name = StringOps.requireTrimOrNull(path);
+
+            if (name.startsWith("$"))
+            {
+                return name;
+            }
+            return "$" + name;
+        }
+
+        protected static final MAggregationOp makeAggregationOp(final String op, final Object value)
+        {
+            final LinkedHashMap<String, Object> make = new LinkedHashMap<String, Object>(1);
+
+            make.put(Objects.requireNonNull(op), Objects.requireNonNull(value));
+
+            return new MAggregationOp(new Document(make));
+        }
+
+        public static final MAggregationProject PROJECT(final Map<String, ?> map)
+        {
+            return new MAggregationProject(Objects.requireNonNull(map));
+        }
+
+        public static final MAggregationSort SORT(final Map<String, ?> map)
+        {
+            return new MAggregationSort(Objects.requireNonNull(map));
+        }
+
+        public static final MAggregationLimit LIMIT(final int limit)
+        {
+            return new MAggregationLimit(limit);
+        }
+
+        public static final MAggregationSkip SKIP(final int skip)
+        {
+            return new MAggregationSkip(skip);
+        }
+
+        public static final MAggregationUnwind UNWIND(final String path)
+        {
+            return new MAggregationUnwind(path);
+        }
+
+        public static final MAggregationUnwind UNWIND(final String path, final boolean preserve)
+        {
+            return new MAggregationUnwind(path, preserve);
+        }
+
+        public static final MAggregationLookup LOOKUP(final String from, final String local, final String foreign, final String as)
+        {
+            return new MAggregationLookup(from, local, foreign, as);
+        }
+
+        public static final MAggregationFacet FACET(final Map<String, ? extends List<? extends Document>> facets)
+        {
+            return new MAggregationFacet(facets);
+        }
+
+        public static final MAggregationBucket BUCKET(final String group, final List<?> boundaries)
+        {
+            return new MAggregationBucket(group, boundaries);
+        }
+
+        public static final MAggregationBucket BUCKET(final String group, final List<?> boundaries, final Object defval, final Map<String, ?> output)
+        {
+            return new MAggregationBucket(group, boundaries, defval, output);
+        }
+
+        public static final MAggregationCount COUNT(final String field)
+        {
+            return new MAggregationCount(field);
+        }
+
+        public static final MAggregationOut OUT(final String collection)
+        {
+            return new MAggregationOut(collection);
+        }
+
+        public static final MAggregationMatch MATCH(final Map<String, ?> map)
+        {
+            return new MAggregationMatch(Objects.requireNonNull(map));
+        }
+
+        public static final MAggregationMatch MATCH(final Document doc)
+        {
+            return new MAggregationMatch(Objects.requireNonNull(doc));
+        }
+
+        public static final MAggregationGroup GROUP(final Map<String, ?> map)
+        {
+            return new MAggregationGroup(Objects.requireNonNull(map));
+        }
+
+        public static final MAggregationGroup GROUP(final Document doc)
+        {
+            return new MAggregationGroup(Objects.requireNonNull(doc));
+        }
+    }
+
+    public static final class MAggregationGroup extends MAggregationOp
+    {
+        private static final long serialVersionUID = 3079372174680166319L;
+
+        public MAggregationGroup(final Map<String, ?> map)
+        {
+            super(makeAggregationOp("$group", Objects.requireNonNull(map)));
+        }
+
+        public MAggregationGroup(final Document doc)
+        {
+            super(makeAggregationOp("$group", Objects.requireNonNull(doc)));
+        }
+    }
+
+    public static final class MAggregationMatch extends MAggregationOp
+    {
+        private static final long serialVersionUID = -1138722876045817851L;
+
+        public MAggregationMatch(final Map<String, ?> map)
+        {
+            super(makeAggregationOp("$match", Objects.requireNonNull(map)));
+        }
+
+        public MAggregationMatch(final Document doc)
+        {
+            super(makeAggregationOp("$match", Objects.requireNonNull(doc)));
+        }
+    }
+
+    public static final class MAggregationProject extends MAggregationOp
+    {
+        private static final long serialVersionUID = 6712407093361152640L;
+
+        public MAggregationProject(final Map<String, ?> map)
+        {
+            super(makeAggregationOp("$project", Objects.requireNonNull(map)));
+        }
+
+        public MAggregationProject(final Document doc)
+        {
+            super(makeAggregationOp("$project", Objects.requireNonNull(doc)));
+        }
+    }
+
+    public static final class MAggregationSort extends MAggregationOp
+    {
+        private static final long serialVersionUID = -2957236106513429785L;
+
+        public MAggregationSort(final Map<String, ?> map)
+        {
+            super(makeAggregationOp("$sort", Objects.requireNonNull(map)));
+        }
+
+        public MAggregationSort(final Document doc)
+        {
+            super(makeAggregationOp("$sort", Objects.requireNonNull(doc)));
+        }
+    }
+
+    public static final class MAggregationLimit extends MAggregationOp
+    {
+        private static final long serialVersionUID = 4581790716032361542L;
+
+        public MAggregationLimit(final int limit)
+        {
+            super(makeAggregationOp("$limit", (Object) requireLimit(limit)));
+        }
+
+        private static final int requireLimit(final int limit)
+        {
+            if (limit < 1)
+            {
+                throw new IllegalArgumentException("limit must be positive " + limit);
+            }
+            return limit;
+        }
+    }
+
+    public static final class MAggregationSkip extends MAggregationOp
+    {
+        private static final long serialVersionUID = -7367201854590128309L;
+
+        public MAggregationSkip(final int skip)
+        {
+            super(makeAggregationOp("$skip", (Object) Math.max(0, skip)));
+        }
+    }
+
+    public static final class MAggregationUnwind extends MAggregationOp
+    {
+        private static final long serialVersionUID = 1873468230574816215L;
+
+        public MAggregationUnwind(final String path)
+        {
+            super(makeAggregationOp("$unwind", (Object) toFieldPath(path)));
+        }
+
+        public MAggregationUnwind(final String path, final boolean preserve)
+        {
+            super(makeAggregationOp("$unwind", new Document("path", toFieldPath(path)).append("preserveNullAndEmptyArrays", preserve)));
+        }
+    }
+
+    public static final class MAggregationLookup extends MAggregationOp
+    {
+        private static final long serialVersionUID = -5016553426137851174L;
+
+        public MAggregationLookup(final String from, final String local, final String foreign, final String as)
+        {
+            super(makeAggregationOp("$lookup", new Document("from", StringOps.requireTrimOrNull(from)).append("localField", StringOps.requireTrimOrNull(local)).append("foreignField", StringOps.requireTrimOrNull(foreign)).append("as", StringOps.requireTrimOrNull(as))));
+        }
+    }
+
+    public static final class MAggregationFacet extends MAggregationOp
+    {
+        private static final long serialVersionUID = 8219404672260987331L;
+
+        public MAggregationFacet(final Map<String, ? extends List<? extends Document>> facets)
+        {
+            super(makeAggregationOp("$facet", new Document(CAST_MAP(Objects.requireNonNull(facets)))));
+        }
+    }
+
+    public static final class MAggregationBucket extends MAggregationOp
+    {
+        private static final long serialVersionUID = -3482011934279453360L;
+
+        public MAggregationBucket(final String group, final List<?> boundaries)
+        {
+            super(makeAggregationOp("$bucket", new Document("groupBy", toFieldPath(group)).append("boundaries", Objects.requireNonNull(boundaries))));
+        }
+
+        public MAggregationBucket(final String group, final List<?> boundaries, final Object defval, final Map<String, ?> output)
+        {
+            super(makeAggregationOp("$bucket", new Document("groupBy", toFieldPath(group)).append("boundaries", Objects.requireNonNull(boundaries)).append("default", Objects.requireNonNull(defval)).append("output", Objects.requireNonNull(output))));
+        }
+    }
+
+    public static final class MAggregationCount extends MAggregationOp
+    {
+        private static final long serialVersionUID = 2270975623165309514L;
+
+        public MAggregationCount(final String field)
+        {
+            super(makeAggregationOp("$count", (Object) StringOps.requireTrimOrNull(field)));
+        }
+    }
+
+    public static final class MAggregationOut extends MAggregationOp
+    {
+        private static final long serialVersionUID = -909311842961340726L;
+
+        public MAggregationOut(final String collection)
+        {
+            super(makeAggregationOp("$out", (Object) StringOps.requireTrimOrNull(collection)));
+        }
+    }
+
+    public static final class MAggregationPipeline
+    {
+        private final ArrayList<Document> m_pipeline = new ArrayList<Document>();
+
+        private boolean                   m_optimize = false;
+
+        private List<Document>            m_optimized;
+
+        private boolean                   m_cached   = false;
+
+        public <T extends Document> MAggregationPipeline(final List<T> list)
+        {
+            m_pipeline.addAll(Objects.requireNonNull(list));
+        }
+
+        @SafeVarargs
+        public <T extends Document> MAggregationPipeline(final T... list)
+        {
+            m_pipeline.addAll(Arrays.asList(Objects.requireNonNull(list)));
+        }
+
+        List<Document> list()
+        {
+            if (false == m_optimize)
+            {
+                return m_pipeline;
+            }
+            return optimized();
+        }
+
+        private final List<Document> optimized()
+        {
+            if (null == m_optimized)
+            {
+                m_optimized = MAggregationOptimizer.optimize(m_pipeline);
+            }
+            return m_optimized;
+        }
+
+        public MAggregationPipeline setOptimize(final boolean optimize)
+        {
+            m_optimize = optimize;
+
+            return this;
+        }
+
+        public boolean isOptimize()
+        {
+            return m_optimize;
+        }
+
+        public MAggregationPipeline setCached(final boolean cached)
+        {
+            m_cached = cached;
+
+            return this;
+        }
+
+        public boolean isCached()
+        {
+            return m_cached;
+        }
+
+        public List<Document> getStages()
+        {
+            return Collections.unmodifiableList(m_pipeline);
+        }
+
+        public List<Document> getOptimizedStages()
+        {
+            return Collections.unmodifiableList(optimized());
+        }
+    }
+
+    static final class MAggregationOptimizer
+    {
+        private static final Set<String> MATCH_LOGIC  = new LinkedHashSet<String>(Arrays.asList("$and", "$or", "$nor"));
+
+        private static final Set<String> TRIM_BEFORE  = new LinkedHashSet<String>(Arrays.asList("$match", "$sort", "$limit", "$skip", "$unwind"));
+
+        private static final Set<String> TRIM_SHAPING = new LinkedHashSet<String>(Arrays.asList("$group", "$bucket", "$count"));
+
+        private MAggregationOptimizer()
+        {
+        }
+
+        static final List<Document> optimize(final List<Document> pipeline)
+        {
+            final ArrayList<Document> list = new ArrayList<Document>(pipeline);
+
+            boolean changed = true;
+
+            while (changed)
+            {
+                changed = false;
+
+                for (int i = 0; i < (list.size() - 1); i++)
+                {
+                    final Document a = list.get(i);
+
+                    final Document b = list.get(i + 1);
+
+                    final String opa = op(a);
+
+                    final String opb = op(b);
+
+                    if (("$match".equals(opa)) && ("$match".equals(opb)) && (false == hasText(a)) && (false == hasText(b)))
+                    {
+                        list.set(i, mergeMatch(a, b));
+
+                        list.remove(i + 1);
+
+                        changed = true;
+                    }
+                    else if (("$limit".equals(opa)) && ("$limit".equals(opb)))
+                    {
+                        list.set(i, new Document("$limit", Math.min(number(a.get(opa)), number(b.get(opb)))));
+
+                        list.remove(i + 1);
+
+                        changed = true;
+                    }
+                    else if (("$skip".equals(opa)) && ("$skip".equals(opb)))
+                    {
+                        list.set(i, new Document("$skip", number(a.get(opa)) + number(b.get(opb))));
+
+                        list.remove(i + 1);
+
+                        changed = true;
+                    }
+                    else if (("$project".equals(opa)) && ((("$match".equals(opb)) && (isMatchBeforeProject(b, a))) || ("$limit".equals(opb)) || ("$skip".equals(opb))))
+                    {
+                        list.set(i, b);
+
+                        list.set(i + 1, a);
+
+                        changed = true;
+                    }
+                    else if (("$unwind".equals(opa)) && ("$match".equals(opb)) && (isMatchBeforeUnwind(b, a)))
+                    {
+                        list.set(i, b);
+
+                        list.set(i + 1, a);
+
+                        changed = true;
+                    }
+                }
+            }
+            trimFields(list);
+
+            return list;
+        }
+
+        static final String op(final Document stage)
+        {
+            if (stage.size() != 1)
+            {
+                return null;
+            }
+            return stage.keySet().iterator().next();
+        }
+
+        private static final long number(final Object value)
+        {
+            if (value instanceof Number)
+            {
+                return ((Number) value).longValue();
+            }
+            if ((value instanceof BsonValue) && (((BsonValue) value).isNumber()))
+            {
+                return ((BsonValue) value).asNumber().longValue();
+            }
+            throw new IllegalArgumentException("not a number " + value);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static final Map<String, ?> body(final Document stage)
+        {
+            final Object body = stage.get(op(stage));
+
+            if (body instanceof Map)
+            {
+                return (Map<String, ?>) body;
+            }
+            return null;
+        }
+
+        private static final boolean hasText(final Document match)
+        {
+            final Map<String, ?> body = body(match);
+
+            return ((null == body) || (body.containsKey("$text")));
+        }
+
+        private static final Document mergeMatch(final Document a, final Document b)
+        {
+            final Map<String, ?> ma = body(a);
+
+            final Map<String, ?> mb = body(b);
+
+            if (ma.isEmpty())
+            {
+                return b;
+            }
+            if (mb.isEmpty())
+            {
+                return a;
+            }
+            return new Document("$match", new Document("$and", Arrays.asList(ma, mb)));
+        }
+
+        private static final boolean overlaps(final String a, final String b)
+        {
+            return ((a.equals(b)) || (a.startsWith(b + ".")) || (b.startsWith(a + ".")));
+        }
+
+        private static final Boolean inclusion(final Object value)
+        {
+            if (value instanceof Boolean)
+            {
+                return (Boolean) value;
+            }
+            if (value instanceof Number)
+            {
+                return (((Number) value).doubleValue() != 0.0);
+            }
+            if (value instanceof BsonBoolean)
+            {
+                return ((BsonBoolean) value).getValue();
+            }
+            if ((value instanceof BsonValue) && (((BsonValue) value).isNumber()))
+            {
+                return (((BsonValue) value).asNumber().doubleValue() != 0.0);
+            }
+            return null;// computed expression
+        }
+
+        static final Set<String> matchFields(final Map<String, ?> query)
+        {
+            final LinkedHashSet<String> fields = new LinkedHashSet<String>();
+
+            if (matchFields(query, fields))
+            {
+                return fields;
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static final boolean matchFields(final Map<String, ?> query, final Set<String> fields)
+        {
+            for (Map.Entry<String, ?> entry : query.entrySet())
+            {
+                final String name = entry.getKey();
+
+                if (name.startsWith("$"))
+                {
+                    if ((false == MATCH_LOGIC.contains(name)) || (false == (entry.getValue() instanceof Iterable)))
+                    {
+                        return false;
+                    }
+                    for (Object item : (Iterable<?>) entry.getValue())
+                    {
+                        if ((false == (item instanceof Map)) || (false == matchFields((Map<String, ?>) item, fields)))
+                        {
+                            return false;
+                        }
+                    }
+                }
+                else
+                {
+                    fields.add(name);
+                }
+            }
+            return true;
+        }
+
+        private static final boolean isMatchBeforeProject(final Document match, final Document project)
+        {
+            final Map<String, ?> query = body(match);
+
+            final Map<String, ?> shape = body(project);
+
+            if ((null == query) || (null == shape))
+            {
+                return false;
+            }
+            final Set<String> fields = matchFields(query);
+
+            if (null == fields)
+            {
+                return false;
+            }
+            boolean inclusive = false;
+
+            for (Map.Entry<String, ?> entry : shape.entrySet())
+            {
+                if ((false == "_id".equals(entry.getKey())) && (false == Boolean.FALSE.equals(inclusion(entry.getValue()))))
+                {
+                    inclusive = true;
+                }
+            }
+            for (String field : fields)
+            {
+                boolean covered = ((false == inclusive) || ("_id".equals(field)) || (field.startsWith("_id.")));
+
+                for (Map.Entry<String, ?> entry : shape.entrySet())
+                {
+                    final String name = entry.getKey();
+
+                    if (overlaps(name, field))
+                    {
+                        final Boolean include = inclusion(entry.getValue());
+
+                        if ((false == Boolean.TRUE.equals(include)) || (false == ((name.equals(field)) || (field.startsWith(name + ".")))))
+                        {
+                            return false;
+                        }
+                        covered = true;
+                    }
+                }
+                if (false == covered)
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static final boolean isMatchBeforeUnwind(final Document match, final Document unwind)
+        {
+            final Map<String, ?> query = body(match);
+
+            if (null == query)
+            {
+                return false;
+            }
+            final Set<String> fields = matchFields(query);
+
+            if (null == fields)
+            {
+                return false;
+            }
+            final Object spec = unwind.get("$unwind");
+
+            final String path;
+
+            String index = null;
+
+            if (spec instanceof Map)
+            {
+                path = Objects.toString(((Map<?, ?>) spec).get("path"), "");
+
+                index = (String) ((Map<?, ?>) spec).get("includeArrayIndex");
+            }
+            else
+            {
+                path = Objects.toString(spec, "");
+            }
+            for (String field : fields)
+            {
+                if ((overlaps(field, path.replaceFirst("^\\$", ""))) || ((null != index) && (overlaps(field, index))))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static final void trimFields(final List<Document> list)
+        {
+            int shaping = -1;
+
+            int insert = -1;
+
+            for (int i = 0; i < list.size(); i++)
+            {
+                final String op = op(list.get(i));
+
+                if (TRIM_SHAPING.contains(op))
+                {
+                    shaping = i;
+
+                    break;
+                }
+                if (false == TRIM_BEFORE.contains(op))
+                {
+                    return;
+                }
+                if (("$unwind".equals(op)) && (insert < 0))
+                {
+                    insert = i;
+                }
+            }
+            if (shaping < 0)
+            {
+                return;
+            }
+            if (insert < 0)
+            {
+                insert = shaping;
+            }
+            final LinkedHashSet<String> roots = new LinkedHashSet<String>();
+
+            for (int i = 0; i <= shaping; i++)
+            {
+                final Document stage = list.get(i);
+
+                final String op = op(stage);
+
+                if ("$match".equals(op))
+                {
+                    final Map<String, ?> body = body(stage);
+
+                    final Set<String> fields = (null == body) ? null : matchFields(body);
+
+                    if (null == fields)
+                    {
+                        return;
+                    }
+                    roots.addAll(fields);
+                }
+                else if ("$sort".equals(op))
+                {
+                    final Map<String, ?> body = body(stage);
+
+                    if (null == body)
+                    {
+                        return;
+                    }
+                    roots.addAll(body.keySet());
+                }
+                else if ((false == "$limit".equals(op)) && (false == "$skip".equals(op)) && (false == "$count".equals(op)))
+                {
+                    if (false == expressionFields(stage.get(op), roots))
+                    {
+                        return;
+                    }
+                }
+            }
+            final Document project = new Document();
+
+            if (false == roots.contains("_id"))
+            {
+                project.put("_id", 0);
+            }
+            for (String root : roots)
+            {
+                project.put(root.split("\\.")[0], 1);
+            }
+            if (project.size() == 1 && project.containsKey("_id"))
+            {
+                project.put("_id", 1);
+            }
+            list.add(insert, new Document("$project", project));
+        }
+
+        private static final boolean expressionFields(final Object value, final Set<String> roots)
+        {
+            if (value instanceof BsonString)
+            {
+                return expressionFields(((BsonString) value).getValue(), roots);
+            }
+            if (value instanceof String)
+            {
+                final String text = (String) value;
+
+                if ((text.equals("$$ROOT")) || (text.equals("$$CURRENT")))
+                {
+                    return false;
+                }
+                // $$ROOT.a and $$CURRENT.a name the root field a
+                if (text.startsWith("$$ROOT."))
+                {
+                    roots.add(text.substring(7));
+                }
+                else if (text.startsWith("$$CURRENT."))
+                {
+                    roots.add(text.substring(10));
+                }
+                else if ((text.startsWith("$")) && (false == text.startsWith("$$")))
+                {
+                    roots.add(text.substring(1));
+                }
+                return true;
+            }
+            if (value instanceof Map)
+            {
+                for (Object item : ((Map<?, ?>) value).values())
+                {
+                    if (false == expressionFields(item, roots))
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            if (value instanceof Iterable)
+            {
+                for (Object item : (Iterable<?>) value)
+                {
+                    if (false == expressionFields(item, roots))
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    public static final class MRawDocument extends Document
+    {
+        private static final RawBsonDocumentCodec RAW_CODEC  = new RawBsonDocumentCodec();
+
+        private static final BsonValueCodec       BSON_CODEC = new BsonValueCodec();
+
+        private final RawBsonDocument             m_raw;
+
+        private final Codec<Document>             m_codec;
+
+        private LinkedHashMap<String, Object>     m_vals;
+
+        private LinkedHashSet<String>             m_keys;
+
+        private LinkedHashMap<String, Object>     m_copy;
+
+        private MRawDocument(final RawBsonDocument raw, final Codec<Document> codec)
+        {
+            m_raw = Objects.requireNonNull(raw);
+
+            m_codec = Objects.requireNonNull(codec);
+        }
+
+        static final MongoCollection<Document> withRawReads(final MongoCollection<Document> collection)
+        {
+            final CodecRegistry registry = collection.getCodecRegistry();
+
+            return collection.withCodecRegistry(CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(new MRawDocumentCodec(registry.get(Document.class), registry.get(RawBsonDocument.class))), registry));
+        }
+
+        public final boolean isModified()
+        {
+            return (null != m_copy);
+        }
+
+        public final RawBsonDocument getRawBsonDocument()
+        {
+            if (null == m_copy)
+            {
+                return m_raw;
+            }
+            return new RawBsonDocument(new Document(m_copy), m_codec);
+        }
+
+        private final BsonBinaryReader reader()
+        {
+            final BsonBinaryReader reader = new BsonBinaryReader(new ByteBufferBsonInput(m_raw.getByteBuffer()));
+
+            reader.readStartDocument();
+
+            return reader;
+        }
+
+        private final Object value(final BsonBinaryReader reader)
+        {
+            switch (reader.getCurrentBsonType())
+            {
+                case DOCUMENT:
+                    return new MRawDocument(RAW_CODEC.decode(reader, DecoderContext.builder().build()), m_codec);
+                case ARRAY:
+                {
+                    final ArrayList<Object> list = new ArrayList<Object>();
+
+                    reader.readStartArray();
+
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+                    {
+                        list.add(value(reader));
+                    }
+                    reader.readEndArray();
+
+                    return list;
+                }
+                default:
+                    return decode(BSON_CODEC.decode(reader, DecoderContext.builder().build()));
+            }
+        }
+
+        private final Object decode(final BsonValue value)
+        {
+            if ((null == value) || (value.isNull()))
+            {
+                return null;
+            }
+            switch (value.getBsonType())
+            {
+                case STRING:
+                    return value.asString().getValue();
+                case INT32:
+                    return value.asInt32().getValue();
+                case INT64:
+                    return value.asInt64().getValue();
+                case DOUBLE:
+                    return value.asDouble().getValue();
+                case BOOLEAN:
+                    return value.asBoolean().getValue();
+                case OBJECT_ID:
+                    return value.asObjectId().getValue();
+                case DATE_TIME:
+                    return new Date(value.asDateTime().getValue());
+                case DECIMAL128:
+                    return value.asDecimal128().getValue();
+                default:
+                    break;
+            }
+            return m_codec.decode(new BsonDocumentReader(new BsonDocument("v", value)), DecoderContext.builder().build()).get("v");
+        }
+
+        private final Set<String> keys()
+        {
+            if (null == m_keys)
+            {
+                final LinkedHashSet<String> keys = new LinkedHashSet<String>();
+
+                try (BsonBinaryReader reader = reader())
+                {
+                    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+                    {
+                        keys.add(reader.readName());
+
+                        reader.skipValue();
+                    }
+                }
+                m_keys = keys;
+            }
+            return m_keys;
+        }
+
+        private final Object cached(final String key, final BsonBinaryReader reader)
+        {
+            if ((null != m_vals) && (m_vals.containsKey(key)))
+            {
+                reader.skipValue();
+
+                return m_vals.get(key);
+            }
+            final Object value = value(reader);
+
+            if (null == m_vals)
+            {
+                m_vals = new LinkedHashMap<String, Object>();
+            }
+            m_vals.put(key, value);
+
+            return value;
+        }
+
+        private final Map<String, Object> writable()
+        {
+            if (null == m_copy)
+            {
+                final LinkedHashMap<String, Object> copy = new LinkedHashMap<String, Object>();
+
+                for (Map.Entry<String, Object> entry : entrySet())
+                {
+                    copy.put(entry.getKey(), entry.getValue());
+                }
+                m_copy = copy;
+
+                m_vals = null;
+
+                m_keys = null;
+            }
+            return m_copy;
+        }
+
+        private final Map<String, Object> decoded()
+        {
+            if (null != m_copy)
+            {
+                return m_copy;
+            }
+            final LinkedHashMap<String, Object> vals = new LinkedHashMap<String, Object>();
+
+            for (Map.Entry<String, Object> entry : entrySet())
+            {
+                vals.put(entry.getKey(), entry.getValue());
+            }
+            return vals;
+        }
+
+        @Override
+        public Object get(final Object key)
+        {
+            if (null != m_copy)
+            {
+                return m_copy.get(key);
+            }
+            if ((null != m_vals) && (m_vals.containsKey(key)))
+            {
+                return m_vals.get(key);
+            }
+            if ((false == (key instanceof String)) || ((null != m_keys) && (false == m_keys.contains(key))))
+            {
+                return null;
+            }
+            try (BsonBinaryReader reader = reader())
+            {
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+                {
+                    if (key.equals(reader.readName()))
+                    {
+                        return cached((String) key, reader);
+                    }
+                    reader.skipValue();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public <T> T get(final Object key, final Class<T> type)
+        {
+            return type.cast(get(key));
+        }
+
+        @Override
+        public boolean containsKey(final Object key)
+        {
+            if (null != m_copy)
+            {
+                return m_copy.containsKey(key);
+            }
+            return keys().contains(key);
+        }
+
+        @Override
+        public boolean containsValue(final Object value)
+        {
+            for (Object item : values())
+            {
+                if (Objects.equals(item, value))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int size()
+        {
+            if (null != m_copy)
+            {
+                return m_copy.size();
+            }
+            return keys().size();
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return (size() == 0);
+        }
+
+        @Override
+        public Set<String> keySet()
+        {
+            if (null != m_copy)
+            {
+                return m_copy.keySet();
+            }
+            return new AbstractSet<String>()
+            {
+                @Override
+                public Iterator<String> iterator()
+                {
+                    final Iterator<String> iter = new ArrayList<String>(keys()).iterator();
+
+                    return new Iterator<String>()
+                    {
+                        private String m_last;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return iter.hasNext();
+                        }
+
+                        @Override
+                        public String next()
+                        {
+                            return (m_last = iter.next());
+                        }
+
+                        @Override
+                        public void remove()
+                        {
+                            MRawDocument.this.remove(m_last);
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(final Object key)
+                {
+                    return MRawDocument.this.containsKey(key);
+                }
+
+                @Override
+                public int size()
+                {
+                    return MRawDocument.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Collection<Object> values()
+        {
+            if (null != m_copy)
+            {
+                return m_copy.values();
+            }
+            return new AbstractCollection<Object>()
+            {
+                @Override
+                public Iterator<Object> iterator()
+                {
+                    final Iterator<Map.Entry<String, Object>> iter = entrySet().iterator();
+
+                    return new Iterator<Object>()
+                    {
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return iter.hasNext();
+                        }
+
+                        @Override
+                        public Object next()
+                        {
+                            return iter.next().getValue();
+                        }
+
+                        @Override
+                        public void remove()
+                        {
+                            iter.remove();
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return MRawDocument.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet()
+        {
+            if (null != m_copy)
+            {
+                return m_copy.entrySet();
+            }
+            return new AbstractSet<Map.Entry<String, Object>>()
+            {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator()
+                {
+                    return new MRawEntryIterator();
+                }
+
+                @Override
+                public int size()
+                {
+                    return MRawDocument.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Document append(final String key, final Object value)
+        {
+            writable().put(key, value);
+
+            return this;
+        }
+
+        @Override
+        public Object put(final String key, final Object value)
+        {
+            return writable().put(key, value);
+        }
+
+        @Override
+        public void putAll(final Map<? extends String, ? extends Object> map)
+        {
+            writable().putAll(map);
+        }
+
+        @Override
+        public Object remove(final Object key)
+        {
+            return writable().remove(key);
+        }
+
+        @Override
+        public void clear()
+        {
+            writable().clear();
+        }
+
+        @Override
+        public <TDocument> BsonDocument toBsonDocument(final Class<TDocument> documentClass, final CodecRegistry codecRegistry)
+        {
+            if (null == m_copy)
+            {
+                return m_raw;
+            }
+            return new Document(m_copy).toBsonDocument(documentClass, codecRegistry);
+        }
+
+        @Override
+        public String toJson()
+        {
+            return getRawBsonDocument().toJson();
+        }
+
+        @Override
+        public String toJson(final JsonWriterSettings settings)
+        {
+            return getRawBsonDocument().toJson(settings);
+        }
+
+        @Override
+        public boolean equals(final Object other)
+        {
+            if (this == other)
+            {
+                return true;
+            }
+            if ((other instanceof MRawDocument) && (null == m_copy) && (false == ((MRawDocument) other).isModified()))
+            {
+                return m_raw.equals(((MRawDocument) other).m_raw);
+            }
+            return decoded().equals(other);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return decoded().hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "MRawDocument{" + decoded() + "}";
+        }
+
+        private final class MRawEntryIterator implements Iterator<Map.Entry<String, Object>>
+        {
+            private final BsonBinaryReader m_reader = reader();
+
+            private MRawEntry              m_next;
+
+            private MRawEntry              m_last;
+
+            private boolean                m_done   = false;
+
+            @Override
+            public boolean hasNext()
+            {
+                if ((null == m_next) && (false == m_done))
+                {
+                    if (m_reader.readBsonType() == BsonType.END_OF_DOCUMENT)
+                    {
+                        m_done = true;
+
+                        m_reader.close();
+                    }
+                    else
+                    {
+                        final String key = m_reader.readName();
+
+                        m_next = new MRawEntry(key, cached(key, m_reader));
+                    }
+                }
+                return (null != m_next);
+            }
+
+            @Override
+            public Map.Entry<String, Object> next()
+            {
+                if (false == hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                m_last = m_next;
+
+                m_next = null;
+
+                return m_last;
+            }
+
+            @Override
+            public void remove()
+            {
+                if (null == m_last)
+                {
+                    throw new IllegalStateException();
+                }
+                MRawDocument.this.remove(m_last.getKey());
+            }
+        }
+
+        private final class MRawEntry extends AbstractMap.SimpleEntry<String, Object>
+        {
+            private MRawEntry(final String key, final Object value)
+            {
+                super(key, value);
+            }
+
+            @Override
+            public Object setValue(final Object value)
+            {
+                MRawDocument.this.put(getKey(), value);
+
+                return super.setValue(value);
+            }
+        }
+    }
+
+    private static final class MRawDocumentCodec implements CollectibleCodec<Document>
+    {
+        private final Codec<Document>        m_codec;
+
+        private final Codec<RawBsonDocument> m_bytes;
+
+        private MRawDocumentCodec(final Codec<Document> codec, final Codec<RawBsonDocument> bytes)
+        {
+            m_codec = Objects.requireNonNull(codec);
+
+            m_bytes = Objects.requireNonNull(bytes);
+        }
+
+        @Override
+        public Document decode(final BsonReader reader, final DecoderContext context)
+        {
+            return new MRawDocument(m_bytes.decode(reader, context), m_codec);
+        }
+
+        @Override
+        public void encode(final BsonWriter writer, final Document value, final EncoderContext context)
+        {
+            if (value instanceof MRawDocument)
+            {
+                m_bytes.encode(writer, ((MRawDocument) value).getRawBsonDocument(), context);
+            }
+            else
+            {
+                m_codec.encode(writer, value, context);
+            }
+        }
+
+        @Override
+        public Class<Document> getEncoderClass()
+        {
+            return Document.class;
+        }
+
+        @Override
+        public Document generateIdIfAbsentFromDocument(final Document document)
+        {
+            if ((document instanceof MRawDocument) || (false == (m_codec instanceof CollectibleCodec)))
+            {
+                return document;
+            }
+            return ((CollectibleCodec<Document>) m_codec).generateIdIfAbsentFromDocument(document);
+        }
+
+        @Override
+        public boolean documentHasId(final Document document)
+        {
+            return document.containsKey("_id");
+        }
+
+        @Override
+        public BsonValue getDocumentId(final Document document)
+        {
+            if (document instanceof MRawDocument)
+            {
+                return ((MRawDocument) document).getRawBsonDocument().get("_id");
+            }
+            if (m_codec instanceof CollectibleCodec)
+            {
+                return ((CollectibleCodec<Document>) m_codec).getDocumentId(document);
+            }
+            throw new IllegalStateException("no CollectibleCodec for Document");
+        }
+    }
+
+    public static final class MMapCodecProvider implements CodecProvider
+    {
+        private static final MMapCodecProvider INSTANCE = new MMapCodecProvider();
+
+        private static final boolean hasMapCodec(final CodecRegistry registry)
+        {
+            try
+            {
+                return (registry.get(MMapCodec.MAP_CLASS) instanceof MMapCodec);
+            }
+            catch (CodecConfigurationException e)
+            {
+                return false;
+            }
+        }
+
+        public static final CodecRegistry withMapCodec(final CodecRegistry registry)
+        {
+            if (hasMapCodec(Objects.requireNonNull(registry)))
+            {
+                return registry;
+            }
+            return CodecRegistries.fromRegistries(CodecRegistries.fromProviders(INSTANCE), registry);
+        }
+
+        public static final MMapCodec getMapCodec(final CodecRegistry registry)
+        {
+            return (MMapCodec) withMapCodec(registry).get(MMapCodec.MAP_CLASS);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Codec<T> get(final Class<T> type, final CodecRegistry registry)
+        {
+            // decode always yields a Document, so only the plain Map interface is claimed, never a concrete Map class
+            if (Map.class == type)
+            {
+                return (Codec<T>) new MMapCodec(registry);
+            }
+            return null;
+        }
+    }
+
+    public static final class MMapCodec implements Codec<Map<String, ?>>
+    {
+        static final Class<Map<String, ?>>                  MAP_CLASS = mapClass();
+
+        private static final EncoderContext                 CHILD     = EncoderContext.builder().build();
+
+        private static final RawBsonDocumentCodec           RAW_CODEC = new RawBsonDocumentCodec();
+
+        private final CodecRegistry                         m_registry;
+
+        private final ConcurrentHashMap<Class<?>, Codec<?>> m_codecs  = new ConcurrentHashMap<Class<?>, Codec<?>>();
+
+        MMapCodec(final CodecRegistry registry)
+        {
+            m_registry = Objects.requireNonNull(registry);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static final Class<Map<String, ?>> mapClass()
+        {
+            return (Class<Map<String, ?>>) ((Class<?>) Map.class);
+        }
+
+        @Override
+        public Class<Map<String, ?>> getEncoderClass()
+        {
+            return MAP_CLASS;
+        }
+
+        @SuppressWarnings("unchecked")
+        private final Codec<Object> codec(final Class<?> type)
+        {
+            Codec<?> codec = m_codecs.get(type);
+
+            if (null == codec)
+            {
+                codec = m_registry.get(type);
+
+                m_codecs.putIfAbsent(type, codec);
+            }
+            return (Codec<Object>) codec;
+        }
+
+        public final Bson toBson(final Map<String, ?> map)
+        {
+            if (map instanceof Bson)
+            {
+                return (Bson) map;
+            }
+            return new MMapBson(map, this);
+        }
+
+        @Override
+        public Map<String, ?> decode(final BsonReader reader, final DecoderContext context)
+        {
+            return (Document) codec(Document.class).decode(reader, context);
+        }
+
+        @Override
+        public void encode(final BsonWriter writer, final Map<String, ?> map, final EncoderContext context)
+        {
+            if (map instanceof MRawDocument)
+            {
+                RAW_CODEC.encode(writer, ((MRawDocument) map).getRawBsonDocument(), context);
+
+                return;
+            }
+            final boolean collectible = ((context.isEncodingCollectibleDocument()) && (map.containsKey("_id")));
+
+            writer.writeStartDocument();
+
+            if (collectible)
+            {
+                writer.writeName("_id");
+
+                value(writer, map.get("_id"));
+            }
+            for (Map.Entry<String, ?> entry : map.entrySet())
+            {
+                final String name = entry.getKey();
+
+                if ((collectible) && ("_id".equals(name)))
+                {
+                    continue;
+                }
+                writer.writeName(name);
+
+                value(writer, entry.getValue());
+            }
+            writer.writeEndDocument();
+        }
+
+        @SuppressWarnings("unchecked")
+        private final void value(final BsonWriter writer, final Object value)
+        {
+            if (null == value)
+            {
+                writer.writeNull();
+            }
+            else if (value instanceof String)
+            {
+                writer.writeString((String) value);
+            }
+            else if (value instanceof Integer)
+            {
+                writer.writeInt32((Integer) value);
+            }
+            else if (value instanceof Long)
+            {
+                writer.writeInt64((Long) value);
+            }
+            else if (value instanceof Double)
+            {
+                writer.writeDouble((Double) value);
+            }
+            else if (value instanceof Boolean)
+            {
+                writer.writeBoolean((Boolean) value);
+            }
+            else if (value instanceof ObjectId)
+            {
+                writer.writeObjectId((ObjectId) value);
+            }
+            else if (value instanceof BsonValue)
+            {
+                codec(value.getClass()).encode(writer, value, CHILD);
+            }
+            else if (value instanceof Map)
+            {
+                encode(writer, (Map<String, ?>) value, CHILD);
+            }
+            else if (value instanceof Iterable)
+            {
+                writer.writeStartArray();
+
+                for (Object item : (Iterable<?>) value)
+                {
+                    value(writer, item);
+                }
+                writer.writeEndArray();
+            }
+            else
+            {
+                codec(value.getClass()).encode(writer, value, CHILD);
+            }
+        }
+    }
+
+    public static enum MDecimalEncoding
+    {
+        DECIMAL128, DOUBLE;
+    }
+
+    public static final class MNumericCodecProvider implements CodecProvider
+    {
+        private final MBigDecimalCodec m_bigdec;
+
+        private final MBigIntegerCodec m_bigint;
+
+        public MNumericCodecProvider(final MDecimalEncoding encoding)
+        {
+            m_bigdec = new MBigDecimalCodec(encoding);
+
+            m_bigint = new MBigIntegerCodec(encoding);
+        }
+
+        private static final boolean hasNumericCodecs(final CodecRegistry registry)
+        {
+            try
+            {
+                return (null != registry.get(BigDecimal.class));
+            }
+            catch (CodecConfigurationException e)
+            {
+                return false;
+            }
+        }
+
+        public static final CodecRegistry withNumericCodecs(final CodecRegistry registry, final MDecimalEncoding encoding)
+        {
+            if (hasNumericCodecs(Objects.requireNonNull(registry)))
+            {
+                return registry;
+            }
+            return CodecRegistries.fromRegistries(CodecRegistries.fromProviders(new MNumericCodecProvider(encoding)), registry);
+        }
+
+        public static final MongoClientOptions withNumericCodecs(final MongoClientOptions opts, final MDecimalEncoding encoding)
+        {
+            return MongoClientOptions.builder(opts).codecRegistry(withNumericCodecs(opts.getCodecRegistry(), encoding)).build();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> Codec<T> get(final Class<T> type, final CodecRegistry registry)
+        {
+            if (BigDecimal.class == type)
+            {
+                return (Codec<T>) m_bigdec;
+            }
+            if (BigInteger.class == type)
+            {
+                return (Codec<T>) m_bigint;
+            }
+            return null;
+        }
+    }
+
+    public static final class MBigDecimalCodec implements Codec<BigDecimal>
+    {
+        private final MDecimalEncoding m_encoding;
+
+        public MBigDecimalCodec(final MDecimalEncoding encoding)
+        {
+            m_encoding = Objects.requireNonNull(encoding);
+        }
+
+        public MDecimalEncoding getDecimalEncoding()
+        {
+            return m_encoding;
+        }
+
+        static final Decimal128 toDecimal128(final BigDecimal value)
+        {
+            if (value.precision() > MathContext.DECIMAL128.getPrecision())
+            {
+                return new Decimal128(value.round(MathContext.DECIMAL128));
+            }
+            return new Decimal128(value);
+        }
+
+        @Override
+        public void encode(final BsonWriter writer, final BigDecimal value, final EncoderContext context)
+        {
+            if (MDecimalEncoding.DOUBLE == m_encoding)
+            {
+                writer.writeDouble(value.doubleValue());
+            }
+            else
+            {
+                writer.writeDecimal128(toDecimal128(value));
+            }
+        }
+
+        @Override
+        public BigDecimal decode(final BsonReader reader, final DecoderContext context)
+        {
+            switch (reader.getCurrentBsonType())
+            {
+                case DECIMAL128:
+                    return reader.readDecimal128().bigDecimalValue();
+                case DOUBLE:
+                    return BigDecimal.valueOf(reader.readDouble());
+                case INT64:
+                    return BigDecimal.valueOf(reader.readInt64());
+                case INT32:
+                    return BigDecimal.valueOf(reader.readInt32());
+                case STRING:
+                    return new BigDecimal(reader.readString());
+                default:
+                    throw new BsonInvalidOperationException("can not decode BigDecimal from " + reader.getCurrentBsonType());
+            }
+        }
+
+        @Override
+        public Class<BigDecimal> getEncoderClass()
+        {
+            return BigDecimal.class;
+        }
+    }
+
+    public static final class MBigIntegerCodec implements Codec<BigInteger>
+    {
+        private final MDecimalEncoding m_encoding;
+
+        public MBigIntegerCodec(final MDecimalEncoding encoding)
+        {
+            m_encoding = Objects.requireNonNull(encoding);
+        }
+
+        public MDecimalEncoding getDecimalEncoding()
+        {
+            return m_encoding;
+        }
+
+        @Override
+        public void encode(final BsonWriter writer, final BigInteger value, final EncoderContext context)
+        {
+            if (value.bitLength() < 64)
+            {
+                writer.writeInt64(value.longValue());
+            }
+            else if (MDecimalEncoding.DOUBLE == m_encoding)
+            {
+                writer.writeDouble(value.doubleValue());
+            }
+            else
+            {
+                writer.writeDecimal128(MBigDecimalCodec.toDecimal128(new BigDecimal(value)));
+            }
+        }
+
+        @Override
+        public BigInteger decode(final BsonReader reader, final DecoderContext context)
+        {
+            switch (reader.getCurrentBsonType())
+            {
+                case INT64:
+                    return BigInteger.valueOf(reader.readInt64());
+                case INT32:
+                    return BigInteger.valueOf(reader.readInt32());
+                case DECIMAL128:
+                    return reader.readDecimal128().bigDecimalValue().toBigInteger();
+                case DOUBLE:
+                    return BigDecimal.valueOf(reader.readDouble()).toBigInteger();
+                case STRING:
+                    return new BigInteger(reader.readString());
+                default:
+                    throw new BsonInvalidOperationException("can not decode BigInteger from " + reader.getCurrentBsonType());
+            }
+        }
+
+        @Override
+        public Class<BigInteger> getEncoderClass()
+        {
+            return BigInteger.class;
+        }
+    }
+
+    private static final class MMapBson implements Bson
+    {
+        private final Map<String, ?> m_map;
+
+        private final MMapCodec      m_codec;
+
+        private MMapBson(final Map<String, ?> map, final MMapCodec codec)
+        {
+            m_map = Objects.requireNonNull(map);
+
+            m_codec = Objects.requireNonNull(codec);
+        }
+
+        @Override
+        public <T> BsonDocument toBsonDocument(final Class<T> type, final CodecRegistry registry)
+        {
+            return new BsonDocumentWrapper<Map<String, ?>>(m_map, m_codec);
+        }
+    }
+
+    public static interface IMCursor extends Iterable<Map<String, ?>>, Iterator<Map<String, ?>>, Closeable
+    {
+        public <A extends Collection<? super Map<String, ?>>> A into(A target);
+    }
+
+    protected static abstract class AbstractMCursor<T extends MongoIterable<Document>>implements IMCursor
+    {
+        private final T                     m_iterab;
+
+        private MongoCursor<Document>       m_cursor;
+
+        private boolean                     m_closed    = false;
+
+        private boolean                     m_autoclose = true;
+
+        private final MCollectionMetrics    m_metrics;
+
+        private final MOperation            m_operation;
+
+        protected AbstractMCursor(final T iter)
+        {
+            this(iter, MCollectionMetrics.NONE, MOperation.FIND);
+        }
+
+        protected AbstractMCursor(final T iter, final MCollectionMetrics metrics, final MOperation operation)
+        {
+            m_iterab = Objects.requireNonNull(iter);
+
+            m_metrics = Objects.requireNonNull(metrics);
+
+            m_operation = Objects.requireNonNull(operation);
+        }
+
+        protected final T self()
+        {
+            if (null != m_cursor)
+            {
+                throw new IllegalStateException("cursor already opened");
+            }
+            return m_iterab;
+        }
+
+        protected final MongoCursor<Document> cursor()
+        {
+            if (null == m_cursor)
+            {
+                m_cursor = m_metrics.timed(m_operation, new Supplier<MongoCursor<Document>>()
+                {
+                    @Override
+                    public MongoCursor<Document> get()
+                    {
+                        return Objects.requireNonNull(m_iterab.iterator());
+                    }
+                }, shaped());
+            }
+            return m_cursor;
+        }
+
+        private final LongConsumer shaped()
+        {
+            return new LongConsumer()
+            {
+                @Override
+                public void accept(final long time)
+                {
+                    shape(m_metrics, m_operation, time);
+                }
+            };
+        }
+
+        protected void shape(final MCollectionMetrics metrics, final MOperation operation, final long time)
+        {
+        }
+
+        public boolean isOpened()
+        {
+            return (null != m_cursor);
+        }
+
+        @Override
+        public <A extends Collection<? super Map<String, ?>>> A into(final A target)
+        {
+            Objects.requireNonNull(target);
+
+            if (false == m_closed)
+            {
+                if (null == m_cursor)
+                {
+                    m_metrics.timed(m_operation, new Supplier<A>()
+                    {
+                        @Override
+                        public A get()
+                        {
+                            return m_iterab.into(target);
+                        }
+                    }, shaped());
+                }
+                else
+                {
+                    while (m_cursor.hasNext())
+                    {
+                        target.add(m_cursor.next());
+                    }
+                }
+            }
+            try
+            {
+                close();
+            }
+            catch (IOException e)
+            {
+                logger.error("Error in AbstractMCursor.into() ", e);
+            }
+            return target;
+        }
+
+        @Override
+        public Iterator<Map<String, ?>> iterator()
+        {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            final boolean next = ((m_closed == false) && (cursor().hasNext()));
+
+            if ((false == next) && (false == m_closed) && (m_autoclose))
+            {
+                try
+                {
+                    close();
+                }
+                catch (Exception e)
+                {
+                    logger.error("Error in AbstractMCursor.close() ", e);
+                }
+            }
+            return next;
+        }
+
+        public void setAutoClose(final boolean autoclose)
+        {
+            m_autoclose = autoclose;
+        }
+
+        @Override
+        public Map<String, ?> next()
+        {
+            if (m_closed)
+            {
+                throw new NoSuchElementException("cursor closed");
+            }
+            return cursor().next();
+        }
+
+        @Override
+        public void remove()
+        {
+            if (m_closed)
+            {
+                throw new IllegalStateException("cursor closed");
+            }
+            cursor().remove();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (false == m_closed)
+            {
+                if (null != m_cursor)
+                {
+                    m_cursor.close();
+                }
+                m_closed = true;
+            }
+        }
+    }
+
+    public static final class MIndexCursor extends AbstractMCursor<ListIndexesIterable<Document>>
+    {
+        protected MIndexCursor(final ListIndexesIterable<Document> index)
+        {
+            super(index);
+        }
+    }
+
+    public static final class MAggregateCursor extends AbstractMCursor<AggregateIterable<Document>>
+    {
+        private MongoCollection<Document> m_shaped;
+
+        private Bson                      m_filter;
+
+        private Bson                      m_sort;
+
+        protected MAggregateCursor(final AggregateIterable<Document> aggreg)
+        {
+            super(aggreg);
+        }
+
+        protected MAggregateCursor(final AggregateIterable<Document> aggreg, final MCollectionMetrics metrics)
+        {
+            super(aggreg, metrics, MOperation.AGGREGATE);
+        }
+
+        @SuppressWarnings("unchecked")
+        final MAggregateCursor shaped(final MongoCollection<Document> collection, final List<Document> pipeline)
+        {
+            m_shaped = collection;
+
+            for (Document stage : pipeline)
+            {
+                final String op = MAggregationOptimizer.op(stage);
+
+                if (("$match".equals(op)) && (null == m_filter) && (null == m_sort) && (stage.get(op) instanceof Map))
+                {
+                    m_filter = new Document(CAST_MAP((Map<String, ?>) stage.get(op)));
+                }
+                else if (("$sort".equals(op)) && (null == m_sort) && (stage.get(op) instanceof Map))
+                {
+                    m_sort = new Document(CAST_MAP((Map<String, ?>) stage.get(op)));
+                }
+                else
+                {
+                    break;
+                }
+            }
+            return this;
+        }
+
+        @Override
+        protected void shape(final MCollectionMetrics metrics, final MOperation operation, final long time)
+        {
+            if (null != m_shaped)
+            {
+                metrics.shape(m_shaped.getNamespace(), m_shaped.getCodecRegistry(), operation, m_filter, m_sort, null, time);
+            }
+        }
+
+        public MAggregateCursor batchSize(final int size)
+        {
+            self().batchSize(Math.max(0, size));
+
+            return this;
+        }
+
+        public MAggregateCursor maxTime(final long time, final TimeUnit unit)
+        {
+            self().maxTime(Math.max(0L, time), Objects.requireNonNull(unit));
+
+            return this;
+        }
+
+        public MAggregateCursor allowDiskUse(final boolean allow)
+        {
+            self().allowDiskUse(allow);
+
+            return this;
+        }
+    }
+
+    public static final class MCursor extends AbstractMCursor<FindIterable<Document>>
+    {
+        private Document                  m_modifiers;
+
+        private MongoCollection<Document> m_shaped;
+
+        private Bson                      m_filter;
+
+        private Bson                      m_sort;
+
+        private Bson                      m_fields;
+
+        protected MCursor(final FindIterable<Document> finder)
+        {
+            super(finder);
+        }
+
+        protected MCursor(final FindIterable<Document> finder, final MCollectionMetrics metrics)
+        {
+            super(finder, metrics, MOperation.FIND);
+        }
+
+        final MCursor shaped(final MongoCollection<Document> collection, final Bson filter, final Bson fields)
+        {
+            return shaped(collection, filter, null, fields);
+        }
+
+        // records the sort for the query shape only, for iterables that are already sorted
+        final MCursor shaped(final MongoCollection<Document> collection, final Bson filter, final Bson sort, final Bson fields)
+        {
+            m_shaped = collection;
+
+            m_filter = filter;
+
+            m_sort = sort;
+
+            m_fields = fields;
+
+            return this;
+        }
+
+        @Override
+        protected void shape(final MCollectionMetrics metrics, final MOperation operation, final long time)
+        {
+            if (null != m_shaped)
+            {
+                metrics.shape(m_shaped.getNamespace(), m_shaped.getCodecRegistry(), operation, m_filter, m_sort, m_fields, time);
+            }
+        }
+
+        public MCursor projection(final MProjection projection)
+        {
+            self().projection(Objects.requireNonNull(projection));
+
+            m_fields = projection;
+
+            return this;
+        }
+
+        public MCursor skip(final int skip)
+        {
+            self().skip(Math.max(0, skip));
+
+            return this;
+        }
+
+        public MCursor limit(final int limit)
+        {
+            self().limit(Math.max(0, limit));
+
+            return this;
+        }
+
+        public MCursor sort(final Map<String, ?> sort)
+        {
+            return sort(new MSort(Objects.requireNonNull(sort)));
+        }
+
+        public MCursor sort(final MSort sort)
+        {
+            self().sort(Objects.requireNonNull(sort));
+
+            m_sort = sort;
+
+            return this;
+        }
+
+        public MCursor batchSize(final int size)
+        {
+            self().batchSize(Math.max(0, size));
+
+            return this;
+        }
+
+        public MCursor maxTime(final long time, final TimeUnit unit)
+        {
+            self().maxTime(Math.max(0L, time), Objects.requireNonNull(unit));
+
+            return this;
+        }
+
+        public MCursor noCursorTimeout(final boolean notimeout)
+        {
+            self().noCursorTimeout(notimeout);
+
+            return this;
+        }
+
+        public MCursor hint(final String index)
+        {
+            return modifier("$hint", StringOps.requireTrimOrNull(index));
+        }
+
+        public MCursor hint(final Map<String, ?> index)
+        {
+            return modifier("$hint", new Document(CAST_MAP(index)));
+        }
+
+        public MCursor hint(final MSort index)
+        {
+            return modifier("$hint", Objects.requireNonNull(index));
+        }
+
+        private final MCursor modifier(final String name, final Object value)
+        {
+            final FindIterable<Document> iter = self();
+
+            if (null == m_modifiers)
+            {
+                m_modifiers = new Document();
+            }
+            m_modifiers.put(name, value);
+
+            iter.modifiers(m_modifiers);
+
+            return this;
+        }
+    }
+
+    public static final class MPage implements Iterable<Map<String, ?>>
+    {
+        private final List<Map<String, ?>> m_list;
+
+        private final String               m_next;
+
+        private MPage(final List<Map<String, ?>> list, final String next)
+        {
+            m_list = Collections.unmodifiableList(list);
+
+            m_next = next;
+        }
+
+        public List<Map<String, ?>> getItems()
+        {
+            return m_list;
+        }
+
+        public int size()
+        {
+            return m_list.size();
+        }
+
+        public boolean hasMore()
+        {
+            return (null != m_next);
+        }
+
+        public String getNextToken()
+        {
+            return m_next;
+        }
+
+        @Override
+        public Iterator<Map<String, ?>> iterator()
+        {
+            return m_list.iterator();
+        }
+    }
+
+    private static final class MKeyset
+    {
+        private final String[]  m_keys;
+
+        private final boolean[] m_desc;
+
+        private final MSort     m_sort;
+
+        private final BsonArray m_shape;
+
+        private MKeyset(final MSort sort)
+        {
+            final ArrayList<String> keys = new ArrayList<String>();
+
+            final ArrayList<Boolean> desc = new ArrayList<Boolean>();
+
+            for (String key : sort.keySet())
+            {
+                keys.add(key);
+
+                desc.add(isDescending(key, sort.get(key)));
+
+                if ("_id".equals(key))
+                {
+                    break;
+                }
+            }
+            if (false == keys.contains("_id"))
+            {
+                keys.add("_id");
+
+                desc.add(desc.isEmpty() ? false : desc.get(desc.size() - 1));
+            }
+            m_keys = keys.toArray(new String[keys.size()]);
+
+            m_desc = new boolean[m_keys.length];
+
+            m_sort = new MSort();
+
+            m_shape = new BsonArray();
+
+            for (int i = 0; i < m_keys.length; i++)
+            {
+                m_desc[i] = desc.get(i);
+
+                m_sort.put(m_keys[i], m_desc[i] ? -1 : 1);
+
+                m_shape.add(new BsonString((m_desc[i] ? "-" : "+") + m_keys[i]));
+            }
+        }
+
+        private static final boolean isDescending(final String key, final Object value)
+        {
+            if (value instanceof Number)
+            {
+                return (((Number) value).intValue() < 0);
+            }
+            if ((value instanceof BsonValue) && (((BsonValue) value).isNumber()))
+            {
+                return (((BsonValue) value).asNumber().intValue() < 0);
+            }
+            throw new IllegalArgumentException("keyset paging requires a numeric sort direction for " + key);
+        }
+
+        final MSort getSort()
+        {
+            return m_sort;
+        }
+
+        private static final boolean isIncluded(final Object value)
+        {
+            return ((Boolean.TRUE.equals(value)) || ((value instanceof Number) && (((Number) value).intValue() != 0)) || ((value instanceof BsonValue) && (((BsonValue) value).isNumber()) && (((BsonValue) value).asNumber().intValue() != 0)));
+        }
+
+        private static final boolean isInclusive(final MProjection fields)
+        {
+            for (Map.Entry<String, Object> entry : fields.entrySet())
+            {
+                if ((false == "_id".equals(entry.getKey())) && (isIncluded(entry.getValue())))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final MProjection projection(final MProjection fields)
+        {
+            final boolean inclusive = isInclusive(fields);
+
+            final MProjection projection = new MProjection(new LinkedHashMap<String, Object>(fields));
+
+            for (String key : m_keys)
+            {
+                if (inclusive)
+                {
+                    projection.put(key, 1);
+                }
+                else
+                {
+                    projection.remove(key);
+                }
+            }
+            return projection;
+        }
+
+        // the sort keys an inclusive projection was widened with, which the caller did not ask for
+        final List<String> added(final MProjection fields)
+        {
+            final ArrayList<String> list = new ArrayList<String>();
+
+            if (isInclusive(fields))
+            {
+                for (String key : m_keys)
+                {
+                    if ((false == "_id".equals(key)) && (false == isIncluded(fields.get(key))))
+                    {
+                        list.add(key);
+                    }
+                }
+            }
+            return list;
+        }
+
+        @SuppressWarnings("unchecked")
+        static final void strip(final Map<String, ?> item, final String key)
+        {
+            final int dot = key.indexOf('.');
+
+            if (dot < 0)
+            {
+                item.remove(key);
+
+                return;
+            }
+            final String head = key.substring(0, dot);
+
+            final Object child = item.get(head);
+
+            if (child instanceof Map)
+            {
+                final Map<String, ?> map = (Map<String, ?>) child;
+
+                strip(map, key.substring(dot + 1));
+
+                if (map.isEmpty())
+                {
+                    item.remove(head);
+                }
+            }
+        }
+
+        final BsonDocument filter(final BsonDocument query, final String token)
+        {
+            if (null == StringOps.toTrimOrNull(token))
+            {
+                return query;
+            }
+            final BsonArray vals = values(token);
+
+            final BsonArray ors = new BsonArray();
+
+            for (int i = 0; i < m_keys.length; i++)
+            {
+                final BsonValue value = vals.get(i);
+
+                final BsonDocument term = new BsonDocument();
+
+                for (int j = 0; j < i; j++)
+                {
+                    term.append(m_keys[j], vals.get(j));
+                }
+                if (value.isNull())
+                {
+                    if (m_desc[i])
+                    {
+                        continue;// null sorts lowest, nothing follows it descending except ties
+                    }
+                    term.append(m_keys[i], new BsonDocument("$ne", BsonNull.VALUE));
+                }
+                else
+                {
+                    term.append(m_keys[i], new BsonDocument(m_desc[i] ? "$lt" : "$gt", value));
+                }
+                ors.add(term);
+            }
+            if (query.isEmpty())
+            {
+                return new BsonDocument("$or", ors);
+            }
+            return new BsonDocument("$and", new BsonArray(Arrays.asList(query, new BsonDocument("$or", ors))));
+        }
+
+        final String token(final BsonDocument last)
+        {
+            final BsonArray vals = new BsonArray();
+
+            for (String key : m_keys)
+            {
+                vals.add(value(last, key));
+            }
+            final ByteBuf buf = new RawBsonDocument(new BsonDocument("k", m_shape).append("v", vals), BSON_CODEC).getByteBuffer();
+
+            final byte[] bytes = new byte[buf.remaining()];
+
+            buf.get(bytes);
+
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        }
+
+        private final BsonArray values(final String token)
+        {
+            try
+            {
+                final BsonDocument data = new RawBsonDocument(Base64.getUrlDecoder().decode(token.trim()));
+
+                if (m_shape.equals(data.getArray("k")))
+                {
+                    final BsonArray vals = data.getArray("v");
+
+                    if (vals.size() == m_keys.length)
+                    {
+                        return vals;
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                throw new IllegalArgumentException("invalid page token", e);
+            }
+            throw new IllegalArgumentException("page token does not match sort " + m_sort.toJson());
+        }
+
+        private static final BsonValue value(final BsonDocument doc, final String path)
+        {
+            BsonValue value = doc;
+
+            for (String name : path.split("\\."))
+            {
+                if ((null == value) || (false == value.isDocument()))
+                {
+                    return BsonNull.VALUE;
+                }
+                value = value.asDocument().get(name);
+            }
+            return (null == value) ? BsonNull.VALUE : value;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    public static final class MSort extends Document
+    {
+        private static final BsonInt32 ORDER_A = new BsonInt32(0 + 1);
+
+        private static final BsonInt32 ORDER_D = new BsonInt32(0 - 1);
+
+        private MSort()
+        {
+        }
+
+        @SuppressWarnings("unchecked")
+        public MSort(final Map<String, ?> map)
+        {
+            super((Map<String, Object>) map);
+        }
+
+        public static final MSort ASCENDING(final String... fields)
+        {
+            return ASCENDING(Arrays.asList(fields));
+        }
+
+        public static final MSort ASCENDING(final List<String> fields)
+        {
+            return ORDER_BY(Objects.requireNonNull(fields), ORDER_A);
+        }
+
+        public static final MSort DESCENDING(final String... fields)
+        {
+            return DESCENDING(Arrays.asList(fields));
+        }
+
+        public static final MSort DESCENDING(final List<String> fields)
+        {
+            return ORDER_BY(Objects.requireNonNull(fields), ORDER_D);
+        }
+
+        public static final MSort ORDER_BY(final MSort... sorts)
+        {
+            return ORDER_BY(Arrays.asList(sorts));
+        }
+
+        public static final MSort ORDER_BY(final List<MSort> sorts)
+        {
+            Objects.requireNonNull(sorts);
+
+            final MSort sort = new MSort();
+
+            for (MSort s : sorts)
+            {
+                if (null != s)
+                {
+                    for (String k : s.keySet())
+                    {
+                        if (null != StringOps.toTrimOrNull(k))
+                        {
+                            sort.remove(k);
+
+                            sort.append(k, s.get(k));
+                        }
+                    }
+                }
+                else
+                {
+                    logger.warn("MSort.ORDER_BY(null)");
+                }
+            }
+            return sort;
         }
 
-        public static final MAggregationMatch MATCH(final Map<String, ?> map)
+        private static final MSort ORDER_BY(final List<String> fields, final BsonInt32 value)
         {
-            return new MAggregationMatch(Objects.requireNonNull(map));
+            Objects.requireNonNull(fields);
+
+            final MSort sort = new MSort();
+
+            for (String name : fields)
+            {
+                if (null != StringOps.toTrimOrNull(name))
+                {
+                    sort.remove(name);
+
+                    sort.append(name, value);
+                }
+            }
+            return sort;
         }
+    }
 
-        public static final MAggregationMatch MATCH(final Document doc)
+    @SuppressWarnings("serial")
+    public static final class MProjection extends Document
+    {
+        private static final BsonInt32 INCLUDE_N = new BsonInt32(0);
+
+        private static final BsonInt32 INCLUDE_Y = new BsonInt32(1);
+
+        private MProjection()
         {
-            return new MAggregationMatch(Objects.requireNonNull(doc));
         }
 
-        public static final MAggregationGroup GROUP(final Map<String, ?> map)
+        @SuppressWarnings("unchecked")
+        public MProjection(final Map<String, ?> map)
         {
-            return new MAggregationGroup(Objects.requireNonNull(map));
+            super(Objects.requireNonNull((Map<String, Object>) map));
         }
 
-        public static final MAggregationGroup GROUP(final Document doc)
+        private MProjection(final String name, final BsonValue value)
         {
-            return new MAggregationGroup(Objects.requireNonNull(doc));
+            super(StringOps.requireTrimOrNull(name), value);
+        }
+
+        public static final MProjection INCLUDE(final String... fields)
+        {
+            return INCLUDE(Arrays.asList(fields));
+        }
+
+        public static final MProjection INCLUDE(final List<String> fields)
+        {
+            return COMBINE(Objects.requireNonNull(fields), INCLUDE_Y);
+        }
+
+        public static final MProjection EXCLUDE(final String... fields)
+        {
+            return EXCLUDE(Arrays.asList(fields));
+        }
+
+        public static final MProjection EXCLUDE(final List<String> fields)
+        {
+            return COMBINE(Objects.requireNonNull(fields), INCLUDE_N);
+        }
+
+        public static final MProjection NO_ID()
+        {
+            return new MProjection("_id", INCLUDE_N);
+        }
+
+        public static final MProjection FIELDS(final MProjection... projections)
+        {
+            return FIELDS(Arrays.asList(projections));
+        }
+
+        public static final MProjection FIELDS(final List<MProjection> projections)
+        {
+            final MProjection projection = new MProjection();
+
+            for (MProjection p : projections)
+            {
+                for (String k : p.keySet())
+                {
+                    if (null != (k = StringOps.toTrimOrNull(k)))
+                    {
+                        projection.remove(k);
+
+                        projection.append(k, p.get(k));
+                    }
+                }
+            }
+            return projection;
+        }
+
+        private static final MProjection COMBINE(final List<String> fields, final BsonInt32 value)
+        {
+            final MProjection projection = new MProjection();
+
+            for (String name : fields)
+            {
+                if (null != (name = StringOps.toTrimOrNull(name)))
+                {
+                    projection.remove(name);
+
+                    projection.append(name, value);
+                }
+            }
+            return projection;
         }
     }
 
-    public static final class MAggregationGroup extends MAggregationOp
+    public static final class MQueryParameter
     {
-        private static final long serialVersionUID = 3079372174680166319L;
+        private final String m_name;
 
-        public MAggregationGroup(final Map<String, ?> map)
+        public MQueryParameter(final String name)
         {
-            super(makeAggregationOp("$group", Objects.requireNonNull(map)));
+            m_name = StringOps.requireTrimOrNull(name);
         }
 
-        public MAggregationGroup(final Document doc)
+        public String getName()
         {
-            super(makeAggregationOp("$group", Objects.requireNonNull(doc)));
+            return m_name;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "?" + m_name;
         }
     }
 
-    public static final class MAggregationMatch extends MAggregationOp
+    private static final class MQueryParameterCodec implements Codec<MQueryParameter>
     {
-        private static final long serialVersionUID = -1138722876045817851L;
+        @Override
+        public void encode(final BsonWriter writer, final MQueryParameter value, final EncoderContext context)
+        {
+            writer.writeStartDocument();
 
-        public MAggregationMatch(final Map<String, ?> map)
+            writer.writeString(MPreparedQuery.PARAMETER_KEY, value.getName());
+
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public MQueryParameter decode(final BsonReader reader, final DecoderContext context)
         {
-            super(makeAggregationOp("$match", Objects.requireNonNull(map)));
+            reader.readStartDocument();
+
+            final MQueryParameter value = new MQueryParameter(reader.readString(MPreparedQuery.PARAMETER_KEY));
+
+            reader.readEndDocument();
+
+            return value;
         }
 
-        public MAggregationMatch(final Document doc)
+        @Override
+        public Class<MQueryParameter> getEncoderClass()
         {
-            super(makeAggregationOp("$match", Objects.requireNonNull(doc)));
+            return MQueryParameter.class;
         }
     }
 
-    public static final class MAggregationPipeline
+    public static final class MPreparedQuery
     {
-        private final ArrayList<Document> m_pipeline = new ArrayList<Document>();
+        static final String                 PARAMETER_KEY = "$$param";
 
-        public <T extends Document> MAggregationPipeline(final List<T> list)
+        private static final CodecRegistry  PREPARE_CODEC = CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(new MQueryParameterCodec()), MongoClient.getDefaultCodecRegistry());
+
+        private static final CodecRegistry  BIND_CODEC    = MNumericCodecProvider.withNumericCodecs(MongoClient.getDefaultCodecRegistry(), MDecimalEncoding.DECIMAL128);
+
+        private static final EncoderContext ENCODER       = EncoderContext.builder().build();
+
+        private final BsonDocument          m_skeleton;
+
+        private final String                m_shapekey;
+
+        private final List<MQuerySlot>      m_slots       = new ArrayList<MQuerySlot>();
+
+        private final List<String>          m_names       = new ArrayList<String>();
+
+        public MPreparedQuery(final MQuery query)
         {
-            m_pipeline.addAll(Objects.requireNonNull(list));
+            m_skeleton = Objects.requireNonNull(query).toBsonDocument(Document.class, PREPARE_CODEC).clone();
+
+            m_shapekey = m_skeleton.toJson();
+
+            compile(m_skeleton, new ArrayList<Object>());
+        }
+
+        public static final MQueryParameter PARAM(final String name)
+        {
+            return new MQueryParameter(name);
+        }
+
+        public static final MPreparedQuery PREPARE(final MQuery query)
+        {
+            return new MPreparedQuery(query);
+        }
+
+        public static final MPreparedQuery PREPARE(final Map<String, ?> query)
+        {
+            if (query instanceof MQuery)
+            {
+                return new MPreparedQuery((MQuery) query);
+            }
+            return new MPreparedQuery(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        private static final String getParameterName(final BsonValue value)
+        {
+            if (value.isDocument())
+            {
+                final BsonDocument doc = value.asDocument();
+
+                if ((doc.size() == 1) && (doc.containsKey(PARAMETER_KEY)))
+                {
+                    return doc.getString(PARAMETER_KEY).getValue();
+                }
+            }
+            return null;
+        }
+
+        private final void compile(final BsonValue value, final List<Object> path)
+        {
+            final String name = getParameterName(value);
+
+            if (null != name)
+            {
+                m_slots.add(new MQuerySlot(name, path.toArray()));
+
+                if (false == m_names.contains(name))
+                {
+                    m_names.add(name);
+                }
+                return;
+            }
+            if (value.isDocument())
+            {
+                for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet())
+                {
+                    path.add(entry.getKey());
+
+                    compile(entry.getValue(), path);
+
+                    path.remove(path.size() - 1);
+                }
+            }
+            else if (value.isArray())
+            {
+                final BsonArray list = value.asArray();
+
+                for (int i = 0; i < list.size(); i++)
+                {
+                    path.add(i);
+
+                    compile(list.get(i), path);
+
+                    path.remove(path.size() - 1);
+                }
+            }
+        }
+
+        public String getShapeKey()
+        {
+            return m_shapekey;
+        }
+
+        public List<String> getParameterNames()
+        {
+            return Collections.unmodifiableList(m_names);
+        }
+
+        public BsonDocument getSkeleton()
+        {
+            return m_skeleton.clone();
+        }
+
+        public MQuery bind(final Map<String, ?> values)
+        {
+            return bind(values, BIND_CODEC);
         }
 
-        @SafeVarargs
-        public <T extends Document> MAggregationPipeline(final T... list)
-        {
-            m_pipeline.addAll(Arrays.asList(Objects.requireNonNull(list)));
-        }
+        public MQuery bind(final Map<String, ?> values, final CodecRegistry registry)
+        {
+            Objects.requireNonNull(values);
+
+            Objects.requireNonNull(registry);
+
+            final BsonDocument bound = m_skeleton.clone();
+
+            for (MQuerySlot slot : m_slots)
+            {
+                if (false == values.containsKey(slot.m_name))
+                {
+                    throw new IllegalArgumentException("MPreparedQuery missing parameter " + slot.m_name);
+                }
+                slot.bind(bound, toBsonValue(values.get(slot.m_name), registry));
+            }
+            return new MBoundQuery(this, bound, registry);
+        }
+
+        @SuppressWarnings("unchecked")
+        static final BsonValue toBsonValue(final Object value, final CodecRegistry registry)
+        {
+            if (null == value)
+            {
+                return BsonNull.VALUE;
+            }
+            if (value instanceof BsonValue)
+            {
+                return (BsonValue) value;
+            }
+            if (value instanceof String)
+            {
+                return new BsonString((String) value);
+            }
+            if (value instanceof Integer)
+            {
+                return new BsonInt32((Integer) value);
+            }
+            if (value instanceof Long)
+            {
+                return new BsonInt64((Long) value);
+            }
+            if (value instanceof Double)
+            {
+                return new BsonDouble((Double) value);
+            }
+            if (value instanceof Boolean)
+            {
+                return BsonBoolean.valueOf((Boolean) value);
+            }
+            if (value instanceof ObjectId)
+            {
+                return new BsonObjectId((ObjectId) value);
+            }
+            if (value instanceof Date)
+            {
+                return new BsonDateTime(((Date) value).getTime());
+            }
+            final BsonDocument holder = new BsonDocument();
+
+            final BsonDocumentWriter writer = new BsonDocumentWriter(holder);
+
+            writer.writeStartDocument();
 
-        List<Document> list()
-        {
-            return m_pipeline;
+            writer.writeName("v");
+
+            ((Codec<Object>) registry.get(value.getClass())).encode(writer, value, ENCODER);
+
+            writer.writeEndDocument();
+
+            return holder.get("v");
         }
     }
 
-    public static interface IMCursor extends Iterable<Map<String, ?>>, Iterator<Map<String, ?>>, Closeable
+    @SuppressWarnings("serial")
+    public static final class MBoundQuery extends MQuery
     {
-        public <A extends Collection<? super Map<String, ?>>> A into(A target);
-    }
+        private static final DecoderContext DECODER = DecoderContext.builder().build();
 
-    protected static abstract class AbstractMCursor<T extends MongoIterable<Document>>implements IMCursor
-    {
-        private final T                     m_iterab;
+        private final MPreparedQuery        m_prepared;
 
-        private final MongoCursor<Document> m_cursor;
+        private final CodecRegistry         m_registry;
 
-        private boolean                     m_closed    = false;
+        private volatile BsonDocument       m_bound;
 
-        private boolean                     m_autoclose = true;
+        private volatile boolean            m_loaded;
 
-        protected AbstractMCursor(final T iter)
+        private MBoundQuery(final MPreparedQuery prepared, final BsonDocument bound, final CodecRegistry registry)
         {
-            m_iterab = Objects.requireNonNull(iter);
+            m_prepared = prepared;
 
-            m_cursor = Objects.requireNonNull(m_iterab.iterator());
-        }
+            m_registry = registry;
 
-        protected final T self()
-        {
-            return m_iterab;
+            m_bound = bound;
         }
 
-        @Override
-        public <A extends Collection<? super Map<String, ?>>> A into(A target)
+        // the map view is only decoded from the bound document when something reads or changes it
+        private final void load()
         {
-            final A result = m_iterab.into(target);
-
-            try
-            {
-                close();
-            }
-            catch (IOException e)
+            if (false == m_loaded)
             {
-                logger.error("Error in AbstractMCursor.into() ", e);
+                synchronized (this)
+                {
+                    if (false == m_loaded)
+                    {
+                        super.putAll(m_registry.get(Document.class).decode(new BsonDocumentReader(m_bound), DECODER));
+
+                        m_loaded = true;
+                    }
+                }
             }
-            return result;
         }
 
-        @Override
-        public Iterator<Map<String, ?>> iterator()
+        public MPreparedQuery getPreparedQuery()
         {
-            return this;
+            return m_prepared;
         }
 
-        @Override
-        public boolean hasNext()
+        public String getShapeKey()
         {
-            final boolean next = ((m_closed == false) && (m_cursor.hasNext()));
-
-            if ((false == next) && (false == m_closed) && (m_autoclose))
-            {
-                try
-                {
-                    close();
-                }
-                catch (Exception e)
-                {
-                    logger.error("Error in AbstractMCursor.close() ", e);
-                }
-            }
-            return next;
+            return m_prepared.getShapeKey();
         }
 
-        public void setAutoClose(final boolean autoclose)
+        public boolean isModified()
         {
-            m_autoclose = autoclose;
+            return (null == m_bound);
         }
 
         @Override
-        public Map<String, ?> next()
+        public <TDocument> BsonDocument toBsonDocument(final Class<TDocument> documentClass, final CodecRegistry codecRegistry)
         {
-            return m_cursor.next();
+            final BsonDocument bound = m_bound;
+
+            if (null != bound)
+            {
+                return bound;
+            }
+            return super.toBsonDocument(documentClass, codecRegistry);
         }
 
         @Override
-        public void remove()
+        public Document append(final String key, final Object value)
         {
-            m_cursor.remove();
+            load();
+
+            m_bound = null;
+
+            return super.append(key, value);
         }
 
         @Override
-        public void close() throws IOException
+        public Object put(final String key, final Object value)
         {
-            if (false == m_closed)
-            {
-                m_cursor.close();
+            load();
 
-                m_closed = true;
-            }
-        }
-    }
+            m_bound = null;
 
-    public static final class MIndexCursor extends AbstractMCursor<ListIndexesIterable<Document>>
-    {
-        protected MIndexCursor(final ListIndexesIterable<Document> index)
-        {
-            super(index);
+            return super.put(key, value);
         }
-    }
 
-    public static final class MAggregateCursor extends AbstractMCursor<AggregateIterable<Document>>
-    {
-        protected MAggregateCursor(final AggregateIterable<Document> aggreg)
+        @Override
+        public void putAll(final Map<? extends String, ?> map)
         {
-            super(aggreg);
-        }
-    }
+            load();
 
-    public static final class MCursor extends AbstractMCursor<FindIterable<Document>>
-    {
-        protected MCursor(final FindIterable<Document> finder)
-        {
-            super(finder);
-        }
+            m_bound = null;
 
-        public MCursor projection(final MProjection projection)
-        {
-            return new MCursor(self().projection(Objects.requireNonNull(projection)));
+            super.putAll(map);
         }
 
-        public MCursor skip(final int skip)
+        @Override
+        public Object remove(final Object key)
         {
-            return new MCursor(self().skip(Math.max(0, skip)));
-        }
+            load();
 
-        public MCursor limit(final int limit)
-        {
-            return new MCursor(self().limit(Math.max(0, limit)));
-        }
+            m_bound = null;
 
-        public MCursor sort(final Map<String, ?> sort)
-        {
-            return sort(new MSort(Objects.requireNonNull(sort)));
+            return super.remove(key);
         }
 
-        public MCursor sort(final MSort sort)
+        @Override
+        public void clear()
         {
-            return new MCursor(self().sort(Objects.requireNonNull(sort)));
-        }
-    }
+            load();
 
-    @SuppressWarnings("serial")
-    public static final class MSort extends Document
-    {
-        private static final BsonInt32 ORDER_A = new BsonInt32(0 + 1);
+            m_bound = null;
 
-        private static final BsonInt32 ORDER_D = new BsonInt32(0 - 1);
+            super.clear();
+        }
 
-        private MSort()
+        @Override
+        public int size()
         {
+            load();
+
+            return super.size();
         }
 
-        @SuppressWarnings("unchecked")
-        public MSort(final Map<String, ?> map)
+        @Override
+        public boolean isEmpty()
         {
-            super((Map<String, Object>) map);
+            load();
+
+            return super.isEmpty();
         }
 
-        public static final MSort ASCENDING(final String... fields)
+        @Override
+        public boolean containsKey(final Object key)
         {
-            return ASCENDING(Arrays.asList(fields));
+            load();
+
+            return super.containsKey(key);
         }
 
-        public static final MSort ASCENDING(final List<String> fields)
+        @Override
+        public boolean containsValue(final Object value)
         {
-            return ORDER_BY(Objects.requireNonNull(fields), ORDER_A);
+            load();
+
+            return super.containsValue(value);
         }
 
-        public static final MSort DESCENDING(final String... fields)
+        @Override
+        public Object get(final Object key)
         {
-            return DESCENDING(Arrays.asList(fields));
+            load();
+
+            return super.get(key);
         }
 
-        public static final MSort DESCENDING(final List<String> fields)
+        @Override
+        public Set<String> keySet()
         {
-            return ORDER_BY(Objects.requireNonNull(fields), ORDER_D);
+            load();
+
+            return Collections.unmodifiableSet(super.keySet());
         }
 
-        public static final MSort ORDER_BY(final MSort... sorts)
+        @Override
+        public Collection<Object> values()
         {
-            return ORDER_BY(Arrays.asList(sorts));
+            load();
+
+            return Collections.unmodifiableCollection(super.values());
         }
 
-        public static final MSort ORDER_BY(final List<MSort> sorts)
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet()
         {
-            Objects.requireNonNull(sorts);
+            load();
 
-            final MSort sort = new MSort();
+            return Collections.unmodifiableSet(super.entrySet());
+        }
 
-            for (MSort s : sorts)
-            {
-                if (null != s)
-                {
-                    for (String k : s.keySet())
-                    {
-                        if (null != StringOps.toTrimOrNull(k))
-                        {
-                            sort.remove(k);
+        @Override
+        public boolean equals(final Object other)
+        {
+            load();
 
-                            sort.append(k, s.get(k));
-                        }
-                    }
-                }
-                else
-                {
-                    logger.warn("MSort.ORDER_BY(null)");
-                }
-            }
-            return sort;
+            return super.equals(other);
         }
 
-        private static final MSort ORDER_BY(final List<String> fields, final BsonInt32 value)
+        @Override
+        public int hashCode()
         {
-            Objects.requireNonNull(fields);
+            load();
 
-            final MSort sort = new MSort();
+            return super.hashCode();
+        }
 
-            for (String name : fields)
-            {
-                if (null != StringOps.toTrimOrNull(name))
-                {
-                    sort.remove(name);
+        @Override
+        public String toString()
+        {
+            load();
 
-                    sort.append(name, value);
-                }
-            }
-            return sort;
+            return super.toString();
         }
     }
 
-    @SuppressWarnings("serial")
-    public static final class MProjection extends Document
+    private static final class MQuerySlot
     {
-        private static final BsonInt32 INCLUDE_N = new BsonInt32(0);
-
-        private static final BsonInt32 INCLUDE_Y = new BsonInt32(1);
-
-        private MProjection()
-        {
-        }
+        private final String   m_name;
 
-        @SuppressWarnings("unchecked")
-        public MProjection(final Map<String, ?> map)
-        {
-            super(Objects.requireNonNull((Map<String, Object>) map));
-        }
+        private final Object[] m_path;
 
-        private MProjection(final String name, final BsonValue value)
+        private MQuerySlot(final String name, final Object[] path)
         {
-            super(StringOps.requireTrimOrNull(name), value);
-        }
+            m_name = name;
 
-        public static final MProjection INCLUDE(final String... fields)
-        {
-            return INCLUDE(Arrays.asList(fields));
+            m_path = path;
         }
 
-        public static final MProjection INCLUDE(final List<String> fields)
+        private final void bind(final BsonDocument root, final BsonValue value)
         {
-            return COMBINE(Objects.requireNonNull(fields), INCLUDE_Y);
-        }
+            BsonValue parent = root;
 
-        public static final MProjection EXCLUDE(final String... fields)
-        {
-            return EXCLUDE(Arrays.asList(fields));
-        }
+            BsonValue holder = null;
 
-        public static final MProjection EXCLUDE(final List<String> fields)
-        {
-            return COMBINE(Objects.requireNonNull(fields), INCLUDE_N);
-        }
+            for (int i = 0; i < m_path.length - 1; i++)
+            {
+                holder = parent;
 
-        public static final MProjection NO_ID()
-        {
-            return new MProjection("_id", INCLUDE_N);
-        }
+                parent = get(parent, m_path[i]);
+            }
+            final Object last = m_path[m_path.length - 1];
 
-        public static final MProjection FIELDS(final MProjection... projections)
-        {
-            return FIELDS(Arrays.asList(projections));
+            if ((value.isArray()) && (parent.isArray()) && (parent.asArray().size() == 1) && (null != holder))
+            {
+                // IN(name, PARAM(...)) bound to a list replaces the single element array
+                set(holder, m_path[m_path.length - 2], value);
+            }
+            else
+            {
+                set(parent, last, value);
+            }
         }
 
-        public static final MProjection FIELDS(final List<MProjection> projections)
+        private static final BsonValue get(final BsonValue parent, final Object step)
         {
-            final MProjection projection = new MProjection();
-
-            for (MProjection p : projections)
+            if (step instanceof Integer)
             {
-                for (String k : p.keySet())
-                {
-                    if (null != (k = StringOps.toTrimOrNull(k)))
-                    {
-                        projection.remove(k);
-
-                        projection.append(k, p.get(k));
-                    }
-                }
+                return parent.asArray().get((Integer) step);
             }
-            return projection;
+            return parent.asDocument().get((String) step);
         }
 
-        private static final MProjection COMBINE(final List<String> fields, final BsonInt32 value)
+        private static final void set(final BsonValue parent, final Object step, final BsonValue value)
         {
-            final MProjection projection = new MProjection();
-
-            for (String name : fields)
+            if (step instanceof Integer)
             {
-                if (null != (name = StringOps.toTrimOrNull(name)))
-                {
-                    projection.remove(name);
-
-                    projection.append(name, value);
-                }
+                parent.asArray().set((Integer) step, value);
+            }
+            else
+            {
+                parent.asDocument().put((String) step, value);
             }
-            return projection;
         }
     }
 
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import com.ait.tooling.common.api.java.util.StringOps;
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationPipeline;
+import com.ait.tooling.server.mongodb.MongoDB.MCollection;
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences;
+import com.ait.tooling.server.mongodb.MongoDB.MProjection;
+import com.ait.tooling.server.mongodb.MongoDB.MQuery;
+import com.ait.tooling.server.mongodb.support.spring.IMongoDBCollectionOptions;
+import com.ait.tooling.server.mongodb.support.spring.IMongoDBOptions;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ServerAddress;
+import com.mongodb.async.SingleResultCallback;
+import com.mongodb.async.client.AggregateIterable;
+import com.mongodb.async.client.FindIterable;
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoClientSettings;
+import com.mongodb.async.client.MongoClients;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.connection.ClusterConnectionMode;
+import com.mongodb.connection.ClusterSettings;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.connection.ServerSettings;
+import com.mongodb.connection.SocketSettings;
+import com.mongodb.connection.SslSettings;
+import com.mongodb.event.ClusterListener;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.ServerListener;
+import com.mongodb.event.ServerMonitorListener;
+
+public final class MongoDBAsync
+{
+    private final MongoClient                  m_mongo;
+
+    private final String                       m_usedb;
+
+    private final boolean                      m_useid;
+
+    private final Map<String, IMongoDBOptions> m_dbops;
+
+    public MongoDBAsync(final List<ServerAddress> addr, final List<MongoCredential> auth, final MongoClientOptions opts, final boolean repl, final String usedb, final boolean useid, final Map<String, IMongoDBOptions> dbops)
+    {
+        m_useid = useid;
+
+        m_dbops = Objects.requireNonNull(dbops);
+
+        m_usedb = StringOps.requireTrimOrNull(usedb);
+
+        if (addr.isEmpty())
+        {
+            throw new IllegalArgumentException("no ServerAddress");
+        }
+        m_mongo = MongoClients.create(getClientSettings(addr, auth, Objects.requireNonNull(opts), repl));
+    }
+
+    private static final MongoClientSettings getClientSettings(final List<ServerAddress> addr, final List<MongoCredential> auth, final MongoClientOptions opts, final boolean repl)
+    {
+        final int wait = opts.getConnectionsPerHost() * opts.getThreadsAllowedToBlockForConnectionMultiplier();
+
+        final ClusterSettings.Builder cluster = ClusterSettings.builder().hosts(addr).serverSelectionTimeout(opts.getServerSelectionTimeout(), TimeUnit.MILLISECONDS).maxWaitQueueSize(wait);
+
+        if ((addr.size() == 1) && (false == repl))
+        {
+            cluster.mode(ClusterConnectionMode.SINGLE);
+        }
+        else
+        {
+            cluster.mode(ClusterConnectionMode.MULTIPLE);
+        }
+        if (null != opts.getRequiredReplicaSetName())
+        {
+            cluster.requiredReplicaSetName(opts.getRequiredReplicaSetName());
+        }
+        final ConnectionPoolSettings pool = ConnectionPoolSettings.builder().maxSize(opts.getConnectionsPerHost()).minSize(opts.getMinConnectionsPerHost()).maxWaitQueueSize(wait).maxWaitTime(opts.getMaxWaitTime(), TimeUnit.MILLISECONDS).maxConnectionIdleTime(opts.getMaxConnectionIdleTime(), TimeUnit.MILLISECONDS).maxConnectionLifeTime(opts.getMaxConnectionLifeTime(), TimeUnit.MILLISECONDS).build();
+
+        final SocketSettings sock = SocketSettings.builder().connectTimeout(opts.getConnectTimeout(), TimeUnit.MILLISECONDS).readTimeout(opts.getSocketTimeout(), TimeUnit.MILLISECONDS).keepAlive(opts.isSocketKeepAlive()).build();
+
+        final SocketSettings beat = SocketSettings.builder().connectTimeout(opts.getHeartbeatConnectTimeout(), TimeUnit.MILLISECONDS).readTimeout(opts.getHeartbeatSocketTimeout(), TimeUnit.MILLISECONDS).keepAlive(opts.isSocketKeepAlive()).build();
+
+        for (ClusterListener listener : opts.getClusterListeners())
+        {
+            cluster.addClusterListener(listener);
+        }
+        final ServerSettings.Builder serv = ServerSettings.builder().heartbeatFrequency(opts.getHeartbeatFrequency(), TimeUnit.MILLISECONDS).minHeartbeatFrequency(opts.getMinHeartbeatFrequency(), TimeUnit.MILLISECONDS);
+
+        for (ServerListener listener : opts.getServerListeners())
+        {
+            serv.addServerListener(listener);
+        }
+        for (ServerMonitorListener listener : opts.getServerMonitorListeners())
+        {
+            serv.addServerMonitorListener(listener);
+        }
+
+        final MongoClientSettings.Builder builder = MongoClientSettings.builder().clusterSettings(cluster.build()).connectionPoolSettings(pool).socketSettings(sock).heartbeatSocketSettings(beat).serverSettings(serv.build()).sslSettings(SslSettings.builder().enabled(opts.isSslEnabled()).invalidHostNameAllowed(opts.isSslInvalidHostNameAllowed()).build()).readPreference(opts.getReadPreference()).writeConcern(opts.getWriteConcern()).readConcern(opts.getReadConcern()).codecRegistry(opts.getCodecRegistry());
+
+        if ((null != auth) && (false == auth.isEmpty()))
+        {
+            builder.credentialList(auth);
+        }
+        if (null != opts.getApplicationName())
+        {
+            builder.applicationName(opts.getApplicationName());
+        }
+        for (CommandListener listener : opts.getCommandListeners())
+        {
+            builder.addCommandListener(listener);
+        }
+        return builder.build();
+    }
+
+    private static final <T> SingleResultCallback<T> complete(final CompletableFuture<? super T> future)
+    {
+        return new SingleResultCallback<T>()
+        {
+            @Override
+            public void onResult(final T result, final Throwable t)
+            {
+                if (null != t)
+                {
+                    future.completeExceptionally(t);
+                }
+                else
+                {
+                    future.complete(result);
+                }
+            }
+        };
+    }
+
+    public boolean isAddingID()
+    {
+        return m_useid;
+    }
+
+    public void close()
+    {
+        if (null != m_mongo)
+        {
+            m_mongo.close();
+        }
+    }
+
+    public final MAsyncDatabase db(final String name)
+    {
+        return db(StringOps.requireTrimOrNull(name), isAddingID());
+    }
+
+    public final MAsyncDatabase db()
+    {
+        return db(m_usedb, isAddingID());
+    }
+
+    public final MAsyncDatabase db(String name, boolean id)
+    {
+        name = StringOps.requireTrimOrNull(name);
+
+        final IMongoDBOptions op = m_dbops.get(name);
+
+        if (null != op)
+        {
+            id = op.isCreateID();
+        }
+        return new MAsyncDatabase(m_mongo.getDatabase(name), id, op);
+    }
+
+    public static final class MAsyncDatabase
+    {
+        private final MongoDatabase   m_db;
+
+        private final IMongoDBOptions m_op;
+
+        private final boolean         m_id;
+
+        protected MAsyncDatabase(final MongoDatabase db, final boolean id, final IMongoDBOptions op)
+        {
+            m_id = id;
+
+            m_op = op;
+
+            m_db = Objects.requireNonNull(db);
+        }
+
+        public boolean isCreateID()
+        {
+            return m_id;
+        }
+
+        public final String getName()
+        {
+            return m_db.getName();
+        }
+
+        public final CompletableFuture<List<String>> getCollectionNames()
+        {
+            final CompletableFuture<List<String>> future = new CompletableFuture<List<String>>();
+
+            m_db.listCollectionNames().into(new ArrayList<String>(), complete(future));
+
+            return future;
+        }
+
+        public final MAsyncCollection collection(String name)
+        {
+            name = StringOps.requireTrimOrNull(name);
+
+            if (null != m_op)
+            {
+                final IMongoDBCollectionOptions cops = m_op.getCollectionOptions(name);
+
+                if (null != cops)
+                {
+                    return new MAsyncCollection(m_db.getCollection(name), cops.isCreateID(), MCursorPreferences.from(cops));
+                }
+            }
+            return new MAsyncCollection(m_db.getCollection(name), isCreateID());
+        }
+    }
+
+    public static final class MAsyncCollection
+    {
+        private final MongoCollection<Document> m_collection;
+
+        private final boolean                   m_id;
+
+        private final MCursorPreferences        m_cprefs;
+
+        protected MAsyncCollection(final MongoCollection<Document> collection, final boolean id)
+        {
+            this(collection, id, MCursorPreferences.NONE);
+        }
+
+        protected MAsyncCollection(final MongoCollection<Document> collection, final boolean id, final MCursorPreferences cprefs)
+        {
+            m_collection = Objects.requireNonNull(collection);
+
+            m_id = id;
+
+            m_cprefs = Objects.requireNonNull(cprefs);
+        }
+
+        public final MCursorPreferences getCursorPreferences()
+        {
+            return m_cprefs;
+        }
+
+        private final <T> FindIterable<T> withPreferences(final FindIterable<T> iter)
+        {
+            if (m_cprefs.getBatchSize() > 0)
+            {
+                iter.batchSize(m_cprefs.getBatchSize());
+            }
+            if (m_cprefs.getMaxTimeMS() > 0L)
+            {
+                iter.maxTime(m_cprefs.getMaxTimeMS(), TimeUnit.MILLISECONDS);
+            }
+            if (m_cprefs.isNoCursorTimeout())
+            {
+                iter.noCursorTimeout(true);
+            }
+            return iter;
+        }
+
+        private final <T> AggregateIterable<T> withPreferences(final AggregateIterable<T> iter)
+        {
+            if (m_cprefs.getBatchSize() > 0)
+            {
+                iter.batchSize(m_cprefs.getBatchSize());
+            }
+            if (m_cprefs.getMaxTimeMS() > 0L)
+            {
+                iter.maxTime(m_cprefs.getMaxTimeMS(), TimeUnit.MILLISECONDS);
+            }
+            if (m_cprefs.isAllowDiskUse())
+            {
+                iter.allowDiskUse(true);
+            }
+            return iter;
+        }
+
+        public boolean isCreateID()
+        {
+            return m_id;
+        }
+
+        public final String getName()
+        {
+            return m_collection.getNamespace().getCollectionName();
+        }
+
+        @SuppressWarnings("unchecked")
+        public final Map<String, ?> ensureHasID(final Map<String, ?> update)
+        {
+            Objects.requireNonNull(update);
+
+            if (false == MCollection.isValidID(update.get("id")))
+            {
+                ((Map<String, Object>) update).put("id", (new ObjectId()).toString());
+            }
+            return update;
+        }
+
+        public final CompletableFuture<Map<String, ?>> findOne(final Map<String, ?> query)
+        {
+            return findOne(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final CompletableFuture<Map<String, ?>> findOne(final MQuery query)
+        {
+            final CompletableFuture<Map<String, ?>> future = new CompletableFuture<Map<String, ?>>();
+
+            withPreferences(m_collection.find(Objects.requireNonNull(query))).limit(1).projection(MProjection.NO_ID()).first(complete(future));
+
+            return future;
+        }
+
+        public final CompletableFuture<List<Map<String, ?>>> find(final Map<String, ?> query)
+        {
+            return find(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final CompletableFuture<List<Map<String, ?>>> find(final MQuery query)
+        {
+            final CompletableFuture<List<Map<String, ?>>> future = new CompletableFuture<List<Map<String, ?>>>();
+
+            withPreferences(m_collection.find(Objects.requireNonNull(query))).projection(MProjection.NO_ID()).into(new ArrayList<Map<String, ?>>(), complete(future));
+
+            return future;
+        }
+
+        public final CompletableFuture<Long> count()
+        {
+            final CompletableFuture<Long> future = new CompletableFuture<Long>();
+
+            m_collection.count(complete(future));
+
+            return future;
+        }
+
+        public final CompletableFuture<Long> count(final Map<String, ?> query)
+        {
+            return count(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final CompletableFuture<Long> count(final MQuery query)
+        {
+            final CompletableFuture<Long> future = new CompletableFuture<Long>();
+
+            m_collection.count(Objects.requireNonNull(query), complete(future));
+
+            return future;
+        }
+
+        public final CompletableFuture<Map<String, ?>> insertOne(final Map<String, ?> record)
+        {
+            final Map<String, ?> save = (isCreateID() ? ensureHasID(Objects.requireNonNull(record)) : Objects.requireNonNull(record));
+
+            final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+            m_collection.insertOne(new Document(MongoDB.CAST_MAP(save)), complete(future));
+
+            return future.thenApply(result -> save);
+        }
+
+        public final CompletableFuture<Void> insertMany(final List<Map<String, ?>> list)
+        {
+            Objects.requireNonNull(list);
+
+            if (list.isEmpty())
+            {
+                return CompletableFuture.completedFuture(null);
+            }
+            final ArrayList<Document> save = new ArrayList<Document>(list.size());
+
+            for (Map<String, ?> lmap : list)
+            {
+                save.add(new Document(MongoDB.CAST_MAP(isCreateID() ? ensureHasID(lmap) : lmap)));
+            }
+            final CompletableFuture<Void> future = new CompletableFuture<Void>();
+
+            m_collection.insertMany(save, complete(future));
+
+            return future;
+        }
+
+        public final CompletableFuture<Boolean> updateOne(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return updateOne(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final CompletableFuture<Boolean> updateOne(final MQuery query, final Map<String, ?> update)
+        {
+            final CompletableFuture<UpdateResult> future = new CompletableFuture<UpdateResult>();
+
+            m_collection.updateOne(Objects.requireNonNull(query), new Document(MongoDB.CAST_MAP(update)), complete(future));
+
+            return future.thenApply(result -> (result.getModifiedCount() == 1L));
+        }
+
+        public final CompletableFuture<Long> updateMany(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return updateMany(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final CompletableFuture<Long> updateMany(final MQuery query, final Map<String, ?> update)
+        {
+            final CompletableFuture<UpdateResult> future = new CompletableFuture<UpdateResult>();
+
+            m_collection.updateMany(Objects.requireNonNull(query), new Document(MongoDB.CAST_MAP(update)), new UpdateOptions().upsert(false), complete(future));
+
+            return future.thenApply(result -> result.getModifiedCount());
+        }
+
+        public final CompletableFuture<Map<String, ?>> upsert(final Map<String, ?> query, final Map<String, ?> update)
+        {
+            return upsert(new MQuery(Objects.requireNonNull(query)), Objects.requireNonNull(update));
+        }
+
+        public final CompletableFuture<Map<String, ?>> upsert(final MQuery query, final Map<String, ?> update)
+        {
+            final CompletableFuture<UpdateResult> future = new CompletableFuture<UpdateResult>();
+
+            m_collection.updateMany(Objects.requireNonNull(query), new Document(MongoDB.CAST_MAP(update)), new UpdateOptions().upsert(true), complete(future));
+
+            return future.thenApply(result -> update);
+        }
+
+        public final CompletableFuture<Long> deleteOne(final Map<String, ?> query)
+        {
+            return deleteOne(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final CompletableFuture<Long> deleteOne(final MQuery query)
+        {
+            final CompletableFuture<DeleteResult> future = new CompletableFuture<DeleteResult>();
+
+            m_collection.deleteOne(Objects.requireNonNull(query), complete(future));
+
+            return future.thenApply(result -> result.getDeletedCount());
+        }
+
+        public final CompletableFuture<Long> deleteMany(final Map<String, ?> query)
+        {
+            return deleteMany(new MQuery(Objects.requireNonNull(query)));
+        }
+
+        public final CompletableFuture<Long> deleteMany(final MQuery query)
+        {
+            final CompletableFuture<DeleteResult> future = new CompletableFuture<DeleteResult>();
+
+            m_collection.deleteMany(Objects.requireNonNull(query), complete(future));
+
+            return future.thenApply(result -> result.getDeletedCount());
+        }
+
+        public final CompletableFuture<List<Map<String, ?>>> aggregate(final MAggregationPipeline pipeline)
+        {
+            final CompletableFuture<List<Map<String, ?>>> future = new CompletableFuture<List<Map<String, ?>>>();
+
+            withPreferences(m_collection.aggregate(Objects.requireNonNull(pipeline.list()))).into(new ArrayList<Map<String, ?>>(), complete(future));
+
+            return future;
+        }
+    }
+}
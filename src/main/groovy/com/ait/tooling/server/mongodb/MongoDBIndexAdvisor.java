@@ -0,0 +1,638 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.ait.tooling.common.api.java.util.StringOps;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.MongoCollection;
+
+public final class MongoDBIndexAdvisor implements Closeable
+{
+    private static final Logger                          logger           = Logger.getLogger(MongoDBIndexAdvisor.class);
+
+    public static final int                              DEFAULT_SHAPES   = 1000;
+
+    public static final int                              DEFAULT_EXPLAIN  = 20;
+
+    public static final long                             DEFAULT_INTERVAL = 300000L;
+
+    private static final BsonString                      PLACEHOLDER      = new BsonString("?");
+
+    private static final Set<String>                     LOGICAL          = new LinkedHashSet<String>(Arrays.asList("$and", "$or", "$nor"));
+
+    private static final Set<String>                     EQUALITY         = new LinkedHashSet<String>(Arrays.asList("$eq", "$in", "$all", "$elemMatch"));
+
+    private final String                                 m_name;
+
+    private final MongoClient                            m_client;
+
+    private volatile boolean                             m_enabled;
+
+    private volatile int                                 m_maxshapes      = DEFAULT_SHAPES;
+
+    private volatile int                                 m_maxexplain     = DEFAULT_EXPLAIN;
+
+    private volatile List<String>                        m_report         = Collections.emptyList();
+
+    private final AtomicLong                             m_dropped        = new AtomicLong();
+
+    private final ConcurrentHashMap<String, MQueryShape> m_shapes         = new ConcurrentHashMap<String, MQueryShape>();
+
+    private ScheduledExecutorService                     m_timer;
+
+    public MongoDBIndexAdvisor(final String name, final MongoClient client)
+    {
+        m_name = StringOps.requireTrimOrNull(name);
+
+        m_client = Objects.requireNonNull(client);
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public boolean isEnabled()
+    {
+        return m_enabled;
+    }
+
+    public void setEnabled(final boolean enabled)
+    {
+        m_enabled = enabled;
+    }
+
+    public int getMaxShapes()
+    {
+        return m_maxshapes;
+    }
+
+    public void setMaxShapes(final int maxshapes)
+    {
+        m_maxshapes = Math.max(1, maxshapes);
+    }
+
+    public int getMaxExplain()
+    {
+        return m_maxexplain;
+    }
+
+    public void setMaxExplain(final int maxexplain)
+    {
+        m_maxexplain = Math.max(1, maxexplain);
+    }
+
+    public long getDroppedShapes()
+    {
+        return m_dropped.get();
+    }
+
+    public int getShapeCount()
+    {
+        return m_shapes.size();
+    }
+
+    public synchronized void schedule(final long interval)
+    {
+        if (null != m_timer)
+        {
+            m_timer.shutdownNow();
+
+            m_timer = null;
+        }
+        if (interval > 0L)
+        {
+            m_timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "MongoDBIndexAdvisor-" + m_name);
+
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+            m_timer.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (isEnabled())
+                    {
+                        try
+                        {
+                            analyze();
+                        }
+                        catch (Exception e)
+                        {
+                            logger.error("MongoDBIndexAdvisor(" + m_name + ") analyze failed", e);
+                        }
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void record(final MongoNamespace namespace, final CodecRegistry registry, final String op, final Bson filter, final Bson sort, final Bson projection, final long nanos)
+    {
+        if (false == m_enabled)
+        {
+            return;
+        }
+        final BsonDocument bfilter = toBsonDocument(filter, registry);
+
+        final BsonDocument bsort = toBsonDocument(sort, registry);
+
+        final BsonDocument bprojection = toBsonDocument(projection, registry);
+
+        final String key = namespace.getFullName() + " " + op + " " + shape(bfilter).toJson() + " sort " + bsort.toJson() + " fields " + keys(bprojection).toJson();
+
+        MQueryShape shape = m_shapes.get(key);
+
+        if (null == shape)
+        {
+            if (m_shapes.size() >= m_maxshapes)
+            {
+                m_dropped.incrementAndGet();
+
+                return;
+            }
+            shape = m_shapes.computeIfAbsent(key, name -> new MQueryShape(name, namespace, op));
+        }
+        shape.record(bfilter, bsort, bprojection, nanos);
+    }
+
+    private static final BsonDocument toBsonDocument(final Bson bson, final CodecRegistry registry)
+    {
+        if (null == bson)
+        {
+            return new BsonDocument();
+        }
+        return bson.toBsonDocument(Document.class, registry);
+    }
+
+    static final BsonDocument shape(final BsonDocument filter)
+    {
+        final BsonDocument shape = new BsonDocument();
+
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet())
+        {
+            final String name = entry.getKey();
+
+            final BsonValue value = entry.getValue();
+
+            if ((LOGICAL.contains(name)) && (value.isArray()))
+            {
+                final BsonArray list = new BsonArray();
+
+                for (BsonValue item : value.asArray())
+                {
+                    list.add(item.isDocument() ? shape(item.asDocument()) : PLACEHOLDER);
+                }
+                shape.put(name, list);
+            }
+            else if ((value.isDocument()) && (isOperator(value.asDocument())))
+            {
+                final BsonDocument ops = new BsonDocument();
+
+                for (Map.Entry<String, BsonValue> op : value.asDocument().entrySet())
+                {
+                    if (("$not".equals(op.getKey())) && (op.getValue().isDocument()))
+                    {
+                        ops.put(op.getKey(), shape(new BsonDocument("v", op.getValue())).get("v"));
+                    }
+                    else if (("$elemMatch".equals(op.getKey())) && (op.getValue().isDocument()))
+                    {
+                        ops.put(op.getKey(), shape(op.getValue().asDocument()));
+                    }
+                    else
+                    {
+                        ops.put(op.getKey(), PLACEHOLDER);
+                    }
+                }
+                shape.put(name, ops);
+            }
+            else
+            {
+                shape.put(name, PLACEHOLDER);
+            }
+        }
+        return shape;
+    }
+
+    private static final boolean isOperator(final BsonDocument value)
+    {
+        return ((false == value.isEmpty()) && (value.keySet().iterator().next().startsWith("$")));
+    }
+
+    private static final BsonDocument keys(final BsonDocument projection)
+    {
+        final BsonDocument keys = new BsonDocument();
+
+        for (Map.Entry<String, BsonValue> entry : projection.entrySet())
+        {
+            keys.put(entry.getKey(), entry.getValue().isNumber() || entry.getValue().isBoolean() ? entry.getValue() : PLACEHOLDER);
+        }
+        return keys;
+    }
+
+    static final BsonDocument recommend(final BsonDocument filter, final BsonDocument sort)
+    {
+        final LinkedHashMap<String, BsonValue> equality = new LinkedHashMap<String, BsonValue>();
+
+        final LinkedHashMap<String, BsonValue> range = new LinkedHashMap<String, BsonValue>();
+
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet())
+        {
+            final String name = entry.getKey();
+
+            if (name.startsWith("$"))
+            {
+                if ("$and".equals(name) && (entry.getValue().isArray()))
+                {
+                    for (BsonValue item : entry.getValue().asArray())
+                    {
+                        if (item.isDocument())
+                        {
+                            final BsonDocument part = recommend(item.asDocument(), new BsonDocument());
+
+                            for (String key : part.keySet())
+                            {
+                                equality.putIfAbsent(key, new BsonInt32(1));
+                            }
+                        }
+                    }
+                    continue;
+                }
+                return null;// $or, $nor, $text, $where and $expr need a different index design
+            }
+            final BsonValue value = entry.getValue();
+
+            if ((value.isDocument()) && (isOperator(value.asDocument())) && (false == EQUALITY.containsAll(value.asDocument().keySet())))
+            {
+                range.putIfAbsent(name, new BsonInt32(1));
+            }
+            else
+            {
+                equality.putIfAbsent(name, new BsonInt32(1));
+            }
+        }
+        final BsonDocument index = new BsonDocument();
+
+        for (Map.Entry<String, BsonValue> entry : equality.entrySet())
+        {
+            index.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, BsonValue> entry : sort.entrySet())
+        {
+            if (false == index.containsKey(entry.getKey()))
+            {
+                index.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, BsonValue> entry : range.entrySet())
+        {
+            if (false == index.containsKey(entry.getKey()))
+            {
+                index.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return index;
+    }
+
+    static final void stages(final BsonDocument plan, final Set<String> stages, final Set<String> indexes)
+    {
+        if (plan.containsKey("stage"))
+        {
+            stages.add(plan.getString("stage").getValue());
+        }
+        if (plan.containsKey("indexName"))
+        {
+            indexes.add(plan.getString("indexName").getValue());
+        }
+        if ((plan.containsKey("inputStage")) && (plan.get("inputStage").isDocument()))
+        {
+            stages(plan.getDocument("inputStage"), stages, indexes);
+        }
+        if ((plan.containsKey("inputStages")) && (plan.get("inputStages").isArray()))
+        {
+            for (BsonValue item : plan.getArray("inputStages"))
+            {
+                if (item.isDocument())
+                {
+                    stages(item.asDocument(), stages, indexes);
+                }
+            }
+        }
+    }
+
+    public synchronized List<String> analyze()
+    {
+        final ArrayList<MQueryShape> shapes = new ArrayList<MQueryShape>(m_shapes.values());
+
+        Collections.sort(shapes, new Comparator<MQueryShape>()
+        {
+            @Override
+            public int compare(final MQueryShape a, final MQueryShape b)
+            {
+                return Long.compare(b.m_nanos.get(), a.m_nanos.get());
+            }
+        });
+        final ArrayList<String> report = new ArrayList<String>();
+
+        final LinkedHashMap<String, MongoNamespace> spaces = new LinkedHashMap<String, MongoNamespace>();
+
+        for (MQueryShape shape : shapes.subList(0, Math.min(m_maxexplain, shapes.size())))
+        {
+            spaces.put(shape.m_space.getFullName(), shape.m_space);
+
+            try
+            {
+                explain(shape);
+            }
+            catch (Exception e)
+            {
+                shape.m_problem = "EXPLAIN_FAILED " + e.getMessage();
+
+                logger.warn("MongoDBIndexAdvisor(" + m_name + ") explain failed for " + shape.m_name, e);
+            }
+            if (null != shape.m_problem)
+            {
+                report.add(m_name + "/" + shape.toString());
+            }
+        }
+        for (MongoNamespace space : spaces.values())
+        {
+            try
+            {
+                report.addAll(unused(space));
+            }
+            catch (Exception e)
+            {
+                logger.warn("MongoDBIndexAdvisor(" + m_name + ") $indexStats failed for " + space.getFullName(), e);
+            }
+        }
+        m_report = Collections.unmodifiableList(report);
+
+        return m_report;
+    }
+
+    static final BsonDocument command(final String op, final String collection, final BsonDocument filter, final BsonDocument sort, final BsonDocument projection)
+    {
+        if ("aggregate".equals(op))
+        {
+            final BsonArray pipeline = new BsonArray();
+
+            pipeline.add(new BsonDocument("$match", filter));
+
+            if (false == sort.isEmpty())
+            {
+                pipeline.add(new BsonDocument("$sort", sort));
+            }
+            if (false == projection.isEmpty())
+            {
+                pipeline.add(new BsonDocument("$project", projection));
+            }
+            return new BsonDocument("aggregate", new BsonString(collection)).append("pipeline", pipeline).append("explain", BsonBoolean.TRUE);
+        }
+        final BsonDocument command;
+
+        if (op.startsWith("count"))
+        {
+            command = new BsonDocument("count", new BsonString(collection)).append("query", filter);
+        }
+        else
+        {
+            command = new BsonDocument("find", new BsonString(collection)).append("filter", filter);
+
+            if (false == sort.isEmpty())
+            {
+                command.append("sort", sort);
+            }
+            if (false == projection.isEmpty())
+            {
+                command.append("projection", projection);
+            }
+        }
+        return new BsonDocument("explain", command).append("verbosity", new BsonString("queryPlanner"));
+    }
+
+    static final BsonDocument planner(final BsonDocument result)
+    {
+        if (result.containsKey("queryPlanner"))
+        {
+            return result.getDocument("queryPlanner");
+        }
+        // an aggregate explain reports the plan for its leading stages under the first $cursor stage
+        if ((result.containsKey("stages")) && (result.get("stages").isArray()))
+        {
+            for (BsonValue stage : result.getArray("stages"))
+            {
+                if ((stage.isDocument()) && (stage.asDocument().containsKey("$cursor")))
+                {
+                    return stage.asDocument().getDocument("$cursor").getDocument("queryPlanner", new BsonDocument());
+                }
+            }
+        }
+        return new BsonDocument();
+    }
+
+    private final void explain(final MQueryShape shape)
+    {
+        final BsonDocument result = m_client.getDatabase(shape.m_space.getDatabaseName()).runCommand(command(shape.m_op, shape.m_space.getCollectionName(), shape.m_filter, shape.m_sort, shape.m_projection), BsonDocument.class);
+
+        final BsonDocument plan = planner(result).getDocument("winningPlan", new BsonDocument());
+
+        final LinkedHashSet<String> stages = new LinkedHashSet<String>();
+
+        final LinkedHashSet<String> indexes = new LinkedHashSet<String>();
+
+        stages(plan, stages, indexes);
+
+        shape.m_indexes = indexes.toString();
+
+        if ((stages.contains("COLLSCAN")) || (stages.contains("SORT")))
+        {
+            final BsonDocument index = recommend(shape.m_filter, shape.m_sort);
+
+            shape.m_problem = (stages.contains("COLLSCAN") ? "COLLSCAN" : "IN_MEMORY_SORT") + ((null == index) ? "" : " recommend " + index.toJson());
+        }
+        else
+        {
+            shape.m_problem = null;
+        }
+    }
+
+    private final List<String> unused(final MongoNamespace space)
+    {
+        final MongoCollection<BsonDocument> collection = m_client.getDatabase(space.getDatabaseName()).getCollection(space.getCollectionName(), BsonDocument.class);
+
+        final TreeMap<String, Long> usage = new TreeMap<String, Long>();
+
+        for (BsonDocument stat : collection.aggregate(Collections.singletonList(new BsonDocument("$indexStats", new BsonDocument()))))
+        {
+            usage.put(stat.getString("name").getValue(), stat.getDocument("accesses", new BsonDocument()).getNumber("ops", new BsonInt32(0)).longValue());
+        }
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (BsonDocument index : collection.listIndexes(BsonDocument.class))
+        {
+            final String name = index.getString("name").getValue();
+
+            final Long ops = usage.get(name);
+
+            if ((false == "_id_".equals(name)) && (null != ops) && (ops.longValue() == 0L))
+            {
+                list.add(m_name + "/" + space.getFullName() + " UNUSED_INDEX " + name + " " + index.getDocument("key").toJson());
+            }
+        }
+        return list;
+    }
+
+    public List<String> getReport()
+    {
+        return m_report;
+    }
+
+    public List<String> getShapes()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (MQueryShape shape : new TreeMap<String, MQueryShape>(m_shapes).values())
+        {
+            list.add(m_name + "/" + shape.toString());
+        }
+        return list;
+    }
+
+    public void reset()
+    {
+        m_shapes.clear();
+
+        m_dropped.set(0L);
+
+        m_report = Collections.emptyList();
+    }
+
+    @Override
+    public void close()
+    {
+        schedule(0L);
+    }
+
+    private static final class MQueryShape
+    {
+        private final String          m_name;
+
+        private final MongoNamespace  m_space;
+
+        private final String          m_op;
+
+        private final AtomicLong      m_count = new AtomicLong();
+
+        private final AtomicLong      m_nanos = new AtomicLong();
+
+        private volatile BsonDocument m_filter;
+
+        private volatile BsonDocument m_sort;
+
+        private volatile BsonDocument m_projection;
+
+        private volatile String       m_indexes;
+
+        private volatile String       m_problem;
+
+        private MQueryShape(final String name, final MongoNamespace space, final String op)
+        {
+            m_name = name;
+
+            m_space = space;
+
+            m_op = op;
+        }
+
+        private final void record(final BsonDocument filter, final BsonDocument sort, final BsonDocument projection, final long nanos)
+        {
+            m_filter = filter;
+
+            m_sort = sort;
+
+            m_projection = projection;
+
+            m_count.incrementAndGet();
+
+            m_nanos.addAndGet(Math.max(0L, nanos));
+        }
+
+        @Override
+        public String toString()
+        {
+            final TreeMap<String, Object> map = new TreeMap<String, Object>();
+
+            final long count = m_count.get();
+
+            map.put("count", count);
+
+            map.put("meanMicros", TimeUnit.NANOSECONDS.toMicros((count < 1L) ? 0L : (m_nanos.get() / count)));
+
+            map.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(m_nanos.get()));
+
+            if (null != m_indexes)
+            {
+                map.put("indexes", m_indexes);
+            }
+            if (null != m_problem)
+            {
+                map.put("problem", m_problem);
+            }
+            return m_name + " " + map.toString();
+        }
+    }
+}
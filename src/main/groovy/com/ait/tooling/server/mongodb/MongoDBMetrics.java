@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.ait.tooling.common.api.java.util.StringOps;
+import com.mongodb.MongoNamespace;
+
+public final class MongoDBMetrics
+{
+    private final String                                        m_name;
+
+    private volatile boolean                                    m_enabled;
+
+    private volatile MongoDBIndexAdvisor                        m_advisor;
+
+    private final MongoDBSlowLog                                m_slowlog;
+
+    private final ConcurrentHashMap<String, MCollectionMetrics> m_metrics = new ConcurrentHashMap<String, MCollectionMetrics>();
+
+    public MongoDBMetrics(final String name, final boolean enabled)
+    {
+        m_name = StringOps.requireTrimOrNull(name);
+
+        m_enabled = enabled;
+
+        m_slowlog = new MongoDBSlowLog(m_name);
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public boolean isEnabled()
+    {
+        return m_enabled;
+    }
+
+    public void setEnabled(final boolean enabled)
+    {
+        m_enabled = enabled;
+    }
+
+    public MongoDBIndexAdvisor getIndexAdvisor()
+    {
+        return m_advisor;
+    }
+
+    public void setIndexAdvisor(final MongoDBIndexAdvisor advisor)
+    {
+        m_advisor = advisor;
+    }
+
+    public MongoDBSlowLog getSlowLog()
+    {
+        return m_slowlog;
+    }
+
+    final boolean isAdvising()
+    {
+        final MongoDBIndexAdvisor advisor = m_advisor;
+
+        return ((null != advisor) && (advisor.isEnabled()));
+    }
+
+    public MCollectionMetrics collection(final String db, final String name)
+    {
+        return m_metrics.computeIfAbsent(StringOps.requireTrimOrNull(db) + "." + StringOps.requireTrimOrNull(name), key -> new MCollectionMetrics(this, key));
+    }
+
+    public List<MCollectionMetrics> getCollectionMetrics()
+    {
+        return Collections.unmodifiableList(new ArrayList<MCollectionMetrics>(new TreeMap<String, MCollectionMetrics>(m_metrics).values()));
+    }
+
+    public List<String> getLatencyStatistics()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (MCollectionMetrics metrics : getCollectionMetrics())
+        {
+            for (MOperation op : MOperation.values())
+            {
+                final MLatencyHistogram histogram = metrics.getHistogram(op);
+
+                if (histogram.getCount() > 0L)
+                {
+                    list.add(m_name + "/" + metrics.getName() + "/" + op.getName() + " " + histogram.toString());
+                }
+            }
+        }
+        return list;
+    }
+
+    public void reset()
+    {
+        for (MCollectionMetrics metrics : m_metrics.values())
+        {
+            metrics.reset();
+        }
+    }
+
+    public static enum MOperation
+    {
+        FIND("find"), FIND_ONE("findOne"), COUNT("count"), COUNT_ESTIMATED("countEstimated"), COUNT_EXACT("countExact"), COUNT_CACHED("countCached"), INSERT_ONE("insertOne"), INSERT_MANY("insertMany"), UPDATE("update"), UPDATE_ONE("updateOne"), UPDATE_MANY("updateMany"), DELETE_ONE("deleteOne"), DELETE_MANY("deleteMany"), AGGREGATE("aggregate"), DISTINCT("distinct");
+
+        private final String m_name;
+
+        private MOperation(final String name)
+        {
+            m_name = name;
+        }
+
+        public String getName()
+        {
+            return m_name;
+        }
+    }
+
+    public static final class MCollectionMetrics
+    {
+        public static final MCollectionMetrics NONE = new MCollectionMetrics(null, "none");
+
+        private final MongoDBMetrics      m_parent;
+
+        private final String              m_name;
+
+        private final MLatencyHistogram[] m_histo;
+
+        private MCollectionMetrics(final MongoDBMetrics parent, final String name)
+        {
+            m_parent = parent;
+
+            m_name = name;
+
+            m_histo = new MLatencyHistogram[MOperation.values().length];
+
+            for (int i = 0; i < m_histo.length; i++)
+            {
+                m_histo[i] = new MLatencyHistogram();
+            }
+        }
+
+        public String getName()
+        {
+            return m_name;
+        }
+
+        public MLatencyHistogram getHistogram(final MOperation op)
+        {
+            return m_histo[op.ordinal()];
+        }
+
+        public long start()
+        {
+            if ((null == m_parent) || ((false == m_parent.isEnabled()) && (false == m_parent.getSlowLog().isEnabled()) && (false == m_parent.isAdvising())))
+            {
+                return 0L;
+            }
+            return System.nanoTime();
+        }
+
+        public void stop(final MOperation op, final long time)
+        {
+            if ((0L != time) && (m_parent.isEnabled()))
+            {
+                m_histo[op.ordinal()].record(System.nanoTime() - time);
+            }
+        }
+
+        public void error(final MOperation op, final long time)
+        {
+            if ((0L != time) && (m_parent.isEnabled()))
+            {
+                m_histo[op.ordinal()].error();
+            }
+        }
+
+        public <T> T timed(final MOperation op, final Supplier<T> call)
+        {
+            return timed(op, call, null);
+        }
+
+        public <T> T timed(final MOperation op, final Supplier<T> call, final LongConsumer done)
+        {
+            final long time = start();
+
+            try
+            {
+                return call.get();
+            }
+            catch (RuntimeException e)
+            {
+                error(op, time);
+
+                throw e;
+            }
+            finally
+            {
+                stop(op, time);
+
+                if (null != done)
+                {
+                    done.accept(time);
+                }
+            }
+        }
+
+        public void shape(final MongoNamespace namespace, final CodecRegistry registry, final MOperation op, final Bson filter, final Bson sort, final Bson projection, final long time)
+        {
+            shape(namespace, registry, op, filter, sort, projection, null, time);
+        }
+
+        public void shape(final MongoNamespace namespace, final CodecRegistry registry, final MOperation op, final Bson filter, final Bson sort, final Bson projection, final Bson update, final long time)
+        {
+            if (0L != time)
+            {
+                final long nanos = System.nanoTime() - time;
+
+                if (m_parent.isAdvising())
+                {
+                    m_parent.getIndexAdvisor().record(namespace, registry, op.getName(), filter, sort, projection, nanos);
+                }
+                m_parent.getSlowLog().record(namespace, registry, op.getName(), filter, sort, update, nanos);
+            }
+        }
+
+        public void slow(final MongoNamespace namespace, final CodecRegistry registry, final MOperation op, final Bson filter, final long time)
+        {
+            if (0L != time)
+            {
+                m_parent.getSlowLog().record(namespace, registry, op.getName(), filter, null, null, System.nanoTime() - time);
+            }
+        }
+
+        public void reset()
+        {
+            for (MLatencyHistogram histogram : m_histo)
+            {
+                histogram.reset();
+            }
+        }
+    }
+
+    public static final class MLatencyHistogram
+    {
+        private static final int      SUB_BITS = 3;
+
+        private static final int      SUB_SIZE = 1 << SUB_BITS;
+
+        private static final int      BUCKETS  = (64 - SUB_BITS) * SUB_SIZE + SUB_SIZE;
+
+        private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+
+        private final AtomicLong      m_errors = new AtomicLong();
+
+        private final AtomicLong      m_totals = new AtomicLong();
+
+        static final int index(final long nanos)
+        {
+            if (nanos < SUB_SIZE)
+            {
+                return (int) Math.max(0L, nanos);
+            }
+            final int exp = 63 - Long.numberOfLeadingZeros(nanos);
+
+            return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((nanos >>> (exp - SUB_BITS)) & (SUB_SIZE - 1));
+        }
+
+        static final long upper(final int index)
+        {
+            if (index < SUB_SIZE)
+            {
+                return index;
+            }
+            final int exp = (index >> SUB_BITS) + SUB_BITS - 1;
+
+            return ((long) (SUB_SIZE + (index & (SUB_SIZE - 1)) + 1) << (exp - SUB_BITS)) - 1L;
+        }
+
+        public void record(final long nanos)
+        {
+            m_counts.incrementAndGet(index(nanos));
+
+            m_totals.addAndGet(Math.max(0L, nanos));
+        }
+
+        public void error()
+        {
+            m_errors.incrementAndGet();
+        }
+
+        public long getCount()
+        {
+            long count = 0L;
+
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                count += m_counts.get(i);
+            }
+            return count;
+        }
+
+        public long getErrors()
+        {
+            return m_errors.get();
+        }
+
+        public double getErrorRate()
+        {
+            final long count = getCount();
+
+            if (count < 1L)
+            {
+                return 0.0;
+            }
+            return ((double) getErrors()) / count;
+        }
+
+        public long getMeanNanos()
+        {
+            final long count = getCount();
+
+            if (count < 1L)
+            {
+                return 0L;
+            }
+            return m_totals.get() / count;
+        }
+
+        public long getPercentileNanos(final double percentile)
+        {
+            final long[] counts = new long[BUCKETS];
+
+            long total = 0L;
+
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                total += (counts[i] = m_counts.get(i));
+            }
+            if (total < 1L)
+            {
+                return 0L;
+            }
+            final long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * total));
+
+            long seen = 0L;
+
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts[i];
+
+                if (seen >= rank)
+                {
+                    return upper(i);
+                }
+            }
+            return upper(BUCKETS - 1);
+        }
+
+        public void reset()
+        {
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                m_counts.set(i, 0L);
+            }
+            m_errors.set(0L);
+
+            m_totals.set(0L);
+        }
+
+        public Map<String, Object> toMap()
+        {
+            final TreeMap<String, Object> map = new TreeMap<String, Object>();
+
+            map.put("count", getCount());
+
+            map.put("errors", getErrors());
+
+            map.put("errorRate", getErrorRate());
+
+            map.put("meanMicros", TimeUnit.NANOSECONDS.toMicros(getMeanNanos()));
+
+            map.put("p50Micros", TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(50.0)));
+
+            map.put("p99Micros", TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99.0)));
+
+            map.put("p999Micros", TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99.9)));
+
+            return map;
+        }
+
+        @Override
+        public String toString()
+        {
+            return Objects.toString(toMap());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import com.ait.tooling.common.api.java.util.StringOps;
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MLatencyHistogram;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.connection.ConnectionId;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ServerHeartbeatFailedEvent;
+import com.mongodb.event.ServerHeartbeatStartedEvent;
+import com.mongodb.event.ServerHeartbeatSucceededEvent;
+import com.mongodb.event.ServerMonitorListener;
+
+public final class MongoDBMonitor implements CommandListener, ServerMonitorListener
+{
+    private static final Logger                                logger      = Logger.getLogger(MongoDBMonitor.class);
+
+    private static final String                                POOL_MBEANS = "org.mongodb.driver:type=ConnectionPool,*";
+
+    private final String                                       m_name;
+
+    private final Set<String>                                  m_cluster   = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, MLatencyHistogram> m_command   = new ConcurrentHashMap<String, MLatencyHistogram>();
+
+    private final ConcurrentHashMap<String, MLatencyHistogram> m_heartbeat = new ConcurrentHashMap<String, MLatencyHistogram>();
+
+    public MongoDBMonitor(final String name)
+    {
+        m_name = StringOps.requireTrimOrNull(name);
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public MongoClientOptions withMonitoring(final MongoClientOptions opts)
+    {
+        return MongoClientOptions.builder(opts).addCommandListener(this).addServerMonitorListener(this).build();
+    }
+
+    private final void cluster(final ServerId sid)
+    {
+        final String id = sid.getClusterId().getValue();
+
+        if (false == m_cluster.contains(id))
+        {
+            m_cluster.add(id);
+        }
+    }
+
+    private static final MLatencyHistogram histogram(final ConcurrentHashMap<String, MLatencyHistogram> map, final String name)
+    {
+        final MLatencyHistogram histogram = map.get(name);
+
+        if (null != histogram)
+        {
+            return histogram;
+        }
+        return map.computeIfAbsent(name, key -> new MLatencyHistogram());
+    }
+
+    @Override
+    public void commandStarted(final CommandStartedEvent event)
+    {
+    }
+
+    @Override
+    public void commandSucceeded(final CommandSucceededEvent event)
+    {
+        cluster(event.getConnectionDescription().getConnectionId().getServerId());
+
+        histogram(m_command, event.getCommandName()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void commandFailed(final CommandFailedEvent event)
+    {
+        final MLatencyHistogram histogram = histogram(m_command, event.getCommandName());
+
+        histogram.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+
+        histogram.error();
+    }
+
+    @Override
+    public void serverHearbeatStarted(final ServerHeartbeatStartedEvent event)
+    {
+    }
+
+    @Override
+    public void serverHeartbeatSucceeded(final ServerHeartbeatSucceededEvent event)
+    {
+        final ConnectionId cid = event.getConnectionId();
+
+        cluster(cid.getServerId());
+
+        histogram(m_heartbeat, cid.getServerId().getAddress().toString()).record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void serverHeartbeatFailed(final ServerHeartbeatFailedEvent event)
+    {
+        final MLatencyHistogram histogram = histogram(m_heartbeat, event.getConnectionId().getServerId().getAddress().toString());
+
+        histogram.record(event.getElapsedTime(TimeUnit.NANOSECONDS));
+
+        histogram.error();
+
+        logger.warn("MongoDBMonitor(" + m_name + ") heartbeat failed " + event.getConnectionId().getServerId().getAddress(), event.getThrowable());
+    }
+
+    public List<String> getCommandStatistics()
+    {
+        return statistics(m_command);
+    }
+
+    public List<String> getHeartbeatStatistics()
+    {
+        return statistics(m_heartbeat);
+    }
+
+    private final List<String> statistics(final Map<String, MLatencyHistogram> map)
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (Map.Entry<String, MLatencyHistogram> entry : new TreeMap<String, MLatencyHistogram>(map).entrySet())
+        {
+            list.add(m_name + "/" + entry.getKey() + " " + entry.getValue().toString());
+        }
+        return list;
+    }
+
+    public List<String> getPoolStatistics()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        // the 3.4 driver takes no user ConnectionPoolListener, but always registers its own JMXConnectionPoolListener, so read its MBeans for our cluster
+        if (false == m_cluster.isEmpty())
+        {
+            try
+            {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+                for (ObjectName name : server.queryNames(new ObjectName(POOL_MBEANS), null))
+                {
+                    if (m_cluster.contains(name.getKeyProperty("clusterId")))
+                    {
+                        final int size = ((Number) server.getAttribute(name, "Size")).intValue();
+
+                        final int used = ((Number) server.getAttribute(name, "CheckedOutCount")).intValue();
+
+                        final int most = ((Number) server.getAttribute(name, "MaxSize")).intValue();
+
+                        final int wait = ((Number) server.getAttribute(name, "WaitQueueSize")).intValue();
+
+                        list.add(m_name + "/" + server.getAttribute(name, "Host") + ":" + server.getAttribute(name, "Port") + " " + pool(size, used, most, wait));
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                logger.error("MongoDBMonitor(" + m_name + ") error reading connection pool statistics", e);
+            }
+        }
+        return list;
+    }
+
+    private static final String pool(final int size, final int used, final int most, final int wait)
+    {
+        final TreeMap<String, Object> map = new TreeMap<String, Object>();
+
+        map.put("size", size);
+
+        map.put("checkedOut", used);
+
+        map.put("maxSize", most);
+
+        map.put("utilization", (most > 0) ? (((double) used) / most) : 0.0);
+
+        map.put("waitQueueSize", wait);
+
+        return map.toString();
+    }
+
+    public void reset()
+    {
+        for (MLatencyHistogram histogram : m_command.values())
+        {
+            histogram.reset();
+        }
+        for (MLatencyHistogram histogram : m_heartbeat.values())
+        {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.ait.tooling.common.api.java.util.StringOps;
+import com.mongodb.MongoNamespace;
+
+public final class MongoDBSlowLog
+{
+    private static final Logger                   logger            = Logger.getLogger(MongoDBSlowLog.class);
+
+    public static final long                      DEFAULT_THRESHOLD = 100L;
+
+    public static final int                       DEFAULT_SAMPLE    = 10;
+
+    public static final int                       DEFAULT_BUFFER    = 256;
+
+    private static final BsonString               PLACEHOLDER       = new BsonString("?");
+
+    private final String                          m_name;
+
+    private volatile boolean                      m_enabled;
+
+    private volatile long                         m_threshold       = TimeUnit.MILLISECONDS.toNanos(DEFAULT_THRESHOLD);
+
+    private volatile int                          m_sample          = DEFAULT_SAMPLE;
+
+    private volatile int                          m_buffer          = DEFAULT_BUFFER;
+
+    private volatile long                         m_window;
+
+    private final AtomicInteger                   m_taken           = new AtomicInteger();
+
+    private final AtomicLong                      m_suppressed      = new AtomicLong();
+
+    private final ConcurrentHashMap<String, Long> m_limits          = new ConcurrentHashMap<String, Long>();
+
+    private final ArrayDeque<MSlowOperation>      m_entries         = new ArrayDeque<MSlowOperation>();
+
+    public MongoDBSlowLog(final String name)
+    {
+        m_name = StringOps.requireTrimOrNull(name);
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public boolean isEnabled()
+    {
+        return m_enabled;
+    }
+
+    public void setEnabled(final boolean enabled)
+    {
+        m_enabled = enabled;
+    }
+
+    public long getThreshold()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(m_threshold);
+    }
+
+    public void setThreshold(final long millis)
+    {
+        m_threshold = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, millis));
+    }
+
+    public long getThreshold(final String collection)
+    {
+        final Long nanos = m_limits.get(StringOps.requireTrimOrNull(collection));
+
+        if (null == nanos)
+        {
+            return getThreshold();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public void setThreshold(final String collection, final long millis)
+    {
+        m_limits.put(StringOps.requireTrimOrNull(collection), TimeUnit.MILLISECONDS.toNanos(Math.max(0L, millis)));
+    }
+
+    public int getSampleRate()
+    {
+        return m_sample;
+    }
+
+    public void setSampleRate(final int persecond)
+    {
+        m_sample = Math.max(1, persecond);
+    }
+
+    public int getBufferSize()
+    {
+        return m_buffer;
+    }
+
+    public synchronized void setBufferSize(final int size)
+    {
+        m_buffer = Math.max(1, size);
+
+        while (m_entries.size() > m_buffer)
+        {
+            m_entries.removeFirst();
+        }
+    }
+
+    public long getSuppressed()
+    {
+        return m_suppressed.get();
+    }
+
+    public void record(final MongoNamespace namespace, final CodecRegistry registry, final String op, final Bson filter, final Bson sort, final Bson update, final long nanos)
+    {
+        if ((false == m_enabled) || (nanos < limit(namespace)))
+        {
+            return;
+        }
+        if (false == sample())
+        {
+            m_suppressed.incrementAndGet();
+
+            return;
+        }
+        final String text = namespace.getFullName() + " " + op + " " + redact(filter, registry, MRedact.FILTER).toJson() + " sort " + redact(sort, registry, MRedact.SORT).toJson() + " update " + redact(update, registry, MRedact.UPDATE).toJson();
+
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+
+        final MSlowOperation slow = new MSlowOperation(text, System.currentTimeMillis(), nanos);
+
+        synchronized (this)
+        {
+            m_entries.addLast(slow);
+
+            while (m_entries.size() > m_buffer)
+            {
+                m_entries.removeFirst();
+            }
+        }
+        logger.warn("MongoDBSlowLog(" + m_name + ") " + millis + "ms " + text);
+    }
+
+    private final long limit(final MongoNamespace namespace)
+    {
+        if (m_limits.isEmpty())
+        {
+            return m_threshold;
+        }
+        Long nanos = m_limits.get(namespace.getFullName());
+
+        if (null == nanos)
+        {
+            nanos = m_limits.get(namespace.getCollectionName());
+        }
+        return (null == nanos) ? m_threshold : nanos;
+    }
+
+    private final boolean sample()
+    {
+        final long window = System.currentTimeMillis() / 1000L;
+
+        if (window != m_window)
+        {
+            synchronized (m_taken)
+            {
+                if (window != m_window)
+                {
+                    m_taken.set(0);
+
+                    m_window = window;
+                }
+            }
+        }
+        return (m_taken.incrementAndGet() <= m_sample);
+    }
+
+    private static enum MRedact
+    {
+        FILTER, SORT, UPDATE;
+    }
+
+    private static final BsonDocument redact(final Bson bson, final CodecRegistry registry, final MRedact mode)
+    {
+        if (null == bson)
+        {
+            return new BsonDocument();
+        }
+        final BsonDocument document = bson.toBsonDocument(Document.class, registry);
+
+        if (MRedact.FILTER == mode)
+        {
+            return MongoDBIndexAdvisor.shape(document);
+        }
+        return redact(document, (MRedact.SORT == mode));
+    }
+
+    static final BsonDocument redact(final BsonDocument update, final boolean sort)
+    {
+        final BsonDocument shape = new BsonDocument();
+
+        for (Map.Entry<String, BsonValue> entry : update.entrySet())
+        {
+            final BsonValue value = entry.getValue();
+
+            if ((entry.getKey().startsWith("$")) && (value.isDocument()))
+            {
+                final BsonDocument keys = new BsonDocument();
+
+                for (String name : value.asDocument().keySet())
+                {
+                    keys.put(name, PLACEHOLDER);
+                }
+                shape.put(entry.getKey(), keys);
+            }
+            else if ((sort) && (value.isNumber()))
+            {
+                shape.put(entry.getKey(), value);
+            }
+            else
+            {
+                shape.put(entry.getKey(), PLACEHOLDER);
+            }
+        }
+        return shape;
+    }
+
+    public List<String> getSlowOperations()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        synchronized (this)
+        {
+            final Iterator<MSlowOperation> iter = m_entries.descendingIterator();
+
+            while (iter.hasNext())
+            {
+                list.add(m_name + "/" + iter.next().toString());
+            }
+        }
+        return list;
+    }
+
+    public List<String> getTopOffenders(final int limit)
+    {
+        final LinkedHashMap<String, long[]> totals = new LinkedHashMap<String, long[]>();
+
+        synchronized (this)
+        {
+            for (MSlowOperation slow : m_entries)
+            {
+                long[] total = totals.get(slow.m_text);
+
+                if (null == total)
+                {
+                    totals.put(slow.m_text, total = new long[3]);
+                }
+                total[0]++;
+
+                total[1] += slow.m_nanos;
+
+                total[2] = Math.max(total[2], slow.m_nanos);
+            }
+        }
+        final ArrayList<Map.Entry<String, long[]>> sorted = new ArrayList<Map.Entry<String, long[]>>(totals.entrySet());
+
+        Collections.sort(sorted, new Comparator<Map.Entry<String, long[]>>()
+        {
+            @Override
+            public int compare(final Map.Entry<String, long[]> a, final Map.Entry<String, long[]> b)
+            {
+                return Long.compare(b.getValue()[1], a.getValue()[1]);
+            }
+        });
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (Map.Entry<String, long[]> entry : sorted.subList(0, Math.min(Math.max(0, limit), sorted.size())))
+        {
+            final TreeMap<String, Object> map = new TreeMap<String, Object>();
+
+            map.put("count", entry.getValue()[0]);
+
+            map.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(entry.getValue()[1]));
+
+            map.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(entry.getValue()[2]));
+
+            list.add(m_name + "/" + entry.getKey() + " " + map.toString());
+        }
+        return list;
+    }
+
+    public synchronized void reset()
+    {
+        m_entries.clear();
+
+        m_suppressed.set(0L);
+    }
+
+    private static final class MSlowOperation
+    {
+        private final String m_text;
+
+        private final long   m_when;
+
+        private final long   m_nanos;
+
+        private MSlowOperation(final String text, final long when, final long nanos)
+        {
+            m_text = text;
+
+            m_when = when;
+
+            m_nanos = nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return Instant.ofEpochMilli(m_when).toString() + " " + TimeUnit.NANOSECONDS.toMillis(m_nanos) + "ms " + m_text;
+        }
+    }
+}
@@ -19,15 +19,30 @@ package com.ait.tooling.server.mongodb.support
 import groovy.transform.CompileStatic
 import groovy.transform.Memoized
 
+import java.nio.charset.StandardCharsets
+
 import java.util.Map;
 
+import org.bson.Document
+
 import com.ait.tooling.common.api.java.util.StringOps
 import com.ait.tooling.server.core.json.JSONObject
 import com.ait.tooling.server.core.support.CoreGroovySupport
 import com.ait.tooling.server.mongodb.MongoDB
 import com.ait.tooling.server.mongodb.MongoDB.IMCursor
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationBucket
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationCount
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationFacet
 import com.ait.tooling.server.mongodb.MongoDB.MAggregationGroup
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationLimit
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationLookup
 import com.ait.tooling.server.mongodb.MongoDB.MAggregationMatch
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationOut
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationPipeline
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationProject
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationSkip
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationSort
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationUnwind
 import com.ait.tooling.server.mongodb.MongoDB.MCollection
 import com.ait.tooling.server.mongodb.MongoDB.MCollectionPreferences
 import com.ait.tooling.server.mongodb.MongoDB.MDatabase
@@ -41,7 +56,9 @@ import com.ait.tooling.server.mongodb.support.spring.MongoDBContextInstance
 @CompileStatic
 public class MongoDBSupport extends CoreGroovySupport
 {
-    private static final MongoDBSupport INSTANCE = new MongoDBSupport()
+    public static final int             DEFAULT_FLUSH_BATCH = 101
+
+    private static final MongoDBSupport INSTANCE            = new MongoDBSupport()
 
     @Memoized
     public static final MongoDBSupport getMongoDBSupport()
@@ -65,7 +82,6 @@ public class MongoDBSupport extends CoreGroovySupport
         getMongoDBContext().getMongoDBProvider()
     }
 
-    @Memoized
     public MCollection collection(String name) throws Exception
     {
         db().collection(StringOps.requireTrimOrNull(name))
@@ -76,13 +92,11 @@ public class MongoDBSupport extends CoreGroovySupport
         db().collection(StringOps.requireTrimOrNull(name), opts)
     }
 
-    @Memoized
     public MDatabase db(String name) throws Exception
     {
         getMongoDB().db(StringOps.requireTrimOrNull(name))
     }
 
-    @Memoized
     public MDatabase db() throws Exception
     {
         getMongoDB().db()
@@ -117,6 +131,58 @@ public class MongoDBSupport extends CoreGroovySupport
         new JSONObject(list)
     }
 
+    public void json(IMCursor cursor, OutputStream out) throws IOException
+    {
+        json(cursor, out, DEFAULT_FLUSH_BATCH)
+    }
+
+    public void json(IMCursor cursor, OutputStream out, int batch) throws IOException
+    {
+        json(cursor, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)), batch)
+    }
+
+    public void json(IMCursor cursor, Writer out) throws IOException
+    {
+        json(cursor, out, DEFAULT_FLUSH_BATCH)
+    }
+
+    public void json(IMCursor cursor, Writer out, int batch) throws IOException
+    {
+        batch = Math.max(1, batch)
+
+        int size = 0
+
+        try
+        {
+            out.write('[')
+
+            out.flush()
+
+            for (Map map : cursor)
+            {
+                if (size > 0)
+                {
+                    out.write(',')
+                }
+                out.write(new JSONObject(map).toJSONString())
+
+                size++
+
+                if ((size == 1) || ((size % batch) == 0))
+                {
+                    out.flush()
+                }
+            }
+            out.write(']')
+
+            out.flush()
+        }
+        finally
+        {
+            cursor.close()
+        }
+    }
+
     public Map INC(Map args)
     {
         ['$inc': args]
@@ -334,4 +400,74 @@ public class MongoDBSupport extends CoreGroovySupport
     {
         new MAggregationGroup(map)
     }
+
+    public MAggregationProject PROJECT(Map map)
+    {
+        new MAggregationProject(map)
+    }
+
+    public MAggregationSort SORT(Map map)
+    {
+        new MAggregationSort(map)
+    }
+
+    public MAggregationLimit LIMIT(int limit)
+    {
+        new MAggregationLimit(limit)
+    }
+
+    public MAggregationSkip SKIP(int skip)
+    {
+        new MAggregationSkip(skip)
+    }
+
+    public MAggregationUnwind UNWIND(String path)
+    {
+        new MAggregationUnwind(path)
+    }
+
+    public MAggregationUnwind UNWIND(String path, boolean preserve)
+    {
+        new MAggregationUnwind(path, preserve)
+    }
+
+    public MAggregationLookup LOOKUP(String from, String local, String foreign, String into)
+    {
+        new MAggregationLookup(from, local, foreign, into)
+    }
+
+    public MAggregationFacet FACET(Map<String, List<Document>> facets)
+    {
+        new MAggregationFacet(facets)
+    }
+
+    public MAggregationBucket BUCKET(String group, List boundaries)
+    {
+        new MAggregationBucket(group, boundaries)
+    }
+
+    public MAggregationBucket BUCKET(String group, List boundaries, Object defval, Map output)
+    {
+        new MAggregationBucket(group, boundaries, defval, output)
+    }
+
+    public MAggregationCount COUNT(String field)
+    {
+        new MAggregationCount(field)
+    }
+
+    public MAggregationOut OUT(String collection)
+    {
+        new MAggregationOut(collection)
+    }
+
+    public MAggregationPipeline PIPELINE(Document... stages)
+    {
+        new MAggregationPipeline(stages)
+    }
+
+    public MAggregationPipeline PIPELINE(List<Document> stages)
+    {
+        new MAggregationPipeline(stages)
+    }
 }
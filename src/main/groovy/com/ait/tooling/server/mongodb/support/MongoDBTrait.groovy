@@ -22,12 +22,25 @@ import groovy.transform.Memoized
 import java.util.List;
 import java.util.Map;
 
+import org.bson.Document
+
 import com.ait.tooling.common.api.java.util.StringOps
 import com.ait.tooling.server.core.json.JSONObject
 import com.ait.tooling.server.mongodb.MongoDB
 import com.ait.tooling.server.mongodb.MongoDB.IMCursor
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationBucket
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationCount
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationFacet
 import com.ait.tooling.server.mongodb.MongoDB.MAggregationGroup
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationLimit
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationLookup
 import com.ait.tooling.server.mongodb.MongoDB.MAggregationMatch
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationOut
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationPipeline
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationProject
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationSkip
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationSort
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationUnwind
 import com.ait.tooling.server.mongodb.MongoDB.MCollection
 import com.ait.tooling.server.mongodb.MongoDB.MCollectionPreferences
 import com.ait.tooling.server.mongodb.MongoDB.MDatabase
@@ -53,7 +66,6 @@ public trait MongoDBTrait
         getMongoDBContext().getMongoDBProvider()
     }
 
-    @Memoized
     public MCollection collection(String name) throws Exception
     {
         db().collection(StringOps.requireTrimOrNull(name))
@@ -64,13 +76,11 @@ public trait MongoDBTrait
         db().collection(StringOps.requireTrimOrNull(name), opts)
     }
 
-    @Memoized
     public MDatabase db(String name) throws Exception
     {
         getMongoDB().db(StringOps.requireTrimOrNull(name))
     }
 
-    @Memoized
     public MDatabase db() throws Exception
     {
         getMongoDB().db()
@@ -105,6 +115,26 @@ public trait MongoDBTrait
         new JSONObject(list)
     }
 
+    public void json(IMCursor cursor, OutputStream out) throws IOException
+    {
+        MongoDBSupport.getMongoDBSupport().json(cursor, out)
+    }
+
+    public void json(IMCursor cursor, OutputStream out, int batch) throws IOException
+    {
+        MongoDBSupport.getMongoDBSupport().json(cursor, out, batch)
+    }
+
+    public void json(IMCursor cursor, Writer out) throws IOException
+    {
+        MongoDBSupport.getMongoDBSupport().json(cursor, out)
+    }
+
+    public void json(IMCursor cursor, Writer out, int batch) throws IOException
+    {
+        MongoDBSupport.getMongoDBSupport().json(cursor, out, batch)
+    }
+
     public Map INC(Map args)
     {
         ['$inc': args]
@@ -322,4 +352,74 @@ public trait MongoDBTrait
     {
         new MAggregationGroup(map)
     }
+
+    public MAggregationProject PROJECT(Map map)
+    {
+        new MAggregationProject(map)
+    }
+
+    public MAggregationSort SORT(Map map)
+    {
+        new MAggregationSort(map)
+    }
+
+    public MAggregationLimit LIMIT(int limit)
+    {
+        new MAggregationLimit(limit)
+    }
+
+    public MAggregationSkip SKIP(int skip)
+    {
+        new MAggregationSkip(skip)
+    }
+
+    public MAggregationUnwind UNWIND(String path)
+    {
+        new MAggregationUnwind(path)
+    }
+
+    public MAggregationUnwind UNWIND(String path, boolean preserve)
+    {
+        new MAggregationUnwind(path, preserve)
+    }
+
+    public MAggregationLookup LOOKUP(String from, String local, String foreign, String into)
+    {
+        new MAggregationLookup(from, local, foreign, into)
+    }
+
+    public MAggregationFacet FACET(Map<String, List<Document>> facets)
+    {
+        new MAggregationFacet(facets)
+    }
+
+    public MAggregationBucket BUCKET(String group, List boundaries)
+    {
+        new MAggregationBucket(group, boundaries)
+    }
+
+    public MAggregationBucket BUCKET(String group, List boundaries, Object defval, Map output)
+    {
+        new MAggregationBucket(group, boundaries, defval, output)
+    }
+
+    public MAggregationCount COUNT(String field)
+    {
+        new MAggregationCount(field)
+    }
+
+    public MAggregationOut OUT(String collection)
+    {
+        new MAggregationOut(collection)
+    }
+
+    public MAggregationPipeline PIPELINE(Document... stages)
+    {
+        new MAggregationPipeline(stages)
+    }
+
+    public MAggregationPipeline PIPELINE(List<Document> stages)
+    {
+        new MAggregationPipeline(stages)
+    }
 }
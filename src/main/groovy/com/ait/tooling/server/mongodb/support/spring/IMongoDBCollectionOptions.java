@@ -18,4 +18,15 @@ package com.ait.tooling.server.mongodb.support.spring;
 
 public interface IMongoDBCollectionOptions extends IMongoDBConfigurationBase
 {
+    public int getCacheSize();
+
+    public long getCacheTTL();
+
+    public int getBatchSize();
+
+    public long getMaxTimeMS();
+
+    public boolean isNoCursorTimeout();
+
+    public boolean isAllowDiskUse();
 }
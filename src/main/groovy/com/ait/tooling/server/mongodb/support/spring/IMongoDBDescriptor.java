@@ -22,6 +22,8 @@ import java.util.Map;
 
 import com.ait.tooling.common.api.types.IActivatable;
 import com.ait.tooling.server.mongodb.MongoDB;
+import com.ait.tooling.server.mongodb.MongoDBMetrics;
+import com.ait.tooling.server.mongodb.MongoDBMonitor;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCredential;
 import com.mongodb.ServerAddress;
@@ -30,6 +32,16 @@ public interface IMongoDBDescriptor extends IMongoDBConfigurationBase, IActivata
 {
     public MongoDB getMongoDB();
 
+    public boolean isMongoDBCreated();
+
+    public boolean isMongoDBIndexAdvisorEnabled();
+
+    public void setMongoDBIndexAdvisorEnabled(boolean enabled);
+
+    public MongoDBMetrics getMongoDBMetrics();
+
+    public MongoDBMonitor getMongoDBMonitor();
+
     public int getConnectionTimeout();
 
     public int getConnectionMultiplier();
@@ -20,15 +20,51 @@ import com.ait.tooling.common.api.java.util.StringOps;
 
 public class MongoDBCollectionOptions implements IMongoDBCollectionOptions
 {
-    private final boolean m_icid;
+    public static final long DEFAULT_CACHE_TTL = 60000L;
 
-    private final String  m_name;
+    private final boolean    m_icid;
+
+    private final String     m_name;
+
+    private final int        m_size;
+
+    private final long       m_ttl;
+
+    private final int        m_batch;
+
+    private final long       m_maxtime;
+
+    private final boolean    m_notimeout;
+
+    private final boolean    m_diskuse;
 
     public MongoDBCollectionOptions(final String name, final boolean icid)
+    {
+        this(name, icid, 0, DEFAULT_CACHE_TTL);
+    }
+
+    public MongoDBCollectionOptions(final String name, final boolean icid, final int size, final long ttl)
+    {
+        this(name, icid, size, ttl, 0, 0L, false, false);
+    }
+
+    public MongoDBCollectionOptions(final String name, final boolean icid, final int size, final long ttl, final int batch, final long maxtime, final boolean notimeout, final boolean diskuse)
     {
         m_icid = icid;
 
         m_name = StringOps.requireTrimOrNull(name);
+
+        m_size = Math.max(0, size);
+
+        m_ttl = Math.max(1L, ttl);
+
+        m_batch = Math.max(0, batch);
+
+        m_maxtime = Math.max(0L, maxtime);
+
+        m_notimeout = notimeout;
+
+        m_diskuse = diskuse;
     }
 
     @Override
@@ -42,4 +78,40 @@ public class MongoDBCollectionOptions implements IMongoDBCollectionOptions
     {
         return m_icid;
     }
+
+    @Override
+    public int getCacheSize()
+    {
+        return m_size;
+    }
+
+    @Override
+    public long getCacheTTL()
+    {
+        return m_ttl;
+    }
+
+    @Override
+    public int getBatchSize()
+    {
+        return m_batch;
+    }
+
+    @Override
+    public long getMaxTimeMS()
+    {
+        return m_maxtime;
+    }
+
+    @Override
+    public boolean isNoCursorTimeout()
+    {
+        return m_notimeout;
+    }
+
+    @Override
+    public boolean isAllowDiskUse()
+    {
+        return m_diskuse;
+    }
 }
@@ -31,9 +31,23 @@ import com.ait.tooling.common.api.types.Activatable;
 import com.ait.tooling.server.core.support.spring.IPropertiesResolver;
 import com.ait.tooling.server.core.support.spring.ServerContextInstance;
 import com.ait.tooling.server.mongodb.MongoDB;
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationCache;
+import com.ait.tooling.server.mongodb.MongoDB.MCountCache;
+import com.ait.tooling.server.mongodb.MongoDB.MDecimalEncoding;
+import com.ait.tooling.server.mongodb.MongoDB.MNamespaceCache;
+import com.ait.tooling.server.mongodb.MongoDB.MNumericCodecProvider;
+import com.ait.tooling.server.mongodb.MongoDBIndexAdvisor;
+import com.ait.tooling.server.mongodb.MongoDBMetrics;
+import com.ait.tooling.server.mongodb.MongoDBMonitor;
+import com.ait.tooling.server.mongodb.MongoDBSlowLog;
+import com.mongodb.MongoClient;
 import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCredential;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadConcernLevel;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
 
 public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
 {
@@ -43,6 +57,10 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
 
     private MongoDB                                m_mongo_db;
 
+    private MongoDBMetrics                         m_metrics;
+
+    private MongoDBMonitor                         m_monitor;
+
     private boolean                                m_createid = false;
 
     private boolean                                m_replicas = false;
@@ -53,6 +71,22 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
 
     private int                                    m_ctimeout = 10000;
 
+    private int                                    m_handles  = MongoDB.DEFAULT_HANDLE_SIZE;
+
+    private long                                   m_aggbytes = MAggregationCache.DEFAULT_MAX_BYTES;
+
+    private long                                   m_aggttl   = MAggregationCache.DEFAULT_TTL;
+
+    private long                                   m_aggstale = MAggregationCache.DEFAULT_STALE;
+
+    private long                                   m_countttl = MCountCache.DEFAULT_TTL;
+
+    private long                                   m_nsreload = MNamespaceCache.DEFAULT_REFRESH;
+
+    private boolean                                m_advisor  = false;
+
+    private long                                   m_advtimer = MongoDBIndexAdvisor.DEFAULT_INTERVAL;
+
     private String                                 m_defaultd;
 
     private MongoClientOptions                     m_coptions;
@@ -102,10 +136,62 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
 
             setDefaultDB(prop.getPropertyByName(m_baseprop + ".db"));
 
+            m_metrics = new MongoDBMetrics(getName(), Boolean.valueOf(prop.getPropertyByName(m_baseprop + ".metrics.enabled", "true")));
+
+            final MongoDBSlowLog slowlog = m_metrics.getSlowLog();
+
+            slowlog.setEnabled(Boolean.valueOf(prop.getPropertyByName(m_baseprop + ".slowlog.enabled", "false")));
+
+            slowlog.setThreshold(Long.valueOf(prop.getPropertyByName(m_baseprop + ".slowlog.threshold", Long.toString(MongoDBSlowLog.DEFAULT_THRESHOLD))));
+
+            slowlog.setSampleRate(Integer.valueOf(prop.getPropertyByName(m_baseprop + ".slowlog.sample", Integer.toString(MongoDBSlowLog.DEFAULT_SAMPLE))));
+
+            slowlog.setBufferSize(Integer.valueOf(prop.getPropertyByName(m_baseprop + ".slowlog.buffer", Integer.toString(MongoDBSlowLog.DEFAULT_BUFFER))));
+
+            final String slowlist = StringOps.toTrimOrNull(prop.getPropertyByName(m_baseprop + ".slowlog.collections"));
+
+            if (null != slowlist)
+            {
+                for (String name : slowlist.split(","))
+                {
+                    name = StringOps.toTrimOrNull(name);
+
+                    if (null != name)
+                    {
+                        final String limit = StringOps.toTrimOrNull(prop.getPropertyByName(m_baseprop + ".slowlog.collection." + name + ".threshold"));
+
+                        if (null != limit)
+                        {
+                            slowlog.setThreshold(name, Long.valueOf(limit));
+                        }
+                        else
+                        {
+                            logger.warn("MongoDBDescriptor(" + getName() + ") no slowlog threshold for " + name + ", using the descriptor threshold");
+                        }
+                    }
+                }
+            }
+
             setReplicas(Boolean.valueOf(prop.getPropertyByName(m_baseprop + ".replicas", "false")));
 
             setCreateID(Boolean.valueOf(prop.getPropertyByName(m_baseprop + ".createid", "false")));
 
+            setHandleCacheSize(Integer.valueOf(prop.getPropertyByName(m_baseprop + ".handle.cache.size", Integer.toString(getHandleCacheSize()))));
+
+            m_aggbytes = Long.valueOf(prop.getPropertyByName(m_baseprop + ".aggregate.cache.bytes", Long.toString(m_aggbytes)));
+
+            m_aggttl = Long.valueOf(prop.getPropertyByName(m_baseprop + ".aggregate.cache.ttl", Long.toString(m_aggttl)));
+
+            m_aggstale = Long.valueOf(prop.getPropertyByName(m_baseprop + ".aggregate.cache.stale", Long.toString(m_aggstale)));
+
+            m_countttl = Long.valueOf(prop.getPropertyByName(m_baseprop + ".count.cache.ttl", Long.toString(m_countttl)));
+
+            m_nsreload = Long.valueOf(prop.getPropertyByName(m_baseprop + ".namespace.refresh.interval", Long.toString(m_nsreload)));
+
+            m_advisor = Boolean.valueOf(prop.getPropertyByName(m_baseprop + ".advisor.enabled", Boolean.toString(m_advisor)));
+
+            m_advtimer = Long.valueOf(prop.getPropertyByName(m_baseprop + ".advisor.interval", Long.toString(m_advtimer)));
+
             final ArrayList<ServerAddress> addrlist = new ArrayList<ServerAddress>();
 
             for (String name : StringOps.requireTrimOrNull(prop.getPropertyByName(m_baseprop + ".host.list")).split(","))
@@ -151,7 +237,7 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
             }
             if (null == getClientOptions())
             {
-                setClientOptions(MongoClientOptions.builder().connectionsPerHost(getConnectionPoolSize()).threadsAllowedToBlockForConnectionMultiplier(getConnectionMultiplier()).connectTimeout(getConnectionTimeout()).build());
+                setClientOptions(buildClientOptions(prop));
             }
             m_doptions = new LinkedHashMap<String, IMongoDBOptions>();
 
@@ -191,13 +277,25 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
                                     {
                                         final String icid = StringOps.toTrimOrNull(prop.getPropertyByName(base + "." + coln + ".createid"));
 
+                                        final int size = Integer.valueOf(prop.getPropertyByName(base + "." + coln + ".cache.size", "0"));
+
+                                        final long ttl = Long.valueOf(prop.getPropertyByName(base + "." + coln + ".cache.ttl", Long.toString(MongoDBCollectionOptions.DEFAULT_CACHE_TTL)));
+
+                                        final int batch = Integer.valueOf(prop.getPropertyByName(base + "." + coln + ".cursor.batch.size", "0"));
+
+                                        final long maxtime = Long.valueOf(prop.getPropertyByName(base + "." + coln + ".cursor.max.time", "0"));
+
+                                        final boolean notimeout = Boolean.valueOf(prop.getPropertyByName(base + "." + coln + ".cursor.no.timeout", "false"));
+
+                                        final boolean diskuse = Boolean.valueOf(prop.getPropertyByName(base + "." + coln + ".aggregate.allow.disk.use", "false"));
+
                                         if (null != icid)
                                         {
-                                            list.add(new MongoDBCollectionOptions(coln, Boolean.valueOf(icid)));
+                                            list.add(new MongoDBCollectionOptions(coln, Boolean.valueOf(icid), size, ttl, batch, maxtime, notimeout, diskuse));
                                         }
                                         else
                                         {
-                                            list.add(new MongoDBCollectionOptions(coln, doid));
+                                            list.add(new MongoDBCollectionOptions(coln, doid, size, ttl, batch, maxtime, notimeout, diskuse));
                                         }
                                     }
                                 }
@@ -217,6 +315,120 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
         }
     }
 
+    private final MongoClientOptions buildClientOptions(final IPropertiesResolver prop)
+    {
+        Integer ival = getIntegerProperty(prop, "pool.size");
+
+        if (null != ival)
+        {
+            setConnectionPoolSize(ival);
+        }
+        ival = getIntegerProperty(prop, "pool.multiplier");
+
+        if (null != ival)
+        {
+            setConnectionMultiplier(ival);
+        }
+        ival = getIntegerProperty(prop, "connect.timeout");
+
+        if (null != ival)
+        {
+            setConnectionTimeout(ival);
+        }
+        final MongoClientOptions.Builder builder = MongoClientOptions.builder().connectionsPerHost(getConnectionPoolSize()).threadsAllowedToBlockForConnectionMultiplier(getConnectionMultiplier()).connectTimeout(getConnectionTimeout());
+
+        ival = getIntegerProperty(prop, "pool.min.size");
+
+        if (null != ival)
+        {
+            builder.minConnectionsPerHost(ival);
+        }
+        ival = getIntegerProperty(prop, "pool.max.wait");
+
+        if (null != ival)
+        {
+            builder.maxWaitTime(ival);
+        }
+        ival = getIntegerProperty(prop, "pool.max.idle");
+
+        if (null != ival)
+        {
+            builder.maxConnectionIdleTime(ival);
+        }
+        ival = getIntegerProperty(prop, "pool.max.life");
+
+        if (null != ival)
+        {
+            builder.maxConnectionLifeTime(ival);
+        }
+        ival = getIntegerProperty(prop, "socket.timeout");
+
+        if (null != ival)
+        {
+            builder.socketTimeout(ival);
+        }
+        ival = getIntegerProperty(prop, "heartbeat.frequency");
+
+        if (null != ival)
+        {
+            builder.heartbeatFrequency(ival);
+        }
+        ival = getIntegerProperty(prop, "heartbeat.min.frequency");
+
+        if (null != ival)
+        {
+            builder.minHeartbeatFrequency(ival);
+        }
+        ival = getIntegerProperty(prop, "local.threshold");
+
+        if (null != ival)
+        {
+            builder.localThreshold(ival);
+        }
+        ival = getIntegerProperty(prop, "server.selection.timeout");
+
+        if (null != ival)
+        {
+            builder.serverSelectionTimeout(ival);
+        }
+        String sval = StringOps.toTrimOrNull(prop.getPropertyByName(m_baseprop + ".read.preference"));
+
+        if (null != sval)
+        {
+            builder.readPreference(ReadPreference.valueOf(sval));
+        }
+        sval = StringOps.toTrimOrNull(prop.getPropertyByName(m_baseprop + ".read.concern"));
+
+        if (null != sval)
+        {
+            builder.readConcern(new ReadConcern(ReadConcernLevel.fromString(sval)));
+        }
+        sval = StringOps.toTrimOrNull(prop.getPropertyByName(m_baseprop + ".write.concern"));
+
+        if (null != sval)
+        {
+            builder.writeConcern(Objects.requireNonNull(WriteConcern.valueOf(sval), "unknown WriteConcern " + sval));
+        }
+        sval = StringOps.toTrimOrNull(prop.getPropertyByName(m_baseprop + ".decimal.encoding"));
+
+        if (null != sval)
+        {
+            builder.codecRegistry(MNumericCodecProvider.withNumericCodecs(MongoClient.getDefaultCodecRegistry(), MDecimalEncoding.valueOf(sval.toUpperCase())));
+        }
+        return builder.build();
+    }
+
+    private final Integer getIntegerProperty(final IPropertiesResolver prop, final String name)
+    {
+        final String sval = StringOps.toTrimOrNull(prop.getPropertyByName(m_baseprop + "." + name));
+
+        if (null == sval)
+        {
+            return null;
+        }
+        return Integer.valueOf(sval);
+    }
+
     @Override
     public boolean isCreateID()
     {
@@ -253,11 +465,80 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
     {
         if (null == m_mongo_db)
         {
-            m_mongo_db = new MongoDB(getAddresses(), getCredentials(), getClientOptions(), isReplicas(), getDefaultDB(), isCreateID(), getDBOptions());
+            m_mongo_db = new MongoDB(getAddresses(), getCredentials(), getMongoDBMonitor().withMonitoring(getClientOptions()), isReplicas(), getDefaultDB(), isCreateID(), getDBOptions(), getMongoDBMetrics());
+
+            m_mongo_db.setHandleCacheSize(getHandleCacheSize());
+
+            final MAggregationCache aggcache = m_mongo_db.getAggregationCache();
+
+            aggcache.setMaxBytes(m_aggbytes);
+
+            aggcache.setTTL(m_aggttl);
+
+            aggcache.setStale(m_aggstale);
+
+            m_mongo_db.getCountCache().setTTL(m_countttl);
+
+            m_mongo_db.setNamespaceRefreshInterval(m_nsreload);
+
+            if (m_advisor)
+            {
+                m_mongo_db.getIndexAdvisor().setEnabled(true);
+
+                m_mongo_db.getIndexAdvisor().schedule(m_advtimer);
+            }
         }
         return m_mongo_db;
     }
 
+    @Override
+    public synchronized boolean isMongoDBCreated()
+    {
+        return (null != m_mongo_db);
+    }
+
+    @Override
+    public synchronized boolean isMongoDBIndexAdvisorEnabled()
+    {
+        if (null != m_mongo_db)
+        {
+            return m_mongo_db.getIndexAdvisor().isEnabled();
+        }
+        return m_advisor;
+    }
+
+    @Override
+    public synchronized void setMongoDBIndexAdvisorEnabled(final boolean enabled)
+    {
+        // before the client exists only the setting is kept, so a management call never opens a client
+        m_advisor = enabled;
+
+        if (null != m_mongo_db)
+        {
+            m_mongo_db.getIndexAdvisor().setEnabled(enabled);
+        }
+    }
+
+    @Override
+    public synchronized MongoDBMetrics getMongoDBMetrics()
+    {
+        if (null == m_metrics)
+        {
+            m_metrics = new MongoDBMetrics(getName(), true);
+        }
+        return m_metrics;
+    }
+
+    @Override
+    public synchronized MongoDBMonitor getMongoDBMonitor()
+    {
+        if (null == m_monitor)
+        {
+            m_monitor = new MongoDBMonitor(getName());
+        }
+        return m_monitor;
+    }
+
     @Override
     public int getConnectionTimeout()
     {
@@ -276,6 +557,16 @@ public class MongoDBDescriptor extends Activatable implements IMongoDBDescriptor
         return m_poolsize;
     }
 
+    public int getHandleCacheSize()
+    {
+        return m_handles;
+    }
+
+    public void setHandleCacheSize(final int handles)
+    {
+        m_handles = Math.max(0, handles);
+    }
+
     public void setConnectionTimeout(final int timeout)
     {
         m_ctimeout = Math.max(0, timeout);
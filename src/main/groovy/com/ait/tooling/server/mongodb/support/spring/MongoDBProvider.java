@@ -32,6 +32,7 @@ import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.ait.tooling.common.api.java.util.StringOps;
+import com.ait.tooling.server.mongodb.MongoDBSlowLog;
 
 @ManagedResource
 public class MongoDBProvider implements BeanFactoryAware, IMongoDBProvider
@@ -82,6 +83,230 @@ public class MongoDBProvider implements BeanFactoryAware, IMongoDBProvider
         return Collections.unmodifiableList(new ArrayList<IMongoDBDescriptor>(m_descriptors.values()));
     }
 
+    @ManagedAttribute(description = "Get MongoDB operation latency metrics enabled.")
+    public boolean isMongoDBMetricsEnabled()
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            if (descriptor.getMongoDBMetrics().isEnabled())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @ManagedAttribute(description = "Set MongoDB operation latency metrics enabled.")
+    public void setMongoDBMetricsEnabled(final boolean enabled)
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            descriptor.getMongoDBMetrics().setEnabled(enabled);
+        }
+    }
+
+    @ManagedAttribute(description = "Get MongoDB operation latency by descriptor, database, collection and operation.")
+    public List<String> getMongoDBLatencyStatistics()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            list.addAll(descriptor.getMongoDBMetrics().getLatencyStatistics());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedAttribute(description = "Get MongoDB command round trip latency by descriptor and command.")
+    public List<String> getMongoDBCommandStatistics()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            list.addAll(descriptor.getMongoDBMonitor().getCommandStatistics());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedAttribute(description = "Get MongoDB server heartbeat latency by descriptor and server.")
+    public List<String> getMongoDBHeartbeatStatistics()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            list.addAll(descriptor.getMongoDBMonitor().getHeartbeatStatistics());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedAttribute(description = "Get MongoDB connection pool size, utilization and wait queue depth by descriptor and server.")
+    public List<String> getMongoDBPoolStatistics()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            list.addAll(descriptor.getMongoDBMonitor().getPoolStatistics());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedAttribute(description = "Get MongoDB index advisor query shape recording enabled.")
+    public boolean isMongoDBIndexAdvisorEnabled()
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            if (descriptor.isMongoDBIndexAdvisorEnabled())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @ManagedAttribute(description = "Set MongoDB index advisor query shape recording enabled.")
+    public void setMongoDBIndexAdvisorEnabled(final boolean enabled)
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            descriptor.setMongoDBIndexAdvisorEnabled(enabled);
+        }
+    }
+
+    @ManagedAttribute(description = "Get recorded MongoDB query shapes by descriptor, namespace and operation.")
+    public List<String> getMongoDBQueryShapes()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            if (descriptor.isMongoDBCreated())
+            {
+                list.addAll(descriptor.getMongoDB().getIndexAdvisor().getShapes());
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedAttribute(description = "Get the last MongoDB index recommendation report: COLLSCANs, in-memory sorts and unused indexes.")
+    public List<String> getMongoDBIndexRecommendations()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            if (descriptor.isMongoDBCreated())
+            {
+                list.addAll(descriptor.getMongoDB().getIndexAdvisor().getReport());
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedOperation(description = "Explain the top MongoDB query shapes now and rebuild the index recommendation report")
+    public List<String> analyzeMongoDBIndexes()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            if (descriptor.isMongoDBCreated())
+            {
+                list.addAll(descriptor.getMongoDB().getIndexAdvisor().analyze());
+            }
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedAttribute(description = "Get MongoDB slow operation log enabled.")
+    public boolean isMongoDBSlowLogEnabled()
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            if (descriptor.getMongoDBMetrics().getSlowLog().isEnabled())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @ManagedAttribute(description = "Set MongoDB slow operation log enabled.")
+    public void setMongoDBSlowLogEnabled(final boolean enabled)
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            descriptor.getMongoDBMetrics().getSlowLog().setEnabled(enabled);
+        }
+    }
+
+    @ManagedAttribute(description = "Get MongoDB slow operation threshold in milliseconds, the lowest across descriptors.")
+    public long getMongoDBSlowLogThreshold()
+    {
+        long millis = Long.MAX_VALUE;
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            millis = Math.min(millis, descriptor.getMongoDBMetrics().getSlowLog().getThreshold());
+        }
+        return (Long.MAX_VALUE == millis) ? MongoDBSlowLog.DEFAULT_THRESHOLD : millis;
+    }
+
+    @ManagedAttribute(description = "Set MongoDB slow operation threshold in milliseconds.")
+    public void setMongoDBSlowLogThreshold(final long millis)
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            descriptor.getMongoDBMetrics().getSlowLog().setThreshold(millis);
+        }
+    }
+
+    @ManagedAttribute(description = "Get recent MongoDB slow operations with redacted query shapes, newest first.")
+    public List<String> getMongoDBSlowOperations()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            list.addAll(descriptor.getMongoDBMetrics().getSlowLog().getSlowOperations());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedAttribute(description = "Get the top MongoDB slow operation shapes by total time.")
+    public List<String> getMongoDBSlowOffenders()
+    {
+        final ArrayList<String> list = new ArrayList<String>();
+
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            list.addAll(descriptor.getMongoDBMetrics().getSlowLog().getTopOffenders(20));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @ManagedOperation(description = "Clear the MongoDB slow operation log")
+    public void resetMongoDBSlowLog()
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            descriptor.getMongoDBMetrics().getSlowLog().reset();
+        }
+    }
+
+    @ManagedOperation(description = "Reset MongoDB operation latency metrics")
+    public void resetMongoDBMetrics()
+    {
+        for (IMongoDBDescriptor descriptor : m_descriptors.values())
+        {
+            descriptor.getMongoDBMetrics().reset();
+
+            descriptor.getMongoDBMonitor().reset();
+        }
+    }
+
     @Override
     @ManagedOperation(description = "Close all MongoDB Descriptors")
     public void close() throws IOException
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.LongSupplier
+import java.util.function.Supplier
+
+import org.bson.Document
+import org.bson.RawBsonDocument
+
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationCache
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationGroup
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationPipeline
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MCollectionMetrics
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+import com.mongodb.ReadPreference
+import com.mongodb.client.AggregateIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.model.Collation
+
+import spock.lang.Specification
+
+class MAggregationCacheSpecification extends Specification
+{
+    def registry = MongoClient.getDefaultCodecRegistry()
+
+    def calls = new AtomicInteger()
+
+    def collection(RawBsonDocument result)
+    {
+        def aggreg = Mock(AggregateIterable)
+        aggreg.into(_) >> { args -> calls.incrementAndGet(); args[0].add(result); args[0] }
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> registry
+        collect.getNamespace() >> new MongoNamespace("test.sales")
+        collect.aggregate(_, RawBsonDocument) >> aggreg
+        collect
+    }
+
+    def "test cached pipeline is served from cache"()
+    {
+        setup:
+        def cache = new MAggregationCache(1024 * 1024, 60000L, 0L)
+        def mcoll = new MCollection(collection(new RawBsonDocument(new Document(_id: "A", total: 3), registry.get(Document))), false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, cache)
+
+        when:
+        def a = mcoll.aggregate(new MAggregationPipeline(new MAggregationGroup([_id: '$status', total: ['$sum': 1]])).setCached(true)).into([])
+        def b = mcoll.aggregate(new MAggregationPipeline(new MAggregationGroup([_id: '$status', total: ['$sum': 1]])).setCached(true)).into([])
+
+        then:
+        calls.get() == 1
+        a == b
+        b[0]['total'] == 3
+        cache.getHits() == 1L
+        cache.getMisses() == 1L
+        cache.getStatistics().size() == 1
+        cache.getStatistics()[0].startsWith("test.sales/")
+        cache.close()
+    }
+
+    def "test stale result is served while one refresh runs"()
+    {
+        setup:
+        def now = 0L
+        def cache = new MAggregationCache(1024 * 1024, 5L, 60000L, { now } as LongSupplier, { it.run() } as Executor)
+        def mcoll = new MCollection(collection(new RawBsonDocument(new Document(_id: "A"), registry.get(Document))), false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, cache)
+        def pipe = new MAggregationPipeline(new MAggregationGroup([_id: '$status'])).setCached(true)
+
+        when:
+        mcoll.aggregate(pipe).into([])
+        now += TimeUnit.MILLISECONDS.toNanos(10L)
+        def b = mcoll.aggregate(pipe).into([])
+        def c = mcoll.aggregate(pipe).into([])
+
+        then:
+        b[0]['_id'] == "A"
+        c[0]['_id'] == "A"
+        cache.getStaleHits() == 1L
+        cache.getRefreshes() == 1L
+        cache.getHits() == 1L
+        calls.get() == 2
+        cache.close()
+    }
+
+    def "test read settings and cursor options are part of the key and reach the load"()
+    {
+        setup:
+        def cache = new MAggregationCache(1024 * 1024, 60000L, 0L)
+        def result = new RawBsonDocument(new Document(_id: "A"), registry.get(Document))
+        def primary = collection(result)
+        def secondary = collection(result)
+        secondary.getReadPreference() >> ReadPreference.secondary()
+        def aggreg = primary.aggregate([], RawBsonDocument)
+        def pipe = new MAggregationPipeline(new MAggregationGroup([_id: '$status'])).setCached(true)
+
+        when:
+        new MCollection(primary, false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, cache).aggregate(pipe).into([])
+        new MCollection(secondary, false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, cache).aggregate(pipe).into([])
+        new MCollection(primary, false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, cache).aggregate(pipe).batchSize(50).maxTime(2L, TimeUnit.SECONDS).into([])
+
+        then:
+        calls.get() == 3
+        cache.size() == 3
+        1 * aggreg.batchSize(50)
+        1 * aggreg.maxTime(2000L, TimeUnit.MILLISECONDS)
+        cache.close()
+    }
+
+    def "test collation is part of the key"()
+    {
+        setup:
+        def cache = new MAggregationCache(1024 * 1024, 60000L, 0L)
+        def collect = collection(new RawBsonDocument(new Document(_id: "A"), registry.get(Document)))
+        def list = [new Document('$group', [_id: '$status'])]
+
+        when:
+        cache.aggregate(collect, list, MCursorPreferences.NONE, MCollectionMetrics.NONE).into([])
+        cache.aggregate(collect, list, MCursorPreferences.NONE, MCollectionMetrics.NONE).collation(Collation.builder().locale("fr").build()).into([])
+        cache.aggregate(collect, list, MCursorPreferences.NONE, MCollectionMetrics.NONE).collation(Collation.builder().locale("fr").build()).into([])
+
+        then:
+        calls.get() == 2
+        cache.getHits() == 1L
+        cache.close()
+    }
+
+    def "test to collection runs against the server"()
+    {
+        setup:
+        def cache = new MAggregationCache(1024 * 1024, 60000L, 0L)
+        def collect = collection(new RawBsonDocument(new Document(_id: "A"), registry.get(Document)))
+        def aggreg = collect.aggregate([], RawBsonDocument)
+
+        when:
+        cache.aggregate(collect, [new Document('$group', [_id: '$status'])], MCursorPreferences.NONE, MCollectionMetrics.NONE).toCollection()
+
+        then:
+        1 * aggreg.toCollection()
+        cache.close()
+    }
+
+    def "test results larger than the memory bound are not cached"()
+    {
+        setup:
+        def cache = new MAggregationCache(8L, 60000L, 0L)
+        def mcoll = new MCollection(collection(new RawBsonDocument(new Document(_id: "A", name: "some long name"), registry.get(Document))), false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, cache)
+        def pipe = new MAggregationPipeline(new MAggregationGroup([_id: '$status'])).setCached(true)
+
+        when:
+        mcoll.aggregate(pipe).into([])
+        mcoll.aggregate(pipe).into([])
+
+        then:
+        calls.get() == 2
+        cache.size() == 0
+        cache.getBytes() == 0L
+        cache.close()
+    }
+
+    def "test concurrent misses share one load"()
+    {
+        setup:
+        def cache = new MAggregationCache(1024 * 1024, 60000L, 0L)
+        def start = new CountDownLatch(1)
+        def loads = new AtomicInteger()
+        def loader = { ->
+            loads.incrementAndGet()
+            Thread.sleep(200L)
+            [new RawBsonDocument(new Document(_id: "A"), registry.get(Document))]
+        } as Supplier
+        def threads = (1..8).collect { Thread.start { start.await(); cache.get("test.sales/key", loader) } }
+
+        when:
+        start.countDown()
+        threads*.join()
+
+        then:
+        loads.get() == 1
+        cache.getMisses() + cache.getWaits() + cache.getHits() == 8L
+        cache.close()
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.Document
+
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationGroup
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationLimit
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationLookup
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationMatch
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationPipeline
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationProject
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationSkip
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationSort
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationUnwind
+
+import spock.lang.Specification
+
+class MAggregationPipelineSpecification extends Specification
+{
+    def "test stage builders"()
+    {
+        expect:
+        new MAggregationUnwind("tags") == new Document('$unwind', '$tags')
+        new MAggregationUnwind('$tags', true) == new Document('$unwind', new Document(path: '$tags', preserveNullAndEmptyArrays: true))
+        new MAggregationLimit(1) == new Document('$limit', 1)
+        new MAggregationLookup("users", "uid", "_id", "user")['$lookup'] == new Document(from: "users", localField: "uid", foreignField: "_id", as: "user")
+    }
+
+    def "test limit must be positive"()
+    {
+        when:
+        new MAggregationLimit(0)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "test optimizer is opt in"()
+    {
+        setup:
+        def pipe = new MAggregationPipeline(new MAggregationMatch([a: 1]), new MAggregationMatch([b: 2]))
+
+        expect:
+        false == pipe.isOptimize()
+        pipe.list().size() == 2
+        pipe.setOptimize(true).list().size() == 1
+        pipe.getOptimizedStages() == pipe.list()
+    }
+
+    def "test adjacent match limit and skip are merged"()
+    {
+        setup:
+        def pipe = new MAggregationPipeline(new MAggregationMatch([a: 1]), new MAggregationMatch([b: 2]), new MAggregationSkip(5), new MAggregationSkip(5), new MAggregationLimit(20), new MAggregationLimit(10))
+
+        when:
+        def list = pipe.getOptimizedStages()
+
+        then:
+        list.size() == 3
+        list[0] == new Document('$match', new Document('$and', [[a: 1], [b: 2]]))
+        list[1] == new Document('$skip', 10L)
+        list[2] == new Document('$limit', 10L)
+    }
+
+    def "test match and limit move ahead of project and unwind"()
+    {
+        setup:
+        def pipe = new MAggregationPipeline(new MAggregationProject([name: 1, tags: 1]), new MAggregationUnwind("tags"), new MAggregationMatch([name: "Dean"]), new MAggregationLimit(5))
+
+        when:
+        def list = pipe.getOptimizedStages()
+
+        then:
+        list.collect { it.keySet().first() } == ['$match', '$project', '$unwind', '$limit']
+    }
+
+    def "test match is kept behind computed project and its unwind"()
+    {
+        setup:
+        def pipe = new MAggregationPipeline(new MAggregationProject([name: '$first']), new MAggregationMatch([name: "Dean"]), new MAggregationUnwind("tags"), new MAggregationMatch([tags: "x"]))
+
+        when:
+        def list = pipe.getOptimizedStages()
+
+        then:
+        list.collect { it.keySet().first() } == ['$project', '$match', '$unwind', '$match']
+    }
+
+    def "test unused fields are dropped before group"()
+    {
+        setup:
+        def pipe = new MAggregationPipeline(new MAggregationMatch([status: "A"]), new MAggregationSort([date: -1]), new MAggregationUnwind("items"), new MAggregationGroup([_id: '$items.sku', total: ['$sum': '$qty']]))
+
+        when:
+        def list = pipe.getOptimizedStages()
+
+        then:
+        list.collect { it.keySet().first() } == ['$match', '$sort', '$project', '$unwind', '$group']
+        list[2]['$project'] == new Document(_id: 0, status: 1, date: 1, items: 1, qty: 1)
+    }
+
+    def "test root references disable field trimming"()
+    {
+        setup:
+        def pipe = new MAggregationPipeline(new MAggregationMatch([status: "A"]), new MAggregationGroup([_id: '$status', docs: ['$push': '$$ROOT']]))
+        def path = new MAggregationPipeline(new MAggregationMatch([a: 1]), new MAggregationGroup([_id: '$$ROOT.b']))
+        def list = path.getOptimizedStages()
+
+        expect:
+        pipe.getOptimizedStages().size() == 2
+        pipe.setOptimize(false).getStages().size() == 2
+        list.size() == 3
+        list[1].get('$project') == [_id: 0, a: 1, b: 1]
+    }
+}
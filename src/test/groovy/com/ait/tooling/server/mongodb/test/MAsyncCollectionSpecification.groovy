@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+import org.bson.Document
+
+import com.ait.tooling.server.mongodb.MongoDB.MAggregationPipeline
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDBAsync
+import com.ait.tooling.server.mongodb.MongoDBAsync.MAsyncCollection
+import com.ait.tooling.server.mongodb.MongoDBMonitor
+import com.mongodb.MongoClientOptions
+import com.mongodb.MongoException
+import com.mongodb.ServerAddress
+import com.mongodb.async.client.AggregateIterable
+import com.mongodb.async.client.FindIterable
+import com.mongodb.async.client.MongoCollection
+import com.mongodb.event.ClusterListener
+import com.mongodb.event.ServerListener
+
+import spock.lang.Specification
+
+class MAsyncCollectionSpecification extends Specification
+{
+    def "test async client settings keep monitoring listeners"()
+    {
+        setup:
+        def monitor = new MongoDBMonitor("test")
+        def cluster = Mock(ClusterListener)
+        def server = Mock(ServerListener)
+        def opts = MongoClientOptions.builder(monitor.withMonitoring(MongoClientOptions.builder().build())).addClusterListener(cluster).addServerListener(server).build()
+
+        when:
+        def settings = MongoDBAsync.getClientSettings([new ServerAddress("localhost")], [], opts, false)
+
+        then:
+        settings.getCommandListeners().contains(monitor)
+        settings.getServerSettings().getServerMonitorListeners().contains(monitor)
+        settings.getServerSettings().getServerListeners().contains(server)
+        settings.getClusterSettings().getClusterListeners().contains(cluster)
+    }
+
+    def "test async findOne completes with the document or the error"()
+    {
+        setup:
+        def found = new Document("name", "Dean")
+        def iterable = Mock(FindIterable)
+        iterable.limit(_) >> iterable
+        iterable.projection(_) >> iterable
+        def collect = Mock(MongoCollection)
+        collect.find(_) >> iterable
+        def mcoll = new MAsyncCollection(collect, false)
+
+        when:
+        def result = mcoll.findOne([name: "Dean"]).get()
+
+        then:
+        1 * iterable.first(_) >> { args -> args[0].onResult(found, null) }
+        result.is(found)
+
+        when:
+        mcoll.findOne([name: "Dean"]).get()
+
+        then:
+        1 * iterable.first(_) >> { args -> args[0].onResult(null, new MongoException("down")) }
+        def e = thrown(ExecutionException)
+        e.getCause() instanceof MongoException
+    }
+
+    def "test async collection applies cursor preferences"()
+    {
+        setup:
+        def iterable = Mock(FindIterable)
+        iterable.projection(_) >> iterable
+        def aggreg = Mock(AggregateIterable)
+        def collect = Mock(MongoCollection)
+        collect.find(_) >> iterable
+        collect.aggregate(_) >> aggreg
+        def mcoll = new MAsyncCollection(collect, false, new MCursorPreferences(500, 2000L, true, true))
+
+        when:
+        mcoll.find([name: "Dean"])
+        mcoll.aggregate(new MAggregationPipeline([new Document('$match', [name: "Dean"])]))
+
+        then:
+        1 * iterable.batchSize(500)
+        1 * iterable.maxTime(2000L, TimeUnit.MILLISECONDS)
+        1 * iterable.noCursorTimeout(true)
+        1 * aggreg.batchSize(500)
+        1 * aggreg.maxTime(2000L, TimeUnit.MILLISECONDS)
+        1 * aggreg.allowDiskUse(true)
+    }
+}
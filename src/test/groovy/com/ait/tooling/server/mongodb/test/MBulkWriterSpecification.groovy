@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.RawBsonDocument
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.mongodb.MongoClient
+import com.mongodb.MongoException
+import com.mongodb.MongoNamespace
+import com.mongodb.bulk.BulkWriteResult
+import com.mongodb.client.MongoCollection
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class MBulkWriterSpecification extends Specification
+{
+    def collection(MongoCollection rawcol)
+    {
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.getNamespace() >> new MongoNamespace("test", "people")
+        collect.withDocumentClass(RawBsonDocument) >> rawcol
+        new MCollection(collect, false)
+    }
+
+    def "test ordered writer stops after a failed batch"()
+    {
+        setup:
+        def rawcol = Mock(MongoCollection)
+        def writer = collection(rawcol).bulk(true, 2, 1024L * 1024L, 0L)
+        def results = []
+        writer.setResultHandler({ results << it })
+
+        when:
+        writer.insert([name: "a"]).insert([name: "b"])
+
+        then:
+        1 * rawcol.bulkWrite(_, _) >> { throw new MongoException("duplicate key") }
+        results.size() == 1
+        false == results[0].isSuccess()
+        writer.isStopped()
+
+        when:
+        writer.insert([name: "c"])
+
+        then:
+        thrown(IllegalStateException)
+        0 * rawcol.bulkWrite(_, _)
+    }
+
+    def "test unordered writer keeps sending after a failed batch"()
+    {
+        setup:
+        def rawcol = Mock(MongoCollection)
+        def writer = collection(rawcol).bulk(false, 1, 1024L * 1024L, 0L)
+        writer.setResultHandler({})
+
+        when:
+        writer.insert([name: "a"])
+        writer.insert([name: "b"])
+
+        then:
+        1 * rawcol.bulkWrite(_, _) >> { throw new MongoException("duplicate key") }
+        1 * rawcol.bulkWrite(_, _) >> BulkWriteResult.acknowledged(1, 0, 0, 0, [])
+        false == writer.isStopped()
+    }
+
+    def "test each writer owns its flush timer and close stops it"()
+    {
+        setup:
+        def rawcol = Mock(MongoCollection)
+        rawcol.bulkWrite(_, _) >> BulkWriteResult.acknowledged(1, 0, 0, 0, [])
+        def slow = collection(Mock(MongoCollection) { bulkWrite(_, _) >> { Thread.sleep(500L); BulkWriteResult.acknowledged(1, 0, 0, 0, []) } }).bulk(false, 100, 1024L * 1024L, 10L)
+        def fast = collection(rawcol).bulk(false, 100, 1024L * 1024L, 10L)
+        def conditions = new PollingConditions(timeout: 2)
+
+        when:
+        slow.insert([name: "slow"])
+        fast.insert([name: "fast"])
+
+        then:
+        conditions.eventually {
+            assert fast.getQueueSize() == 0
+        }
+        false == fast.@m_timer.is(slow.@m_timer)
+
+        when:
+        fast.close()
+        slow.close()
+
+        then:
+        fast.@m_timer.isShutdown()
+        slow.@m_timer.isShutdown()
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import static com.ait.tooling.server.mongodb.MongoDB.MPreparedQuery.PARAM
+import static com.ait.tooling.server.mongodb.MongoDB.MQuery.EQ
+
+import java.util.concurrent.TimeUnit
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MCountCache
+import com.ait.tooling.server.mongodb.MongoDB.MCountMode
+import com.ait.tooling.server.mongodb.MongoDB.MCountOptions
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDB.MPreparedQuery
+import com.ait.tooling.server.mongodb.MongoDBMetrics
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MOperation
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.model.CountOptions
+
+import spock.lang.Specification
+
+class MCountModeSpecification extends Specification
+{
+    def metrics = new MongoDBMetrics("test", true).collection("test", "users")
+
+    def collect = Mock(MongoCollection)
+
+    def setup()
+    {
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.getNamespace() >> new MongoNamespace("test.users")
+    }
+
+    def "test exact count passes hint limit and max time"()
+    {
+        setup:
+        def mcoll = new MCollection(collect, false, null, metrics, new MCursorPreferences(0, 500L, false, false), null, new MCountCache())
+        CountOptions seen = null
+
+        when:
+        def count = mcoll.count([status: "A"], new MCountOptions(MCountMode.EXACT).hint("status_1").limit(100))
+
+        then:
+        1 * collect.count(_, _) >> { args -> seen = args[1]; 42L }
+        count == 42L
+        seen.getHintString() == "status_1"
+        seen.getLimit() == 100
+        seen.getMaxTime(TimeUnit.MILLISECONDS) == 500L
+        metrics.getHistogram(MOperation.COUNT_EXACT).getCount() == 1L
+    }
+
+    def "test estimated count rejects a query"()
+    {
+        setup:
+        def mcoll = new MCollection(collect, false, null, metrics, MCursorPreferences.NONE, null, new MCountCache())
+
+        when:
+        def count = mcoll.count(MCountMode.ESTIMATED)
+
+        then:
+        1 * collect.count(_, _) >> 7L
+        count == 7L
+        metrics.getHistogram(MOperation.COUNT_ESTIMATED).getCount() == 1L
+
+        when:
+        mcoll.count([status: "A"], MCountMode.ESTIMATED)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "test cached count is shared per query shape"()
+    {
+        setup:
+        def cache = new MCountCache(16, 60000L)
+        def mcoll = new MCollection(collect, false, null, metrics, MCursorPreferences.NONE, null, cache)
+
+        when:
+        def a = mcoll.count([status: "A"], MCountMode.CACHED)
+        def b = mcoll.count([status: "A"], MCountMode.CACHED)
+        def c = mcoll.count([status: "B"], MCountMode.CACHED)
+
+        then:
+        2 * collect.count(_, _) >>> [3L, 5L]
+        a == 3L
+        b == 3L
+        c == 5L
+        cache.getHits() == 1L
+        cache.getMisses() == 2L
+        metrics.getHistogram(MOperation.COUNT_CACHED).getCount() == 3L
+        metrics.getHistogram(MOperation.COUNT_EXACT).getCount() == 2L
+    }
+
+    def "test cached count keys bindings of one prepared query apart"()
+    {
+        setup:
+        def cache = new MCountCache(16, 60000L)
+        def mcoll = new MCollection(collect, false, null, metrics, MCursorPreferences.NONE, null, cache)
+        def prepared = MPreparedQuery.PREPARE(EQ("status", PARAM("status")))
+
+        when:
+        def a = mcoll.count(prepared.bind([status: "A"]), new MCountOptions(MCountMode.CACHED))
+        def b = mcoll.count(prepared.bind([status: "B"]), new MCountOptions(MCountMode.CACHED))
+        def c = mcoll.count(prepared.bind([status: "A"]), new MCountOptions(MCountMode.CACHED))
+
+        then:
+        2 * collect.count(_, _) >>> [3L, 5L]
+        a == 3L
+        b == 5L
+        c == 3L
+        cache.getHits() == 1L
+        cache.size() == 2
+
+        when:
+        mcoll.count(prepared.bind([status: "A"]), new MCountOptions(MCountMode.ESTIMATED))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import com.ait.tooling.server.mongodb.MongoDB.IMCursor
+import com.ait.tooling.server.mongodb.support.MongoDBSupport
+
+import spock.lang.Specification
+
+class MCursorJSONSpecification extends Specification
+{
+    def "test json streaming flushes the array start and first document early"()
+    {
+        setup:
+        def writes = 0
+        def flushes = []
+        def out = new Writer() {
+            void write(char[] buf, int off, int len)
+            {
+                writes++
+            }
+
+            void flush()
+            {
+                flushes << writes
+            }
+
+            void close()
+            {
+            }
+        }
+        def docs = (1..5).collect { [n: it] }.iterator()
+        def closed = false
+        IMCursor cursor
+        cursor = [hasNext: { docs.hasNext() }, next: { docs.next() }, iterator: { cursor }, close: { closed = true }, into: { it }] as IMCursor
+
+        when:
+        MongoDBSupport.getMongoDBSupport().json(cursor, out, 2)
+
+        then:
+        flushes[0] == 1
+        flushes[1] == 2
+        flushes.size() == 5
+        closed
+    }
+}
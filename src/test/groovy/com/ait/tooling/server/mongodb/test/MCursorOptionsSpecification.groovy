@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.util.concurrent.TimeUnit
+
+import org.bson.Document
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MCollectionMetrics
+import com.mongodb.client.AggregateIterable
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+
+import spock.lang.Specification
+
+class MCursorOptionsSpecification extends Specification
+{
+    def "test collection cursor defaults and cursor overrides"()
+    {
+        setup:
+        def finder = Mock(FindIterable)
+        def aggreg = Mock(AggregateIterable)
+        def collect = Mock(MongoCollection)
+        collect.find(_) >> finder
+        collect.aggregate(_) >> aggreg
+        finder.projection(_) >> finder
+        def mcoll = new MCollection(collect, false, null, MCollectionMetrics.NONE, new MCursorPreferences(500, 2000L, true, true))
+
+        when:
+        mcoll.find([name: "Dean"]).batchSize(50).hint([name: 1])
+        mcoll.aggregate([new Document('$match', [name: "Dean"])]).maxTime(5L, TimeUnit.SECONDS)
+
+        then:
+        1 * finder.batchSize(500)
+        1 * finder.maxTime(2000L, TimeUnit.MILLISECONDS)
+        1 * finder.noCursorTimeout(true)
+        1 * finder.batchSize(50)
+        1 * finder.modifiers(new Document('$hint', new Document([name: 1])))
+        1 * aggreg.batchSize(500)
+        1 * aggreg.allowDiskUse(true)
+        1 * aggreg.maxTime(2000L, TimeUnit.MILLISECONDS)
+        1 * aggreg.maxTime(5L, TimeUnit.SECONDS)
+    }
+}
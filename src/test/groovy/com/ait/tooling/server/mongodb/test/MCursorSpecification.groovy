@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.Document
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MSort
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.MongoCursor
+
+import spock.lang.Specification
+
+class MCursorSpecification extends Specification
+{
+    def "test chained find opens one cursor"()
+    {
+        setup:
+        def cursor = Mock(MongoCursor)
+        def finder = Mock(FindIterable)
+        def collect = Mock(MongoCollection)
+        collect.find(_) >> finder
+        finder.projection(_) >> finder
+        finder.sort(_) >> finder
+        finder.skip(_) >> finder
+        finder.limit(_) >> finder
+        cursor.hasNext() >>> [true, false]
+        cursor.next() >> new Document([name: "Dean"])
+
+        when:
+        def list = []
+        for (Map map : new MCollection(collect, false).find([:]).sort(MSort.ASCENDING("name")).skip(100).limit(20))
+        {
+            list << map
+        }
+
+        then:
+        1 * finder.iterator() >> cursor
+        1 * cursor.close()
+        list.size() == 1
+        list[0]['name'] == "Dean"
+    }
+
+    def "test chained find into sends one query"()
+    {
+        setup:
+        def finder = Mock(FindIterable)
+        def collect = Mock(MongoCollection)
+        collect.find(_) >> finder
+        finder.projection(_) >> finder
+        finder.sort(_) >> finder
+        finder.skip(_) >> finder
+        finder.limit(_) >> finder
+
+        when:
+        new MCollection(collect, false).find([:]).sort(MSort.ASCENDING("name")).skip(100).limit(20).into([])
+
+        then:
+        1 * finder.into(_) >> []
+        0 * finder.iterator()
+    }
+
+    def "test options after open"()
+    {
+        setup:
+        def cursor = Mock(MongoCursor)
+        def finder = Mock(FindIterable)
+        def collect = Mock(MongoCollection)
+        collect.find(_) >> finder
+        finder.projection(_) >> finder
+        finder.iterator() >> cursor
+        cursor.hasNext() >> true
+
+        when:
+        def find = new MCollection(collect, false).find([:])
+        find.hasNext()
+        find.limit(20)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "test next after close"()
+    {
+        setup:
+        def cursor = Mock(MongoCursor)
+        def finder = Mock(FindIterable)
+        def collect = Mock(MongoCollection)
+        collect.find(_) >> finder
+        finder.projection(_) >> finder
+        cursor.hasNext() >> false
+
+        when:
+        def find = new MCollection(collect, false).find([:])
+        def more = find.hasNext()
+        find.next()
+
+        then:
+        1 * finder.iterator() >> cursor
+        1 * cursor.close()
+        false == more
+        thrown(NoSuchElementException)
+
+        when:
+        find.remove()
+
+        then:
+        0 * finder.iterator()
+        thrown(IllegalStateException)
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.Document
+import org.bson.RawBsonDocument
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MFindOneCache
+import com.ait.tooling.server.mongodb.MongoDB.MRawDocument
+import com.mongodb.MongoClient
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.result.UpdateResult
+
+import spock.lang.Specification
+
+class MFindOneCacheSpecification extends Specification
+{
+    def "test findOne cache hit miss and invalidation"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def finder = Mock(FindIterable)
+        def rawcol = Mock(MongoCollection)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> registry
+        collect.withDocumentClass(RawBsonDocument) >> rawcol
+        collect.updateOne(_, _) >> UpdateResult.acknowledged(1L, 1L, null)
+        rawcol.find(_) >> finder
+        finder.limit(_) >> finder
+        finder.projection(_) >> finder
+        def cache = new MFindOneCache(10, 60000L)
+        def mcoll = new MCollection(collect, false, cache)
+
+        when:
+        def a = mcoll.findOne([name: "Dean"])
+        def b = mcoll.findOne([name: "Dean"])
+        mcoll.updateOne([name: "Dean"], ['$set': [age: 2]])
+        def c = mcoll.findOne([name: "Dean"])
+
+        then:
+        2 * finder.first() >> new RawBsonDocument(new Document([name: "Dean"]), registry.get(Document))
+        a['name'] == "Dean"
+        b['name'] == "Dean"
+        c['name'] == "Dean"
+        cache.getHits() == 1L
+        cache.getMisses() == 2L
+    }
+
+    def "test raw handle shares the findOne cache"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def finder = Mock(FindIterable)
+        def rawcol = Mock(MongoCollection)
+        def rawreads = Mock(MongoCollection)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> registry
+        collect.withCodecRegistry(_) >> { args ->
+            rawreads.getCodecRegistry() >> args[0]
+            rawreads
+        }
+        collect.withDocumentClass(RawBsonDocument) >> rawcol
+        collect.updateOne(_, _) >> UpdateResult.acknowledged(1L, 1L, null)
+        rawreads.withDocumentClass(RawBsonDocument) >> rawcol
+        rawcol.find(_) >> finder
+        finder.limit(_) >> finder
+        finder.projection(_) >> finder
+        def cache = new MFindOneCache(10, 60000L)
+        def mcoll = new MCollection(collect, false, cache)
+        def raw = mcoll.raw()
+
+        when:
+        def a = raw.findOne([name: "Dean"])
+        def b = raw.findOne([name: "Dean"])
+        mcoll.updateOne([name: "Dean"], ['$set': [age: 2]])
+        def c = raw.findOne([name: "Dean"])
+
+        then:
+        2 * finder.first() >> new RawBsonDocument(new Document([name: "Dean"]), registry.get(Document))
+        raw.getFindOneCache().is(cache)
+        a instanceof MRawDocument
+        a['name'] == "Dean"
+        b['name'] == "Dean"
+        c['name'] == "Dean"
+        cache.getHits() == 1L
+        cache.getMisses() == 2L
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.BsonDocument
+import org.bson.Document
+import org.bson.types.ObjectId
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MSort
+import com.mongodb.MongoClient
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+
+import spock.lang.Specification
+
+class MKeysetPageSpecification extends Specification
+{
+    def "test keyset page token and range filter"()
+    {
+        setup:
+        def oid = new ObjectId()
+        def docs = [new Document([_id: new ObjectId(), name: "A", age: 20]), new Document([_id: oid, name: "B", age: 30]), new Document([_id: new ObjectId(), name: "C", age: 30])]
+        def filters = []
+        def sorts = []
+        def finder = Mock(FindIterable)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.find(_) >> { args -> filters << args[0]; finder }
+        finder.sort(_) >> { args -> sorts << args[0]; finder }
+        finder.limit(_) >> finder
+        finder.into(_) >> { args -> args[0].addAll(docs); args[0] }
+        def mcoll = new MCollection(collect, false)
+
+        when:
+        def page = mcoll.page([:], MSort.ASCENDING("age"), 2, null)
+        mcoll.page([:], MSort.ASCENDING("age"), 2, page.getNextToken())
+
+        then:
+        page.size() == 2
+        page.hasMore()
+        page.getItems()*.get("name") == ["A", "B"]
+        page.getItems().every({ false == it.containsKey("_id") })
+        sorts[0] == new Document([age: 1, _id: 1])
+        filters[0] == new BsonDocument()
+        filters[1] == BsonDocument.parse('{ "$or" : [{ "age" : { "$gt" : 30 } }, { "age" : 30, "_id" : { "$gt" : { "$oid" : "' + oid.toHexString() + '" } } }] }')
+    }
+
+    def "test keyset page rejects token from another sort"()
+    {
+        setup:
+        def finder = Mock(FindIterable)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.find(_) >> finder
+        finder.sort(_) >> finder
+        finder.limit(_) >> finder
+        finder.into(_) >> { args -> args[0].addAll([new Document([_id: 1, age: 1]), new Document([_id: 2, age: 2])]); args[0] }
+        def mcoll = new MCollection(collect, false)
+        def token = mcoll.page([:], MSort.ASCENDING("age"), 1, null).getNextToken()
+
+        when:
+        mcoll.page([:], MSort.DESCENDING("age"), 1, token)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "test keyset page strips sort keys added to the projection"()
+    {
+        setup:
+        def docs = [new Document([_id: 1, name: "A", age: 20, address: [city: "X"]]), new Document([_id: 2, name: "B", age: 30, address: [city: "Y"]])]
+        def projections = []
+        def sorts = []
+        def finder = Mock(FindIterable)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.find(_) >> finder
+        finder.sort(_) >> { args -> sorts << args[0]; finder }
+        finder.limit(_) >> finder
+        finder.projection(_) >> { args -> projections << args[0]; finder }
+        finder.into(_) >> { args -> args[0].addAll(docs); args[0] }
+        def mcoll = new MCollection(collect, false)
+
+        when:
+        def page = mcoll.page([:], [name: 1], new MSort([age: 1, "address.city": 1]), 1, null)
+
+        then:
+        page.hasMore()
+        page.getItems() == [[name: "A"]]
+        projections[0] == new Document([name: 1, age: 1, "address.city": 1, _id: 1])
+        sorts.size() == 1
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.BsonDocument
+import org.bson.BsonDocumentReader
+import org.bson.Document
+import org.bson.RawBsonDocument
+import org.bson.codecs.DecoderContext
+import org.bson.types.ObjectId
+
+import com.ait.tooling.server.core.json.JSONArray
+import com.ait.tooling.server.core.json.JSONObject
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MMapCodec
+import com.ait.tooling.server.mongodb.MongoDB.MMapCodecProvider
+import com.mongodb.BasicDBObject
+import com.mongodb.MongoClient
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.result.UpdateResult
+
+import spock.lang.Specification
+
+class MMapCodecSpecification extends Specification
+{
+    def "test map codec matches document codec"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def codec = MMapCodecProvider.getMapCodec(registry)
+        def json = new JSONObject()
+        def list = new JSONArray()
+        list.add(1)
+        list.add(new JSONObject([name: "Bob", when: new Date(0L)]))
+        json.put("id", new ObjectId().toString())
+        json.put("name", "Dean")
+        json.put("age", 51L)
+        json.put("rate", 1.5d)
+        json.put("ok", true)
+        json.put("none", null)
+        json.put("list", list)
+        json.put("nest", [a: [b: "c"]])
+
+        expect:
+        codec instanceof MMapCodec
+        MMapCodecProvider.withMapCodec(MMapCodecProvider.withMapCodec(registry)).get(Map) instanceof MMapCodec
+        new RawBsonDocument(json, codec) == new RawBsonDocument(new Document(json), registry.get(Document))
+    }
+
+    def "test map codec leaves concrete map classes to the registry"()
+    {
+        setup:
+        def registry = MMapCodecProvider.withMapCodec(MongoClient.getDefaultCodecRegistry())
+        def codec = registry.get(BasicDBObject)
+
+        when:
+        def copy = codec.decode(new BsonDocumentReader(BsonDocument.parse('{ "name" : "Dean" }')), DecoderContext.builder().build())
+
+        then:
+        false == (codec instanceof MMapCodec)
+        copy instanceof BasicDBObject
+        copy.get("name") == "Dean"
+    }
+
+    def "test update passes map without copy"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> registry
+        def mcoll = new MCollection(collect, false)
+        def update = new JSONObject(['$set': [age: 2]])
+        def bson = null
+
+        when:
+        mcoll.updateOne([name: "Dean"], update)
+
+        then:
+        1 * collect.updateOne(_, _) >> { args ->
+            bson = args[1]
+            UpdateResult.acknowledged(1L, 1L, null)
+        }
+        false == (bson instanceof Document)
+        bson.toBsonDocument(Document, registry) == BsonDocument.parse('{ "$set" : { "age" : 2 } }')
+    }
+}
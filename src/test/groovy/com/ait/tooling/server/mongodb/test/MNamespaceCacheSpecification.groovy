@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.Document
+import org.bson.RawBsonDocument
+
+import com.ait.tooling.server.mongodb.MongoDB
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MCountCache
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDB.MNamespaceCache
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MCollectionMetrics
+import com.mongodb.MongoClient
+import com.mongodb.MongoClientOptions
+import com.mongodb.MongoNamespace
+import com.mongodb.ServerAddress
+import com.mongodb.client.ListCollectionsIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.MongoCursor
+import com.mongodb.client.MongoDatabase
+
+import spock.lang.Specification
+
+class MNamespaceCacheSpecification extends Specification
+{
+    def registry = MongoClient.getDefaultCodecRegistry()
+
+    def database(List<String> names)
+    {
+        def listed = Mock(ListCollectionsIterable)
+        listed.iterator() >> {
+            def iter = names.collect { new RawBsonDocument(new Document(name: it, type: "collection"), registry.get(Document)) }.iterator()
+            [hasNext: { iter.hasNext() }, next: { iter.next() }, close: {}] as MongoCursor
+        }
+        def db = Mock(MongoDatabase)
+        db.listCollections(RawBsonDocument) >> listed
+        db
+    }
+
+    def "test existence checks are served from one listing"()
+    {
+        setup:
+        def names = ["users", "orders"]
+        def cache = new MNamespaceCache(database(names), 60000L)
+
+        expect:
+        cache.contains("users")
+        cache.contains("orders")
+        false == cache.contains("missing")
+        cache.getNames() as Set == names as Set
+        cache.getLoads() == 1L
+    }
+
+    def "test refresh interval reloads the listing"()
+    {
+        setup:
+        def names = ["users"]
+        def cache = new MNamespaceCache(database(names), 0L)
+
+        when:
+        def a = cache.contains("orders")
+        names << "orders"
+        Thread.sleep(1L)
+        def b = cache.contains("orders")
+
+        then:
+        false == a
+        b
+        cache.getLoads() == 2L
+    }
+
+    def "test collection create and drop update the registry"()
+    {
+        setup:
+        def cache = new MNamespaceCache(database(["users"]), 60000L)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> registry
+        collect.getNamespace() >> new MongoNamespace("test.orders")
+        collect.createIndex(_, _) >> "status_1"
+        def mcoll = new MCollection(collect, false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, null, new MCountCache(), cache)
+
+        when:
+        def a = cache.contains("orders")
+        mcoll.createIndex([status: 1])
+        def b = cache.contains("orders")
+        mcoll.drop()
+        def c = cache.contains("orders")
+
+        then:
+        false == a
+        b
+        false == c
+        cache.getLoads() == 1L
+    }
+
+    def "test database handles share one registry"()
+    {
+        setup:
+        def mongo = new MongoDB([new ServerAddress("localhost", 27017)], [], MongoClientOptions.builder().build(), false, "test", false, [:])
+        def field = MongoDB.getDeclaredField("m_mongo")
+        field.setAccessible(true)
+        def real = field.get(mongo)
+        def database = database(["users"])
+        database.getName() >> "x"
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> registry
+        collect.getNamespace() >> new MongoNamespace("x.orders")
+        database.getCollection("orders") >> collect
+        def client = Mock(MongoClient)
+        client.getDatabase("x") >> database
+        field.set(mongo, client)
+        real.close()
+
+        when:
+        def a = mongo.db("x", true).isCollection("orders")
+        mongo.db("x").createCollection("orders")
+        def b = mongo.db("x", true).isCollection("orders")
+        def c = mongo.db(" x ").getNamespaceCache().is(mongo.db("x", false).getNamespaceCache())
+        def loads = mongo.db("x").getNamespaceCache().getLoads()
+        mongo.close()
+
+        then:
+        false == a
+        b
+        c
+        loads == 1L
+    }
+}
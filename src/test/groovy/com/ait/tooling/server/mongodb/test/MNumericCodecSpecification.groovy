@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.BsonType
+import org.bson.RawBsonDocument
+import org.bson.types.Decimal128
+
+import com.ait.tooling.server.mongodb.MongoDB.MDecimalEncoding
+import com.ait.tooling.server.mongodb.MongoDB.MMapCodecProvider
+import com.ait.tooling.server.mongodb.MongoDB.MNumericCodecProvider
+import com.mongodb.MongoClient
+
+import spock.lang.Specification
+
+class MNumericCodecSpecification extends Specification
+{
+    def "test decimal128 encoding keeps precision"()
+    {
+        setup:
+        def registry = MMapCodecProvider.withMapCodec(MNumericCodecProvider.withNumericCodecs(MongoClient.getDefaultCodecRegistry(), MDecimalEncoding.DECIMAL128))
+        def raw = new RawBsonDocument([price: new BigDecimal("12345678901234567890.0123456789"), small: BigInteger.TEN, large: new BigInteger("123456789012345678901234567890")], MMapCodecProvider.getMapCodec(registry))
+
+        expect:
+        raw.get("price").getBsonType() == BsonType.DECIMAL128
+        raw.get("price").asDecimal128().getValue() == new Decimal128(new BigDecimal("12345678901234567890.0123456789"))
+        raw.get("small").getBsonType() == BsonType.INT64
+        raw.get("large").asDecimal128().getValue().bigDecimalValue().toBigInteger() == new BigInteger("123456789012345678901234567890")
+    }
+
+    def "test double encoding and registry precedence"()
+    {
+        setup:
+        def dbl = MNumericCodecProvider.withNumericCodecs(MongoClient.getDefaultCodecRegistry(), MDecimalEncoding.DOUBLE)
+        def registry = MMapCodecProvider.withMapCodec(MNumericCodecProvider.withNumericCodecs(dbl, MDecimalEncoding.DECIMAL128))
+        def raw = new RawBsonDocument([price: new BigDecimal("1.25")], MMapCodecProvider.getMapCodec(registry))
+
+        expect:
+        raw.get("price").getBsonType() == BsonType.DOUBLE
+        raw.get("price").asDouble().getValue() == 1.25d
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.BsonDocument
+import org.bson.BsonInt32
+import org.bson.BsonInt64
+import org.bson.BsonObjectId
+import org.bson.BsonString
+import org.bson.Document
+import org.bson.types.ObjectId
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MCountCache
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDBMetrics
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MOperation
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+import com.mongodb.client.AggregateIterable
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.MongoCursor
+
+import spock.lang.Specification
+
+class MParallelFindSpecification extends Specification
+{
+    static MongoCursor cursor(final List list)
+    {
+        def iter = list.iterator()
+        [hasNext: { iter.hasNext() }, next: { iter.next() }, close: {}] as MongoCursor
+    }
+
+    def collection(final List ids, final List filters)
+    {
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.getNamespace() >> new MongoNamespace("test", "people")
+        collect.aggregate(_, BsonDocument) >> Stub(AggregateIterable) {
+            iterator() >> { cursor(ids.collect { new BsonDocument("_id", it) }) }
+        }
+        collect.find(_) >> { args ->
+            filters << args[0].toBsonDocument(Document, MongoClient.getDefaultCodecRegistry())
+            def found = Stub(FindIterable)
+            found.projection(_) >> found
+            found.iterator() >> { cursor([new Document("n", 1)]) }
+            found
+        }
+        new MCollection(collect, false)
+    }
+
+    def "test parallel find adds a partition for other _id types"()
+    {
+        setup:
+        def ids = (1..40).collect { new BsonInt32(it) }
+        def filters = Collections.synchronizedList([])
+        def mcoll = collection(ids, filters)
+
+        when:
+        def result = mcoll.findParallel([:], 4, 2, {})
+
+        then:
+        result.getPartitions().size() == 5
+        result.getCount() == 5L
+        filters.size() == 5
+        filters.find { it.toJson().contains('$not') }.toJson().contains('"$type" : "number"')
+        filters.findAll { it.toJson().contains('$gte') || it.toJson().contains('$lt') }.size() == 4
+    }
+
+    def "test parallel find reads mixed _id types as one partition"()
+    {
+        setup:
+        def ids = (1..20).collect { new BsonInt64(it) } + (1..20).collect { new BsonString("k" + it) }
+        def filters = Collections.synchronizedList([])
+        def mcoll = collection(ids, filters)
+
+        when:
+        def result = mcoll.findParallel([:], 4, 2, {})
+
+        then:
+        result.getPartitions().size() == 1
+        filters == [new BsonDocument()]
+    }
+
+    def "test parallel find excludes the ObjectId type from the other partition"()
+    {
+        setup:
+        def ids = (1..40).collect { new BsonObjectId(new ObjectId()) }.sort { it.getValue() }
+        def filters = Collections.synchronizedList([])
+        def mcoll = collection(ids, filters)
+
+        when:
+        mcoll.findParallel([:], 2, 1, {})
+
+        then:
+        filters.size() == 3
+        filters.find { it.toJson().contains('$not') }.toJson().contains('"$type" : 7')
+    }
+
+    def "test parallel find partitions use cursor preferences, metrics and the connection bound"()
+    {
+        setup:
+        def ids = (1..40).collect { new BsonInt32(it) }
+        def batches = Collections.synchronizedList([])
+        def threads = Collections.synchronizedSet(new HashSet())
+        def metrics = new MongoDBMetrics("test", true).collection("test", "people")
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.getNamespace() >> new MongoNamespace("test", "people")
+        collect.aggregate(_, BsonDocument) >> Stub(AggregateIterable) {
+            iterator() >> { cursor(ids.collect { new BsonDocument("_id", it) }) }
+        }
+        collect.find(_) >> { args ->
+            def found = Stub(FindIterable)
+            found.projection(_) >> found
+            found.batchSize(_) >> { batch -> batches << batch[0]; found }
+            found.iterator() >> { cursor([new Document("n", 1)]) }
+            found
+        }
+        def mcoll = new MCollection(collect, false, null, metrics, new MCursorPreferences(500, 0L, false, false), null, new MCountCache(), null, null, 1)
+
+        when:
+        def result = mcoll.findParallel([:], 4, 4, { threads << Thread.currentThread().getName() })
+
+        then:
+        result.getCount() == 5L
+        batches == [500] * 5
+        metrics.getHistogram(MOperation.FIND).getCount() == 5L
+        threads.size() == 1
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import static com.ait.tooling.server.mongodb.MongoDB.MPreparedQuery.PARAM
+import static com.ait.tooling.server.mongodb.MongoDB.MQuery.AND
+import static com.ait.tooling.server.mongodb.MongoDB.MQuery.EQ
+import static com.ait.tooling.server.mongodb.MongoDB.MQuery.IN
+
+import org.bson.BsonDocument
+import org.bson.BsonDocumentReader
+import org.bson.BsonDocumentWriter
+import org.bson.Document
+import org.bson.codecs.DecoderContext
+import org.bson.codecs.EncoderContext
+import org.bson.codecs.configuration.CodecRegistries
+
+import com.ait.tooling.server.mongodb.MongoDB
+import com.ait.tooling.server.mongodb.MongoDB.MPreparedQuery
+import com.ait.tooling.server.mongodb.MongoDB.MQueryParameter
+import com.mongodb.MongoClient
+
+import spock.lang.Specification
+
+class MPreparedQuerySpecification extends Specification
+{
+    def "test prepared query bind and shape key"()
+    {
+        setup:
+        def prepared = MPreparedQuery.PREPARE(AND(EQ("status", PARAM("status")), IN("age", PARAM("ages"))))
+        def registry = MongoClient.getDefaultCodecRegistry()
+
+        when:
+        def a = prepared.bind([status: "A", ages: [30, 40]]).toBsonDocument(Document, registry)
+        def b = AND(EQ("status", "B"), IN("age", [50])).toBsonDocument(Document, registry)
+        def c = prepared.bind([status: "B", ages: [50]]).toBsonDocument(Document, registry)
+
+        then:
+        a == BsonDocument.parse('{ "status" : "A", "age" : { "$in" : [30, 40] } }')
+        b == c
+        prepared.getParameterNames() == ["status", "ages"]
+        MPreparedQuery.PREPARE([status: PARAM("x"), age: ['$in': [PARAM("y")]]]).getShapeKey() == MPreparedQuery.PREPARE([status: PARAM("x"), age: ['$in': [PARAM("y")]]]).getShapeKey()
+    }
+
+    def "test prepared query missing parameter"()
+    {
+        when:
+        MPreparedQuery.PREPARE([status: PARAM("status")]).bind([:])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "test bound query holds the rendered filter"()
+    {
+        setup:
+        def prepared = MPreparedQuery.PREPARE(AND(EQ("status", PARAM("status")), IN("age", PARAM("ages"))))
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def bound = prepared.bind([status: "A", ages: [30, 40]])
+        def writer = new BsonDocumentWriter(new BsonDocument())
+
+        when:
+        registry.get(Document).encode(writer, bound, EncoderContext.builder().build())
+
+        then:
+        false == bound.isEmpty()
+        bound.get("status") == "A"
+        bound.get("age") == ['$in': [30, 40]]
+        writer.getDocument() == bound.toBsonDocument(Document, registry)
+        false == bound.isModified()
+
+        when:
+        bound.put("status", "B")
+
+        then:
+        bound.isModified()
+        bound.toBsonDocument(Document, registry) == BsonDocument.parse('{ "status" : "B", "age" : { "$in" : [30, 40] } }')
+
+        when:
+        bound.keySet().remove("age")
+
+        then:
+        thrown(UnsupportedOperationException)
+    }
+
+    def "test bound query decodes lazily and binds decimals"()
+    {
+        setup:
+        def prepared = MPreparedQuery.PREPARE(AND(EQ("status", PARAM("status")), EQ("price", PARAM("price"))))
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def bound = prepared.bind([status: "A", price: new BigDecimal("12.50")])
+
+        when:
+        def json = bound.toBsonDocument(Document, registry).toJson()
+
+        then:
+        json.contains('"$numberDecimal" : "12.50"')
+        false == bound.@m_loaded
+
+        when:
+        def status = bound.get("status")
+
+        then:
+        status == "A"
+        bound.@m_loaded
+        false == bound.isModified()
+    }
+
+    def "test query parameter codec round trip"()
+    {
+        setup:
+        def document = new BsonDocument()
+        def registry = CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(MongoDB.MQueryParameterCodec.newInstance()), MongoClient.getDefaultCodecRegistry())
+
+        when:
+        registry.get(Document).encode(new BsonDocumentWriter(document), new Document("p", PARAM("name")), EncoderContext.builder().build())
+        def reader = new BsonDocumentReader(document)
+        reader.readStartDocument()
+        reader.readName()
+        def param = registry.get(MQueryParameter).decode(reader, DecoderContext.builder().build())
+
+        then:
+        param.getName() == "name"
+    }
+}
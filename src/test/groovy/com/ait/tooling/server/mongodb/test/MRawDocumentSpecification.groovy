@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.Document
+import org.bson.RawBsonDocument
+
+import com.ait.tooling.server.mongodb.MongoDB.MRawDocument
+import com.mongodb.MongoClient
+
+import spock.lang.Specification
+
+class MRawDocumentSpecification extends Specification
+{
+    def registry = MongoClient.getDefaultCodecRegistry()
+
+    def raw(Map map)
+    {
+        new MRawDocument(new RawBsonDocument(new Document(map), registry.get(Document)), registry.get(Document))
+    }
+
+    def "test fields decode lazily one at a time"()
+    {
+        setup:
+        def doc = raw([name: "Dean", age: 52, address: [city: "Boston"], tags: [[k: 1], "x"]])
+
+        when:
+        def keys = new ArrayList(doc.keySet())
+
+        then:
+        keys == ["name", "age", "address", "tags"]
+        doc.size() == 4
+        doc.@m_vals == null
+
+        when:
+        def name = doc.get("name")
+
+        then:
+        name == "Dean"
+        doc.@m_vals.keySet() == ["name"] as Set
+        doc.get("missing") == null
+        doc.containsKey("age")
+        doc.getInteger("age") == 52
+        doc.get("address") instanceof MRawDocument
+        doc.get("address").get("city") == "Boston"
+        doc.get("tags")[0] instanceof MRawDocument
+        doc.get("tags")[0].get("k") == 1
+        doc.get("tags")[1] == "x"
+    }
+
+    def "test entry iteration and equality"()
+    {
+        setup:
+        def doc = raw([a: 1, b: "two"])
+
+        expect:
+        doc.entrySet().collect { it.key + "=" + it.value } == ["a=1", "b=two"]
+        new ArrayList(doc.values()) == [1, "two"]
+        doc.containsValue("two")
+        doc == new Document([a: 1, b: "two"])
+        doc == raw([a: 1, b: "two"])
+        false == doc.isModified()
+    }
+
+    def "test writes copy on write and re-encode"()
+    {
+        setup:
+        def doc = raw([_id: 1, name: "Dean"])
+        def original = doc.getRawBsonDocument()
+
+        when:
+        doc.put("id", "abc")
+        doc.remove("name")
+
+        then:
+        doc.isModified()
+        doc.get("id") == "abc"
+        false == doc.containsKey("name")
+        new ArrayList(doc.keySet()) == ["_id", "id"]
+        original.containsKey("name")
+        doc.getRawBsonDocument().getString("id").getValue() == "abc"
+        false == doc.getRawBsonDocument().containsKey("name")
+        doc.toBsonDocument(Document, registry).getString("id").getValue() == "abc"
+    }
+
+    def "test iterator removal switches to the copy"()
+    {
+        setup:
+        def doc = raw([a: 1, b: 2, c: 3])
+
+        when:
+        def iter = doc.keySet().iterator()
+        while (iter.hasNext())
+        {
+            if (iter.next() == "b")
+            {
+                iter.remove()
+            }
+        }
+
+        then:
+        new ArrayList(doc.keySet()) == ["a", "c"]
+        doc.getRawBsonDocument().size() == 2
+    }
+}
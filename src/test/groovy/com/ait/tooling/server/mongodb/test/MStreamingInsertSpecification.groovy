@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.util.stream.IntStream
+
+import org.bson.RawBsonDocument
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+import com.mongodb.client.MongoCollection
+
+import spock.lang.Specification
+
+class MStreamingInsertSpecification extends Specification
+{
+    def "test streaming insert batches by count and bytes"()
+    {
+        setup:
+        def rawcol = Mock(MongoCollection)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.withDocumentClass(RawBsonDocument) >> rawcol
+        collect.getNamespace() >> new MongoNamespace("test", "people")
+        def sizes = Collections.synchronizedList([])
+        def mcoll = new MCollection(collect, true)
+
+        when:
+        def total = mcoll.insertMany(IntStream.range(0, 2500).mapToObj({ i -> [name: "name" + i] }), 1000, 1024L * 1024L, 1)
+        def small = mcoll.insertMany((0..<10).collect({ i -> [name: "name" + i] }).iterator(), 1000, 200L, 3)
+
+        then:
+        _ * rawcol.insertMany(_) >> { args -> sizes << args[0].size() }
+        total == 2500L
+        small == 10L
+        sizes.sum() == 2510
+        sizes.take(3) == [1000, 1000, 500]
+        sizes.drop(3).every({ it <= 4 })
+    }
+
+    def "test insertMany without createID leaves records alone"()
+    {
+        setup:
+        def mapcol = Mock(MongoCollection)
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.withDocumentClass(_) >> mapcol
+        mapcol.withCodecRegistry(_) >> mapcol
+        def list = [[name: "Dean"], [name: "Bob"]]
+
+        when:
+        new MCollection(collect, false).insertMany(list)
+
+        then:
+        1 * mapcol.insertMany(list)
+        list.every({ false == it.containsKey("id") })
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.bson.Document
+import org.bson.conversions.Bson
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MCountCache
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDB.MQuery
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MCollectionMetrics
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+import com.mongodb.ServerAddress
+import com.mongodb.ServerCursor
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.MongoCursor
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+class MTailableCursorSpecification extends Specification
+{
+    def "test tailable cursor batches resumes and stops"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def queries = new ConcurrentLinkedQueue()
+        def batches = new ConcurrentLinkedQueue()
+        def first = new LinkedList([new Document([_id: 9, ts: 1L]), new Document([_id: 7, ts: 2L]), new Document([_id: 8, ts: 3L])])
+        def cursor = Mock(MongoCursor)
+        cursor.getServerCursor() >> new ServerCursor(1L, new ServerAddress())
+        cursor.tryNext() >> {
+            if (first.isEmpty())
+            {
+                throw new IllegalStateException("connection reset")
+            }
+            first.poll()
+        }
+        def resumed = Mock(MongoCursor)
+        resumed.getServerCursor() >> new ServerCursor(2L, new ServerAddress())
+        resumed.tryNext() >> { Thread.sleep(5L); null }
+        def finder = Mock(FindIterable)
+        finder.cursorType(_) >> finder
+        finder.maxAwaitTime(_, _) >> finder
+        finder.noCursorTimeout(_) >> finder
+        finder.batchSize(_) >> finder
+        finder.iterator() >>> [cursor, resumed]
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> registry
+        collect.getNamespace() >> new MongoNamespace("test", "events")
+        collect.find(_) >> { Bson query -> queries.add(query.toBsonDocument(Document, registry)); finder }
+        def tailers = new HashSet()
+        def mcoll = new MCollection(collect, false, null, MCollectionMetrics.NONE, MCursorPreferences.NONE, null, new MCountCache(), null, tailers)
+        def conditions = new PollingConditions(timeout: 5)
+
+        when:
+        def tailer = mcoll.tail(new MQuery([kind: "order"]), "ts", { batches.add(it.collect { doc -> doc['ts'] }) }, 1, 2, 2, 10L, 10L)
+
+        then:
+        tailers.contains(tailer)
+        conditions.eventually {
+            assert new ArrayList(batches.flatten()) == [1L, 2L, 3L]
+            assert queries.size() == 2
+        }
+        batches.first() == [1L, 2L]
+        queries.last().toJson().contains('"ts" : { "$gt" : { "$numberLong" : "3" } }')
+        tailer.getResumeField() == "ts"
+        tailer.getLastValue() == 3L
+        tailer.getResumes() >= 1L
+
+        when:
+        tailer.close()
+
+        then:
+        false == tailer.isRunning()
+        false == tailers.contains(tailer)
+    }
+
+    def "test blocked handler stops the reader"()
+    {
+        setup:
+        def reads = new AtomicInteger()
+        def release = new CountDownLatch(1)
+        def cursor = Mock(MongoCursor)
+        cursor.getServerCursor() >> new ServerCursor(1L, new ServerAddress())
+        cursor.tryNext() >> { new Document([_id: reads.incrementAndGet()]) }
+        def finder = Mock(FindIterable)
+        finder.cursorType(_) >> finder
+        finder.maxAwaitTime(_, _) >> finder
+        finder.noCursorTimeout(_) >> finder
+        finder.batchSize(_) >> finder
+        finder.iterator() >> cursor
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.getNamespace() >> new MongoNamespace("test", "events")
+        collect.find() >> finder
+        def mcoll = new MCollection(collect, false)
+        def conditions = new PollingConditions(timeout: 5)
+
+        when:
+        def tailer = mcoll.tail(null, { release.await() }, 1, 1, 1, 10L, 10L)
+
+        then:
+        conditions.eventually {
+            assert tailer.m_reader.getState() == Thread.State.WAITING
+            assert tailer.m_permits.availablePermits() == 0
+        }
+        reads.get() == 3
+        tailer.getDelivered() == 0L
+
+        when:
+        release.countDown()
+
+        then:
+        conditions.eventually {
+            assert tailer.getDelivered() >= 3L
+        }
+
+        cleanup:
+        tailer?.close()
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.BsonDocument
+import org.bson.BsonDocumentReader
+import org.bson.BsonDocumentWriter
+import org.bson.BsonInt32
+import org.bson.BsonInt64
+import org.bson.Document
+import org.bson.codecs.DecoderContext
+import org.bson.codecs.EncoderContext
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDB.MCursorPreferences
+import com.ait.tooling.server.mongodb.MongoDB.MReflectiveCodecProvider
+import com.ait.tooling.server.mongodb.MongoDB.MTypedCollection
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MCollectionMetrics
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+import com.mongodb.client.AggregateIterable
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+import com.mongodb.client.MongoCursor
+
+import spock.lang.Specification
+
+class MTypedCollectionSpecification extends Specification
+{
+    def "test reflective codec round trip"()
+    {
+        setup:
+        def codec = MReflectiveCodecProvider.withReflection(MongoClient.getDefaultCodecRegistry()).get(TypedPerson)
+        def person = new TypedPerson(id: "1", name: "Dean", age: 51, state: TypedState.ACTIVE, tags: ["a", "b"] as Set, props: [x: 1], friend: new TypedPerson(name: "Bob"))
+        def bson = new BsonDocument()
+
+        when:
+        codec.encode(new BsonDocumentWriter(bson), person, EncoderContext.builder().build())
+        bson.put("_id", bson.get("id"))
+        def copy = codec.decode(new BsonDocumentReader(bson), DecoderContext.builder().build())
+
+        then:
+        bson.getString("state").getValue() == "ACTIVE"
+        bson.containsKey("skip") == false
+        copy.name == "Dean"
+        copy.age == 51
+        copy.state == TypedState.ACTIVE
+        copy.tags == ["a", "b"] as Set
+        copy.props['x'] == 1
+        copy.friend.name == "Bob"
+        copy.friend.friend == null
+    }
+
+    def "test reflective codec generic elements and numeric coercion"()
+    {
+        setup:
+        def codec = MReflectiveCodecProvider.withReflection(MongoClient.getDefaultCodecRegistry()).get(TypedPerson)
+        def person = new TypedPerson(name: "Dean", friends: [new TypedPerson(name: "Bob", age: 40), new TypedPerson(name: "Ann")], lookup: [boss: new TypedPerson(name: "Sue")])
+        def bson = new BsonDocument()
+
+        when:
+        codec.encode(new BsonDocumentWriter(bson), person, EncoderContext.builder().build())
+        bson.put("age", new BsonInt64(51L))
+        bson.put("visits", new BsonInt32(7))
+        def copy = codec.decode(new BsonDocumentReader(bson), DecoderContext.builder().build())
+
+        then:
+        copy.friends.size() == 2
+        copy.friends[0] instanceof TypedPerson
+        copy.friends[0].name == "Bob"
+        copy.friends[0].age == 40
+        copy.friends[1].name == "Ann"
+        copy.lookup['boss'] instanceof TypedPerson
+        copy.lookup['boss'].name == "Sue"
+        copy.age == 51
+        copy.visits == 7L
+    }
+
+    def "test typed collection insert assigns id"()
+    {
+        setup:
+        def collect = Mock(MongoCollection)
+        def typedcol = typed(collect)
+        def mcoll = new MTypedCollection(new MCollection(collect, true), TypedPerson)
+
+        when:
+        def person = mcoll.insertOne(new TypedPerson(name: "Dean"))
+
+        then:
+        1 * typedcol.insertOne(_)
+        person.id != null
+        mcoll.getName() == "people"
+    }
+
+    def "test typed collection shares the parent cursor preferences"()
+    {
+        setup:
+        def collect = Mock(MongoCollection)
+        def typedcol = typed(collect)
+        def finder = Mock(FindIterable)
+        typedcol.find() >> finder
+        def mcoll = new MTypedCollection(new MCollection(collect, false, null, MCollectionMetrics.NONE, new MCursorPreferences(500, 0L, false, false)), TypedPerson)
+
+        when:
+        mcoll.find()
+
+        then:
+        1 * finder.batchSize(500)
+    }
+
+    def "test typed aggregate cursor applies sort skip and limit as stages"()
+    {
+        setup:
+        def collect = Mock(MongoCollection)
+        def typedcol = typed(collect)
+        def aggreg = Mock(AggregateIterable)
+        def stages = null
+        aggreg.iterator() >> ([hasNext: { false }, close: {}] as MongoCursor)
+        def mcoll = new MTypedCollection(new MCollection(collect, false), TypedPerson)
+
+        when:
+        def list = mcoll.aggregate(new Document('$match', [age: 51])).sort([name: 1]).skip(5).limit(10).into([])
+
+        then:
+        1 * typedcol.aggregate(_, TypedPerson) >> { args -> stages = args[0]; aggreg }
+        list.isEmpty()
+        stages.collect { it.keySet().first() } == ['$match', '$sort', '$skip', '$limit']
+        stages[1].get('$sort') == [name: 1]
+        stages[3].get('$limit') == 10
+    }
+
+    private MongoCollection typed(final MongoCollection collect)
+    {
+        def typedcol = Mock(MongoCollection)
+        def registry = MongoClient.getDefaultCodecRegistry()
+        collect.getCodecRegistry() >> registry
+        collect.getNamespace() >> new MongoNamespace("test", "people")
+        collect.withDocumentClass(TypedPerson) >> typedcol
+        typedcol.withCodecRegistry(_) >> typedcol
+        typedcol.getCodecRegistry() >> MReflectiveCodecProvider.withReflection(registry)
+        typedcol.getNamespace() >> new MongoNamespace("test", "people")
+        typedcol
+    }
+}
+
+enum TypedState
+{
+    ACTIVE, INACTIVE
+}
+
+class TypedPerson
+{
+    String              id
+
+    String              name
+
+    int                 age
+
+    TypedState          state
+
+    Set<String>         tags
+
+    Map<String, Object> props
+
+    TypedPerson         friend
+
+    List<TypedPerson>   friends
+
+    Map<String, TypedPerson> lookup
+
+    long                visits
+
+    transient String    skip = "skip"
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import com.ait.tooling.server.mongodb.MongoDB
+import com.ait.tooling.server.mongodb.MongoDB.MCollectionPreferences
+import com.mongodb.MongoClientOptions
+import com.mongodb.ServerAddress
+import com.mongodb.WriteConcern
+
+import spock.lang.Specification
+
+class MongoDBHandleSpecification extends Specification
+{
+    def "test cached database and collection handles"()
+    {
+        setup:
+        def mongo = new MongoDB([new ServerAddress("localhost", 27017)], [], MongoClientOptions.builder().build(), false, "test", false, [:])
+
+        when:
+        def a = mongo.db().collection("users")
+        def b = mongo.db("test").collection("users")
+        def c = mongo.db().collection("users", new MCollectionPreferences(WriteConcern.MAJORITY))
+        def d = mongo.db().collection("users", new MCollectionPreferences(WriteConcern.MAJORITY))
+        def count = mongo.getCollectionHandleCount()
+        mongo.close()
+
+        then:
+        a.is(b)
+        c.is(d)
+        false == a.is(c)
+        count == 2
+        mongo.getDatabaseHandleCount() == 0
+    }
+
+    def "test trimmed names share handles and overflow evicts"()
+    {
+        setup:
+        def mongo = new MongoDB([new ServerAddress("localhost", 27017)], [], MongoClientOptions.builder().build(), false, "test", false, [:])
+
+        when:
+        def a = mongo.db(" test ").collection(" users ")
+        def b = mongo.db("test").collection("users")
+        mongo.setHandleCacheSize(1)
+        def c = mongo.db("other")
+        def d = mongo.db("other")
+        def count = mongo.getDatabaseHandleCount()
+        mongo.close()
+
+        then:
+        a.is(b)
+        c.is(d)
+        count == 1
+    }
+}
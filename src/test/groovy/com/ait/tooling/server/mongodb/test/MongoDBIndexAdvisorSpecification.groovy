@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import org.bson.BsonDocument
+import org.bson.Document
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDBIndexAdvisor
+import com.ait.tooling.server.mongodb.MongoDBMetrics
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+import com.mongodb.client.FindIterable
+import com.mongodb.client.MongoCollection
+
+import spock.lang.Specification
+
+class MongoDBIndexAdvisorSpecification extends Specification
+{
+    def "test query shapes replace values"()
+    {
+        setup:
+        def shape = MongoDBIndexAdvisor.shape(BsonDocument.parse('{ "name" : "Dean", "age" : { "$gt" : 21 }, "$or" : [ { "x" : 1 }, { "y" : 2 } ] }'))
+
+        expect:
+        shape.toJson() == BsonDocument.parse('{ "name" : "?", "age" : { "$gt" : "?" }, "$or" : [ { "x" : "?" }, { "y" : "?" } ] }').toJson()
+    }
+
+    def "test recommended index follows equality sort range"()
+    {
+        setup:
+        def index = MongoDBIndexAdvisor.recommend(BsonDocument.parse('{ "age" : { "$gt" : 21 }, "name" : "Dean", "tag" : { "$in" : [ "a" ] } }'), BsonDocument.parse('{ "when" : -1 }'))
+
+        expect:
+        new ArrayList(index.keySet()) == ["name", "tag", "when", "age"]
+        index.getInt32("when").getValue() == -1
+        MongoDBIndexAdvisor.recommend(BsonDocument.parse('{ "$or" : [ { "x" : 1 } ] }'), new BsonDocument()) == null
+    }
+
+    def "test winning plan stages"()
+    {
+        setup:
+        def stages = new LinkedHashSet()
+        def indexes = new LinkedHashSet()
+        MongoDBIndexAdvisor.stages(BsonDocument.parse('{ "stage" : "SORT", "inputStage" : { "stage" : "FETCH", "inputStage" : { "stage" : "IXSCAN", "indexName" : "name_1" } } }'), stages, indexes)
+
+        expect:
+        new ArrayList(stages) == ["SORT", "FETCH", "IXSCAN"]
+        new ArrayList(indexes) == ["name_1"]
+    }
+
+    def "test record groups by shape"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def space = new MongoNamespace("test", "people")
+        def advisor = new MongoDBIndexAdvisor("test", Mock(MongoClient))
+
+        when:
+        advisor.record(space, registry, "find", new Document([name: "Dean"]), null, null, 1000L)
+        advisor.setEnabled(true)
+        advisor.record(space, registry, "find", new Document([name: "Dean"]), null, null, 1000L)
+        advisor.record(space, registry, "find", new Document([name: "Rosie"]), null, null, 1000L)
+        advisor.record(space, registry, "find", new Document([age: 2]), new Document([name: 1]), null, 1000L)
+
+        then:
+        advisor.getShapeCount() == 2
+        advisor.getShapes().size() == 2
+        advisor.getShapes().find { it.contains('"name" : "?"') && it.contains("count=2") } != null
+    }
+
+    def "test shapes are recorded while metrics are disabled"()
+    {
+        setup:
+        def metrics = new MongoDBMetrics("test", false)
+        def advisor = new MongoDBIndexAdvisor("test", Mock(MongoClient))
+        def found = Mock(FindIterable)
+        found.limit(_) >> found
+        found.projection(_) >> found
+        def collect = Mock(MongoCollection)
+        collect.getCodecRegistry() >> MongoClient.getDefaultCodecRegistry()
+        collect.getNamespace() >> new MongoNamespace("test", "people")
+        collect.find(_) >> found
+        def mcoll = new MCollection(collect, false, null, metrics.collection("test", "people"))
+        metrics.setIndexAdvisor(advisor)
+        advisor.setEnabled(true)
+
+        when:
+        mcoll.findOne([name: "Dean"])
+
+        then:
+        advisor.getShapeCount() == 1
+        metrics.getLatencyStatistics().isEmpty()
+    }
+
+    def "test explain command follows the operation"()
+    {
+        setup:
+        def filter = BsonDocument.parse('{ "name" : "?" }')
+        def sort = BsonDocument.parse('{ "age" : 1 }')
+
+        expect:
+        MongoDBIndexAdvisor.command("find", "people", filter, sort, new BsonDocument()) == BsonDocument.parse('{ "explain" : { "find" : "people", "filter" : { "name" : "?" }, "sort" : { "age" : 1 } }, "verbosity" : "queryPlanner" }')
+        MongoDBIndexAdvisor.command("countExact", "people", filter, new BsonDocument(), new BsonDocument()) == BsonDocument.parse('{ "explain" : { "count" : "people", "query" : { "name" : "?" } }, "verbosity" : "queryPlanner" }')
+        MongoDBIndexAdvisor.command("aggregate", "people", filter, sort, new BsonDocument()) == BsonDocument.parse('{ "aggregate" : "people", "pipeline" : [ { "$match" : { "name" : "?" } }, { "$sort" : { "age" : 1 } } ], "explain" : true }')
+    }
+
+    def "test aggregate explain plan is read from the cursor stage"()
+    {
+        setup:
+        def result = BsonDocument.parse('{ "stages" : [ { "$cursor" : { "queryPlanner" : { "winningPlan" : { "stage" : "COLLSCAN" } } } }, { "$group" : { } } ] }')
+
+        expect:
+        MongoDBIndexAdvisor.planner(result).getDocument("winningPlan").getString("stage").getValue() == "COLLSCAN"
+        MongoDBIndexAdvisor.planner(BsonDocument.parse('{ "queryPlanner" : { "winningPlan" : { "stage" : "IXSCAN" } } }')).getDocument("winningPlan").getString("stage").getValue() == "IXSCAN"
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.util.function.LongConsumer
+import java.util.function.Supplier
+
+import com.ait.tooling.server.mongodb.MongoDB.MCollection
+import com.ait.tooling.server.mongodb.MongoDBMetrics
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MLatencyHistogram
+import com.ait.tooling.server.mongodb.MongoDBMetrics.MOperation
+import com.mongodb.MongoException
+import com.mongodb.client.MongoCollection
+
+import spock.lang.Specification
+
+class MongoDBMetricsSpecification extends Specification
+{
+    def "test latency histogram percentiles"()
+    {
+        setup:
+        def histogram = new MLatencyHistogram()
+
+        when:
+        (1..1000).each { histogram.record(it * 1000L) }
+
+        then:
+        histogram.getCount() == 1000L
+        histogram.getPercentileNanos(50.0) >= 500000L
+        histogram.getPercentileNanos(50.0) <= 500000L * 1.125
+        histogram.getPercentileNanos(99.9) >= 999000L
+        histogram.getPercentileNanos(99.9) <= 999000L * 1.125
+    }
+
+    def "test collection counts errors and switch"()
+    {
+        setup:
+        def collect = Mock(MongoCollection)
+        collect.count(_) >>> [10L, 20L] >> { throw new MongoException("boom") }
+        def metrics = new MongoDBMetrics("test", true)
+        def mcoll = new MCollection(collect, false, null, metrics.collection("db", "coll"))
+        def histogram = mcoll.getMetrics().getHistogram(MOperation.COUNT)
+
+        when:
+        mcoll.count([:])
+        metrics.setEnabled(false)
+        mcoll.count([:])
+        metrics.setEnabled(true)
+        mcoll.count([:])
+
+        then:
+        thrown(MongoException)
+        histogram.getCount() == 2L
+        histogram.getErrors() == 1L
+        metrics.getLatencyStatistics().size() == 1
+        metrics.getLatencyStatistics()[0].startsWith("test/db.coll/count")
+    }
+
+    def "test timed records the call, the error and runs the completion hook"()
+    {
+        setup:
+        def metrics = new MongoDBMetrics("test", true).collection("db", "coll")
+        def done = []
+
+        when:
+        def value = metrics.timed(MOperation.FIND_ONE, { 42 } as Supplier, { done << it } as LongConsumer)
+        metrics.timed(MOperation.FIND_ONE, { throw new MongoException("boom") } as Supplier, { done << it } as LongConsumer)
+
+        then:
+        thrown(MongoException)
+        value == 42
+        done.size() == 2
+        done.every { it > 0L }
+        metrics.getHistogram(MOperation.FIND_ONE).getCount() == 2L
+        metrics.getHistogram(MOperation.FIND_ONE).getErrors() == 1L
+    }
+}
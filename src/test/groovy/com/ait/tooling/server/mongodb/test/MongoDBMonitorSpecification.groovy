@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.lang.management.ManagementFactory
+import java.util.concurrent.TimeUnit
+
+import javax.management.ObjectName
+import javax.management.StandardMBean
+
+import org.bson.BsonDocument
+
+import com.ait.tooling.server.mongodb.MongoDBMonitor
+import com.mongodb.ServerAddress
+import com.mongodb.connection.ClusterId
+import com.mongodb.connection.ConnectionDescription
+import com.mongodb.connection.ServerId
+import com.mongodb.event.CommandSucceededEvent
+
+import spock.lang.Specification
+
+class MongoDBMonitorSpecification extends Specification
+{
+    def "test monitor command events and driver pool statistics"()
+    {
+        setup:
+        def monitor = new MongoDBMonitor("test")
+        def cluster = new ClusterId()
+        def server = new ServerId(cluster, new ServerAddress("localhost", 27017))
+        def connect = new ConnectionDescription(server)
+        def mbeans = ManagementFactory.getPlatformMBeanServer()
+        def name = new ObjectName("org.mongodb.driver:type=ConnectionPool,clusterId=" + cluster.getValue() + ",host=localhost,port=27017")
+        mbeans.registerMBean(new StandardMBean([getHost: { "localhost" }, getPort: { 27017 }, getSize: { 2 }, getCheckedOutCount: { 1 }, getMaxSize: { 4 }, getWaitQueueSize: { 0 }] as PoolStatistics, PoolStatistics), name)
+
+        when:
+        def before = monitor.getPoolStatistics()
+        monitor.commandSucceeded(new CommandSucceededEvent(1, connect, "find", new BsonDocument(), TimeUnit.MILLISECONDS.toNanos(2L)))
+
+        then:
+        before.isEmpty()
+        monitor.getCommandStatistics().size() == 1
+        monitor.getCommandStatistics()[0].startsWith("test/find {count=1")
+        monitor.getPoolStatistics().size() == 1
+        monitor.getPoolStatistics()[0].startsWith("test/localhost:27017 ")
+        monitor.getPoolStatistics()[0].contains("checkedOut=1")
+        monitor.getPoolStatistics()[0].contains("utilization=0.25")
+
+        cleanup:
+        mbeans.unregisterMBean(name)
+    }
+
+    static interface PoolStatistics
+    {
+        String getHost()
+
+        int getPort()
+
+        int getSize()
+
+        int getCheckedOutCount()
+
+        int getMaxSize()
+
+        int getWaitQueueSize()
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 Ahome' Innovation Technologies. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ait.tooling.server.mongodb.test
+
+import java.util.concurrent.TimeUnit
+
+import org.bson.Document
+
+import com.ait.tooling.server.mongodb.MongoDBSlowLog
+import com.mongodb.MongoClient
+import com.mongodb.MongoNamespace
+
+import spock.lang.Specification
+
+class MongoDBSlowLogSpecification extends Specification
+{
+    def "test slow operations are redacted"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def slowlog = new MongoDBSlowLog("test")
+        slowlog.setEnabled(true)
+        slowlog.setThreshold(10L)
+
+        when:
+        slowlog.record(new MongoNamespace("test", "people"), registry, "updateOne", new Document([name: "Dean"]), new Document([age: -1]), new Document(['$set': [secret: "hunter2"]]), TimeUnit.MILLISECONDS.toNanos(5L))
+        slowlog.record(new MongoNamespace("test", "people"), registry, "updateOne", new Document([name: "Dean"]), new Document([age: -1]), new Document(['$set': [secret: "hunter2"]]), TimeUnit.MILLISECONDS.toNanos(50L))
+        def list = slowlog.getSlowOperations()
+
+        then:
+        list.size() == 1
+        list[0].contains("50ms test.people updateOne")
+        list[0].contains('"name" : "?"')
+        list[0].contains('"age" : -1')
+        list[0].contains('"secret" : "?"')
+        false == list[0].contains("Dean")
+        false == list[0].contains("hunter2")
+    }
+
+    def "test collection thresholds sampling and buffer"()
+    {
+        setup:
+        def registry = MongoClient.getDefaultCodecRegistry()
+        def slowlog = new MongoDBSlowLog("test")
+        slowlog.setEnabled(true)
+        slowlog.setThreshold(1000L)
+        slowlog.setThreshold("events", 1L)
+        slowlog.setSampleRate(3)
+        slowlog.setBufferSize(2)
+
+        when:
+        slowlog.record(new MongoNamespace("test", "people"), registry, "find", null, null, null, TimeUnit.MILLISECONDS.toNanos(5L))
+        10.times {
+            slowlog.record(new MongoNamespace("test", "events"), registry, "find", new Document([kind: it]), null, null, TimeUnit.MILLISECONDS.toNanos(5L))
+        }
+
+        then:
+        slowlog.getThreshold("events") == 1L
+        slowlog.getSlowOperations().size() == 2
+        slowlog.getSuppressed() >= 1L
+        slowlog.getTopOffenders(10).size() == 1
+        slowlog.getTopOffenders(10)[0].contains("count=2")
+    }
+}